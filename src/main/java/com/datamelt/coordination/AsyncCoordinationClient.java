@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * client sending messages to the coordination server without waiting for the responses.
+ * 
+ * the client uses version 2 of the binary protocol: each request carries an id which
+ * the server sends back with the response. every call returns a CompletableFuture which
+ * is completed when the response has arrived, so any number of requests can be sent on
+ * one connection without waiting in between - e.g. to run or check hundreds of jobs in a
+ * single burst. send() with a list of messages writes all of them at once.
+ * 
+ * the responses are read by one thread per client, which also completes the futures.
+ * code attached to the futures should therefore not block. the client can be used by
+ * many threads at the same time.
+ * 
+ * a request which is not answered within the request timeout is completed exceptionally
+ * with a TimeoutException; a response arriving later is ignored. waitForJob() adds the
+ * time to wait for the job to the timeout. the timeouts of all clients are watched by
+ * one shared thread.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class AsyncCoordinationClient implements Closeable
+{
+	public static final long DEFAULT_REQUEST_TIMEOUT		= 60000;
+	
+	private static final ScheduledThreadPoolExecutor timeouts	= createTimeoutExecutor();
+	
+	private String server;
+	private int port;
+	private Socket socket;
+	private OutputStream outputStream;
+	private DataInputStream inputStream;
+	
+	// encoder and buffer are used by one sending thread at a time
+	private final Object writeLock							= new Object();
+	private BinaryCodec codec								= new BinaryCodec(true);
+	private ByteBuffer frameBuffer							= ByteBuffer.allocate(256);
+	
+	private volatile long requestTimeout					= DEFAULT_REQUEST_TIMEOUT;
+	private AtomicInteger lastRequestId						= new AtomicInteger();
+	private ConcurrentHashMap<Integer,CompletableFuture<Object>> pendingRequests	= new ConcurrentHashMap<Integer,CompletableFuture<Object>>();
+	// the events of the subscription carry the id of the subscribe request
+	private volatile int subscriptionId;
+	private volatile Consumer<String> eventListener;
+	// set when the connection has failed or was closed
+	private volatile IOException failure;
+	
+	public AsyncCoordinationClient(String server, int port) throws IOException
+	{
+		this.server = server;
+		this.port = port;
+		
+		socket = new Socket(server, port);
+		try
+		{
+			socket.setTcpNoDelay(true);
+			outputStream = new BufferedOutputStream(socket.getOutputStream());
+			inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			
+			// the server greets with the header of a java serialization stream
+			if(inputStream.readShort()!=ObjectStreamConstants.STREAM_MAGIC || inputStream.readShort()!=ObjectStreamConstants.STREAM_VERSION)
+			{
+				throw new StreamCorruptedException("invalid stream header");
+			}
+			outputStream.write(ByteBuffer.allocate(4).putInt(BinaryCodec.MAGIC_V2).array());
+			outputStream.flush();
+			if(inputStream.readInt()!=BinaryCodec.MAGIC_V2)
+			{
+				throw new StreamCorruptedException("binary protocol version 2 not confirmed by the server");
+			}
+		}
+		catch(IOException ex)
+		{
+			socket.close();
+			throw ex;
+		}
+		
+		Thread reader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readResponses();
+			}
+		}, "coordination-client-" + server + ":" + port);
+		reader.setDaemon(true);
+		reader.start();
+	}
+	
+	/**
+	 * sends the message to the server
+	 * 
+	 * @param message	the message, e.g. jobrun:id_0001
+	 * @return			future completed with the response - a String or an Integer
+	 */
+	public CompletableFuture<Object> send(String message)
+	{
+		return send(Collections.singletonList(message)).get(0);
+	}
+	
+	/**
+	 * sends the messages to the server at once, without waiting for the responses in
+	 * between. the server processes them in the given order.
+	 * 
+	 * @param messages	the messages
+	 * @return			a future per message, completed with its response
+	 */
+	public List<CompletableFuture<Object>> send(List<String> messages)
+	{
+		return send(messages, requestTimeout);
+	}
+	
+	private List<CompletableFuture<Object>> send(List<String> messages, long timeout)
+	{
+		ArrayList<CompletableFuture<Object>> futures = new ArrayList<CompletableFuture<Object>>(messages.size());
+		synchronized(writeLock)
+		{
+			try
+			{
+				frameBuffer.clear();
+				for(String message : messages)
+				{
+					int requestId = nextRequestId();
+					CompletableFuture<Object> future = new CompletableFuture<Object>();
+					pendingRequests.put(requestId, future);
+					futures.add(future);
+					if(timeout>0)
+					{
+						watchTimeout(requestId, future, timeout);
+					}
+					frameBuffer = codec.encodeRequest(requestId, message, frameBuffer);
+				}
+				checkOpen();
+				outputStream.write(frameBuffer.array(), 0, frameBuffer.position());
+				outputStream.flush();
+			}
+			catch(IOException ex)
+			{
+				fail(ex);
+			}
+		}
+		return futures;
+	}
+	
+	/**
+	 * waits until the job has finished, without blocking the calling thread
+	 * 
+	 * @param jobId				the id of the job
+	 * @param timeoutSeconds	the maximum time to wait in seconds
+	 * @return					future completed with the exit code of the job or null if the job has not finished within the timeout or does not exist
+	 */
+	public CompletableFuture<Integer> waitForJob(String jobId, long timeoutSeconds)
+	{
+		// the server answers after the timeout at the latest
+		long timeout = requestTimeout>0 ? requestTimeout + timeoutSeconds * 1000 : 0;
+		return send(Collections.singletonList(ClientHandler.RESPONSE_JOB_WAIT + ClientHandler.DELIMITER + jobId + ClientHandler.DELIMITER + timeoutSeconds), timeout).get(0).thenApply(new Function<Object,Integer>()
+		{
+			@Override
+			public Integer apply(Object response)
+			{
+				return CoordinationClient.getExitCode(response);
+			}
+		});
+	}
+	
+	/**
+	 * subscribes to the events of the jobs selected by the filter. a new subscription
+	 * replaces the previous one. the listener is called by the thread reading the
+	 * responses and should not block.
+	 * 
+	 * @param filter		the job ids or prefixes ending with *, separated by comma. null for all jobs
+	 * @param listener		receives each event
+	 * @return				future completed with the confirmation of the server
+	 */
+	public CompletableFuture<Object> subscribe(String filter, Consumer<String> listener)
+	{
+		synchronized(writeLock)
+		{
+			// the id is known before the request is sent, so no event can be missed
+			subscriptionId = lastRequestId.get() + 1;
+			eventListener = listener;
+			return send(filter!=null ? ClientHandler.RESPONSE_SUBSCRIBE + ClientHandler.DELIMITER + filter : ClientHandler.RESPONSE_SUBSCRIBE);
+		}
+	}
+	
+	/**
+	 * completes the request exceptionally once the timeout has passed without a response
+	 */
+	private void watchTimeout(final int requestId, final CompletableFuture<Object> future, final long timeout)
+	{
+		final ScheduledFuture<?> timeoutTask = timeouts.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if(pendingRequests.remove(requestId, future))
+				{
+					future.completeExceptionally(new TimeoutException("no response to request [" + requestId + "] from server [" + server + ":" + port + "] within [" + timeout + "] ms"));
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		future.whenComplete(new BiConsumer<Object,Throwable>()
+		{
+			@Override
+			public void accept(Object response, Throwable exception)
+			{
+				timeoutTask.cancel(false);
+			}
+		});
+	}
+	
+	private static ScheduledThreadPoolExecutor createTimeoutExecutor()
+	{
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "coordination-client-timeouts");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// answered requests are removed right away, not when their timeout would have passed
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+	
+	private int nextRequestId()
+	{
+		int requestId = lastRequestId.incrementAndGet();
+		if(requestId==0)
+		{
+			// 0 means no request id
+			requestId = lastRequestId.incrementAndGet();
+		}
+		return requestId;
+	}
+	
+	private void readResponses()
+	{
+		byte[] frame = new byte[256];
+		try
+		{
+			while(true)
+			{
+				int length = inputStream.readInt();
+				if(length<BinaryCodec.HEADER_LENGTH_V2 - 4 || length>BinaryCodec.MAX_FRAME_LENGTH)
+				{
+					throw new StreamCorruptedException("invalid frame length: [" + length + "]");
+				}
+				if(length>frame.length)
+				{
+					frame = new byte[Math.max(length, frame.length * 2)];
+				}
+				inputStream.readFully(frame, 0, length);
+				int requestId = ByteBuffer.wrap(frame).getInt(0);
+				Object response = BinaryCodec.decodeResponse(frame, 4, length);
+				if(frame[4]==BinaryCodec.OP_RESPONSE_EVENT)
+				{
+					Consumer<String> listener = eventListener;
+					if(listener!=null && requestId==subscriptionId)
+					{
+						listener.accept((String)response);
+					}
+				}
+				else
+				{
+					CompletableFuture<Object> future = pendingRequests.remove(requestId);
+					if(future!=null)
+					{
+						future.complete(response);
+					}
+				}
+			}
+		}
+		catch(IOException ex)
+		{
+			fail(failure!=null ? failure : ex);
+		}
+	}
+	
+	private void checkOpen() throws IOException
+	{
+		if(failure!=null)
+		{
+			throw failure;
+		}
+	}
+	
+	/**
+	 * closes the connection and completes all outstanding requests with the exception
+	 */
+	private void fail(IOException ex)
+	{
+		if(failure==null)
+		{
+			failure = ex;
+		}
+		try
+		{
+			socket.close();
+		}
+		catch(IOException closeException)
+		{
+			// nothing we can do here
+		}
+		Iterator<Map.Entry<Integer,CompletableFuture<Object>>> iterator = pendingRequests.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			CompletableFuture<Object> future = iterator.next().getValue();
+			iterator.remove();
+			future.completeExceptionally(failure);
+		}
+	}
+	
+	/**
+	 * returns the number of requests sent and not yet answered
+	 * 
+	 * @return	the number of outstanding requests
+	 */
+	public int getNumberOfPendingRequests()
+	{
+		return pendingRequests.size();
+	}
+	
+	public boolean isClosed()
+	{
+		return failure!=null;
+	}
+	
+	public long getRequestTimeout()
+	{
+		return requestTimeout;
+	}
+	
+	/**
+	 * sets the time to wait for the response to a request. applies to the requests sent
+	 * afterwards.
+	 * 
+	 * @param requestTimeout	the timeout in milliseconds. 0 waits without a limit
+	 */
+	public void setRequestTimeout(long requestTimeout)
+	{
+		this.requestTimeout = requestTimeout;
+	}
+	
+	/**
+	 * closes the connection. outstanding requests are completed exceptionally
+	 */
+	@Override
+	public void close()
+	{
+		fail(new IOException("client closed"));
+	}
+	
+	public String getServer()
+	{
+		return server;
+	}
+	
+	public int getPort()
+	{
+		return port;
+	}
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * compact, length prefixed binary protocol between client and server.
+ *
+ * a client selects the protocol by sending the MAGIC value as the first four bytes
+ * after it has received the stream header of the server. the server confirms by sending
+ * MAGIC back. clients which start with a java serialization stream header instead, are
+ * served using the ObjectStreamCodec.
+ *
+ * each message is sent as a frame:
+ *
+ * int		length of the remainder of the frame
+ * byte		opcode
+ * short	length of the job id
+ * byte[]	job id (UTF-8)
+ * byte[]	payload (UTF-8 text or a four byte integer)
+ *
+ * version 2 of the protocol is selected with MAGIC_V2. each frame then carries the id
+ * of the request right after the length, and the response to a request carries the same
+ * id. the client can send many requests without waiting for the responses and match the
+ * responses by their id - also those of requests answered later, like jobwait. the events
+ * of a subscription carry the id of the subscribe request.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class BinaryCodec implements MessageCodec
+{
+	// "JRB1"
+	public static final int MAGIC							= 0x4A524231;
+	// "JRB2"
+	public static final int MAGIC_V2						= 0x4A524232;
+
+	public static final int MAX_FRAME_LENGTH				= 16 * 1024 * 1024;
+	public static final int HEADER_LENGTH					= 4 + 1 + 2;
+	public static final int HEADER_LENGTH_V2				= 4 + 4 + 1 + 2;
+
+	// request opcodes
+	public static final byte OP_TEXT						= 0;
+	public static final byte OP_EXIT						= 1;
+	public static final byte OP_UPTIME						= 2;
+	public static final byte OP_PROCESSID					= 3;
+	public static final byte OP_HELLO						= 4;
+	public static final byte OP_JOB_FINISHED				= 5;
+	public static final byte OP_JOB_CAN_START				= 6;
+	public static final byte OP_JOB_START_STATUS			= 7;
+	public static final byte OP_JOB_STARTTIME				= 8;
+	public static final byte OP_JOB_RUN						= 9;
+	public static final byte OP_JOB_EXIT_CODE				= 10;
+	public static final byte OP_JOB_RUNTIME					= 11;
+	public static final byte OP_JOB_DEPENDENCIES			= 12;
+	public static final byte OP_JOB_RESET					= 13;
+	public static final byte OP_JOB_REMOVE					= 14;
+	public static final byte OP_JOB_JSON					= 15;
+	public static final byte OP_LIST_JOBS					= 16;
+	public static final byte OP_RESET_JOBS					= 17;
+	public static final byte OP_RELOAD_JOBS					= 18;
+	public static final byte OP_NUMBER_OF_JOBS				= 19;
+	public static final byte OP_NEXT_JOB					= 20;
+	public static final byte OP_QUEUE_STATUS				= 21;
+	public static final byte OP_JOB_STATS					= 22;
+	public static final byte OP_JOB_UPSTREAM				= 23;
+	public static final byte OP_JOB_DOWNSTREAM				= 24;
+	public static final byte OP_JOB_BLOCKED					= 25;
+	public static final byte OP_JOB_WAIT					= 26;
+	public static final byte OP_SUBSCRIBE					= 27;
+	public static final byte OP_UNSUBSCRIBE					= 28;
+	public static final byte OP_JOB_STATUS					= 29;
+
+	// response opcodes
+	public static final byte OP_RESPONSE_TEXT				= 100;
+	public static final byte OP_RESPONSE_INTEGER			= 101;
+	public static final byte OP_RESPONSE_EVENT				= 102;
+
+	private static final String[] COMMANDS					= new String[128];
+	private static final HashMap<String,Byte> OPCODES		= new HashMap<String,Byte>();
+
+	static
+	{
+		addCommand(OP_EXIT, ClientHandler.RESPONSE_EXIT);
+		addCommand(OP_UPTIME, ClientHandler.RESPONSE_UPTIME);
+		addCommand(OP_PROCESSID, ClientHandler.RESPONSE_PROCESSID);
+		addCommand(OP_HELLO, ClientHandler.RESPONSE_HELLO);
+		addCommand(OP_JOB_FINISHED, ClientHandler.RESPONSE_JOB_FINISHED);
+		addCommand(OP_JOB_CAN_START, ClientHandler.RESPONSE_JOB_CAN_START);
+		addCommand(OP_JOB_START_STATUS, ClientHandler.RESPONSE_JOB_START_STATUS);
+		addCommand(OP_JOB_STARTTIME, ClientHandler.RESPONSE_JOB_STARTTIME);
+		addCommand(OP_JOB_RUN, ClientHandler.RESPONSE_JOB_RUN);
+		addCommand(OP_JOB_EXIT_CODE, ClientHandler.RESPONSE_JOB_EXIT_CODE);
+		addCommand(OP_JOB_RUNTIME, ClientHandler.RESPONSE_JOB_RUNTIME);
+		addCommand(OP_JOB_DEPENDENCIES, ClientHandler.RESPONSE_JOB_DEPENDENCIES);
+		addCommand(OP_JOB_RESET, ClientHandler.RESPONSE_JOB_RESET);
+		addCommand(OP_JOB_REMOVE, ClientHandler.RESPONSE_JOB_REMOVE);
+		addCommand(OP_JOB_JSON, ClientHandler.RESPONSE_JOB_JSON);
+		addCommand(OP_LIST_JOBS, ClientHandler.RESPONSE_LIST_JOBS);
+		addCommand(OP_RESET_JOBS, ClientHandler.RESPONSE_RESET_JOBS);
+		addCommand(OP_RELOAD_JOBS, ClientHandler.RESPONSE_RELOAD_JOBS);
+		addCommand(OP_NUMBER_OF_JOBS, ClientHandler.RESPONSE_NUMBER_OF_JOBS);
+		addCommand(OP_NEXT_JOB, ClientHandler.RESPONSE_NEXT_JOB);
+		addCommand(OP_QUEUE_STATUS, ClientHandler.RESPONSE_QUEUE_STATUS);
+		addCommand(OP_JOB_STATS, ClientHandler.RESPONSE_JOB_STATS);
+		addCommand(OP_JOB_UPSTREAM, ClientHandler.RESPONSE_JOB_UPSTREAM);
+		addCommand(OP_JOB_DOWNSTREAM, ClientHandler.RESPONSE_JOB_DOWNSTREAM);
+		addCommand(OP_JOB_BLOCKED, ClientHandler.RESPONSE_JOB_BLOCKED);
+		addCommand(OP_JOB_WAIT, ClientHandler.RESPONSE_JOB_WAIT);
+		addCommand(OP_SUBSCRIBE, ClientHandler.RESPONSE_SUBSCRIBE);
+		addCommand(OP_UNSUBSCRIBE, ClientHandler.RESPONSE_UNSUBSCRIBE);
+		addCommand(OP_JOB_STATUS, ClientHandler.RESPONSE_JOB_STATUS);
+	}
+
+	private CharsetEncoder encoder							= StandardCharsets.UTF_8.newEncoder();
+	// version 2: the frames carry the id of the request
+	private boolean requestIds;
+	private int headerLength;
+
+	/**
+	 * creates a codec for version 1 of the protocol
+	 */
+	public BinaryCodec()
+	{
+		this(false);
+	}
+
+	/**
+	 * creates a codec
+	 *
+	 * @param requestIds	true for version 2 of the protocol, where the frames carry the id of the request
+	 */
+	public BinaryCodec(boolean requestIds)
+	{
+		this.requestIds = requestIds;
+		this.headerLength = requestIds ? HEADER_LENGTH_V2 : HEADER_LENGTH;
+	}
+
+	public boolean hasRequestIds()
+	{
+		return requestIds;
+	}
+
+	private static void addCommand(byte opcode, String command)
+	{
+		COMMANDS[opcode] = command;
+		OPCODES.put(command, opcode);
+	}
+
+	/**
+	 * returns the command for the given opcode
+	 *
+	 * @param opcode	the opcode
+	 * @return			the command or null if the opcode is undefined
+	 */
+	public static String getCommand(byte opcode)
+	{
+		if(opcode>=0 && opcode<COMMANDS.length)
+		{
+			return COMMANDS[opcode];
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * returns the opcode for the given command
+	 *
+	 * @param command	the command
+	 * @return			the opcode or OP_TEXT if the command has no opcode
+	 */
+	public static byte getOpcode(String command)
+	{
+		Byte opcode = OPCODES.get(command);
+		if(opcode!=null)
+		{
+			return opcode;
+		}
+		else
+		{
+			return OP_TEXT;
+		}
+	}
+
+	/**
+	 * makes sure that the buffer has room for the given number of bytes
+	 *
+	 * @param buffer		buffer in write mode
+	 * @param additional	the number of bytes to be appended
+	 * @return				the same buffer or a larger one with the same content
+	 */
+	public static ByteBuffer ensureCapacity(ByteBuffer buffer, int additional)
+	{
+		if(buffer.remaining()>=additional)
+		{
+			return buffer;
+		}
+		int capacity = buffer.capacity();
+		while(capacity - buffer.position() < additional)
+		{
+			capacity = capacity * 2;
+		}
+		ByteBuffer largerBuffer = ByteBuffer.allocate(capacity);
+		buffer.flip();
+		largerBuffer.put(buffer);
+		return largerBuffer;
+	}
+
+	/**
+	 * encodes a message in the text format used by the CoordinationClientMessage
+	 * (command:jobid:arguments) as a frame
+	 *
+	 * @param message		the message
+	 * @param buffer		buffer in write mode to append the frame to
+	 * @return				the buffer containing the frame
+	 * @throws IOException	if the message can not be encoded
+	 */
+	public ByteBuffer encodeRequest(String message, ByteBuffer buffer) throws IOException
+	{
+		return encodeRequest(0, message, buffer);
+	}
+
+	/**
+	 * encodes a message in the text format as a frame with the given request id. the id
+	 * is only sent with version 2 of the protocol
+	 *
+	 * @param requestId		the id of the request
+	 * @param message		the message
+	 * @param buffer		buffer in write mode to append the frame to
+	 * @return				the buffer containing the frame
+	 * @throws IOException	if the message can not be encoded
+	 */
+	public ByteBuffer encodeRequest(int requestId, String message, ByteBuffer buffer) throws IOException
+	{
+		ClientRequest request = ClientRequest.parse(message);
+		byte opcode = getOpcode(request.getCommand());
+		if(opcode==OP_TEXT)
+		{
+			return encodeFrame(requestId, opcode, null, message, buffer);
+		}
+		else
+		{
+			return encodeFrame(requestId, opcode, request.getJobId(), request.getArguments(), buffer);
+		}
+	}
+
+	/**
+	 * appends a frame with a text payload to the buffer
+	 *
+	 * @param opcode		the opcode
+	 * @param jobId			the job id - may be null
+	 * @param payload		the payload - may be null
+	 * @param buffer		buffer in write mode to append the frame to
+	 * @return				the buffer containing the frame
+	 * @throws IOException	if the frame can not be encoded
+	 */
+	public ByteBuffer encodeFrame(byte opcode, String jobId, String payload, ByteBuffer buffer) throws IOException
+	{
+		return encodeFrame(0, opcode, jobId, payload, buffer);
+	}
+
+	private ByteBuffer encodeFrame(int requestId, byte opcode, String jobId, String payload, ByteBuffer buffer) throws IOException
+	{
+		buffer = ensureCapacity(buffer, headerLength);
+		int start = buffer.position();
+		buffer.position(start + 4);
+		if(requestIds)
+		{
+			buffer.putInt(requestId);
+		}
+		buffer.put(opcode);
+		int jobIdStart = buffer.position();
+		buffer.position(jobIdStart + 2);
+		buffer = putText(jobId, buffer);
+		buffer.putShort(jobIdStart, (short)(buffer.position() - jobIdStart - 2));
+		buffer = putText(payload, buffer);
+		buffer.putInt(start, buffer.position() - start - 4);
+		return buffer;
+	}
+
+	private ByteBuffer putText(String text, ByteBuffer buffer) throws IOException
+	{
+		if(text!=null && text.length()>0)
+		{
+			// encode straight into the buffer to avoid a temporary byte array
+			CharBuffer chars = CharBuffer.wrap(text);
+			encoder.reset();
+			while(true)
+			{
+				CoderResult result = encoder.encode(chars, buffer, true);
+				if(result.isOverflow())
+				{
+					buffer = ensureCapacity(buffer, Math.max(16, chars.remaining() * 3));
+				}
+				else if(result.isError())
+				{
+					result.throwException();
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+		return buffer;
+	}
+
+	@Override
+	public Object decode(ByteBuffer buffer) throws IOException
+	{
+		if(buffer.remaining()<4)
+		{
+			return null;
+		}
+		int start = buffer.position();
+		int length = buffer.getInt(start);
+		if(length<headerLength - 4 || length>MAX_FRAME_LENGTH)
+		{
+			throw new StreamCorruptedException("invalid frame length: [" + length + "]");
+		}
+		if(buffer.remaining()<length + 4)
+		{
+			return null;
+		}
+		int requestId = requestIds ? buffer.getInt(start + 4) : 0;
+		byte opcode = buffer.get(start + headerLength - 3);
+		int jobIdLength = buffer.getShort(start + headerLength - 2) & 0xFFFF;
+		int jobIdStart = start + headerLength;
+		int payloadStart = jobIdStart + jobIdLength;
+		int end = start + 4 + length;
+		if(payloadStart>end)
+		{
+			throw new StreamCorruptedException("invalid job id length: [" + jobIdLength + "]");
+		}
+		String jobId = getText(buffer, jobIdStart, jobIdLength);
+		String payload = getText(buffer, payloadStart, end - payloadStart);
+		buffer.position(end);
+
+		String command = getCommand(opcode);
+		ClientRequest request;
+		if(opcode==OP_TEXT || command==null)
+		{
+			if(!requestIds)
+			{
+				// parsed by the ClientHandler like a message of the object stream
+				return payload!=null ? payload : "";
+			}
+			request = ClientRequest.parse(payload!=null ? payload : "");
+		}
+		else
+		{
+			// the opcode is known, so the command needs no further lookup
+			request = new ClientRequest(opcode, command, jobId, payload);
+		}
+		request.setRequestId(requestId);
+		return request;
+	}
+
+	@Override
+	public synchronized ByteBuffer encode(Object message, ByteBuffer buffer) throws IOException
+	{
+		int requestId = 0;
+		byte opcode = OP_RESPONSE_TEXT;
+		if(message instanceof ClientResponse)
+		{
+			ClientResponse response = (ClientResponse)message;
+			requestId = response.getRequestId();
+			opcode = response.isEvent() ? OP_RESPONSE_EVENT : OP_RESPONSE_TEXT;
+			message = response.getMessage();
+		}
+		if(message instanceof Integer)
+		{
+			buffer = ensureCapacity(buffer, headerLength + 4);
+			buffer.putInt(headerLength - 4 + 4);
+			if(requestIds)
+			{
+				buffer.putInt(requestId);
+			}
+			buffer.put(OP_RESPONSE_INTEGER);
+			buffer.putShort((short)0);
+			buffer.putInt((Integer)message);
+			return buffer;
+		}
+		else
+		{
+			return encodeFrame(requestId, opcode, null, message!=null ? message.toString() : null, buffer);
+		}
+	}
+
+	/**
+	 * decodes the response contained in the given frame
+	 *
+	 * @param frame			the frame without the leading length
+	 * @param length		the length of the frame
+	 * @return				the response as String or Integer
+	 * @throws IOException	if the frame is not a valid response
+	 */
+	public static Object decodeResponse(byte[] frame, int length) throws IOException
+	{
+		return decodeResponse(frame, 0, length);
+	}
+
+	/**
+	 * decodes the response contained in the given part of a frame. with version 2 of the
+	 * protocol the offset skips the request id.
+	 *
+	 * @param frame			the frame without the leading length
+	 * @param offset		the position of the opcode in the frame
+	 * @param length		the length of the frame
+	 * @return				the response - or the event - as String or Integer
+	 * @throws IOException	if the frame is not a valid response
+	 */
+	public static Object decodeResponse(byte[] frame, int offset, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(frame, offset, length - offset);
+		byte opcode = buffer.get();
+		int jobIdLength = buffer.getShort() & 0xFFFF;
+		buffer.position(buffer.position() + jobIdLength);
+		if(opcode==OP_RESPONSE_INTEGER)
+		{
+			return buffer.getInt();
+		}
+		else if(opcode==OP_RESPONSE_TEXT || opcode==OP_RESPONSE_EVENT)
+		{
+			return new String(frame, buffer.position(), length - buffer.position(), StandardCharsets.UTF_8);
+		}
+		else
+		{
+			throw new StreamCorruptedException("unknown response opcode: [" + opcode + "]");
+		}
+	}
+
+	private static String getText(ByteBuffer buffer, int start, int length)
+	{
+		if(length==0)
+		{
+			return null;
+		}
+		else if(buffer.hasArray())
+		{
+			return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+		}
+		else
+		{
+			byte[] bytes = new byte[length];
+			for(int i=0;i<length;i++)
+			{
+				bytes[i] = buffer.get(start + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
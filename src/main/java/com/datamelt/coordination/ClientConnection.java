@@ -0,0 +1,417 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * state of a single client connection to the server.
+ *
+ * right after the connection is established, the server sends the header of a java
+ * serialization stream. the first bytes the client sends decide about the protocol:
+ * the MAGIC value of the BinaryCodec selects the binary protocol, MAGIC_V2 its version
+ * with request ids, otherwise the client is treated as a client using java serialization.
+ *
+ * the connection is owned by one IoLoop which does all reading and writing on the
+ * channel. decoded messages are handed to the worker pool. the messages of one
+ * connection are processed one after the other, in the order they were received,
+ * so the responses go back to the client in the same order.
+ *
+ * a message may suspend the processing, when its response is sent later by another
+ * thread. the following messages stay queued until the processing is resumed, without
+ * a thread waiting for it.
+ *
+ * when the worker pool is full, each queued message is answered with a busy response
+ * instead - with the id of its request, if the client uses request ids - so that every
+ * request still gets exactly one response.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ClientConnection
+{
+	private static final int READ_BUFFER_SIZE					= 4096;
+	private static final int WRITE_BUFFER_SIZE					= 4096;
+	private static final String RESPONSE_BUSY					= "server busy - message rejected";
+
+	// states of the suspension of the processing
+	private static final int NOT_SUSPENDED						= 0;
+	private static final int SUSPENDED							= 1;
+	private static final int PARKED								= 2;
+	private static final int RESUMED							= 3;
+
+	private SocketChannel channel;
+	private IoLoop ioLoop;
+	private Executor workers;
+	private SelectionKey selectionKey;
+	private ClientHandler clientHandler;
+	private volatile MessageCodec codec;
+	private boolean protocolSelected							= false;
+	private InetAddress remoteAddress;
+
+	private ByteBuffer readBuffer								= ByteBuffer.allocate(READ_BUFFER_SIZE);
+	// the pending output. the buffer is reused for all responses and only grows if needed
+	private ByteBuffer writeBuffer								= ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	private final Object writeLock								= new Object();
+	private ConcurrentLinkedQueue<Object> inbound				= new ConcurrentLinkedQueue<Object>();
+	private AtomicBoolean processing							= new AtomicBoolean(false);
+	private AtomicInteger suspension							= new AtomicInteger(NOT_SUSPENDED);
+	private volatile boolean closeAfterWrite					= false;
+	private volatile boolean closed								= false;
+
+	private final Runnable processTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			processMessages();
+		}
+	};
+
+	ClientConnection(SocketChannel channel, IoLoop ioLoop, Executor workers) throws IOException
+	{
+		this.channel = channel;
+		this.ioLoop = ioLoop;
+		this.workers = workers;
+		this.remoteAddress = channel.socket().getInetAddress();
+
+		ObjectStreamCodec objectStreamCodec = new ObjectStreamCodec();
+		this.codec = objectStreamCodec;
+		// the client blocks until it received the header of the object stream
+		writeBuffer.put(objectStreamCodec.getStreamHeader());
+	}
+
+	void setClientHandler(ClientHandler clientHandler)
+	{
+		this.clientHandler = clientHandler;
+	}
+
+	void setSelectionKey(SelectionKey selectionKey)
+	{
+		this.selectionKey = selectionKey;
+	}
+
+	SocketChannel getChannel()
+	{
+		return channel;
+	}
+
+	public InetAddress getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	/**
+	 * checks if the client uses request ids. the responses may then be sent in any order
+	 *
+	 * @return	true if the client uses version 2 of the binary protocol
+	 */
+	public boolean hasRequestIds()
+	{
+		MessageCodec currentCodec = codec;
+		return currentCodec instanceof BinaryCodec && ((BinaryCodec)currentCodec).hasRequestIds();
+	}
+
+	/**
+	 * called by the IoLoop when the channel is readable. reads the available bytes
+	 * and passes all completely received messages to the worker pool.
+	 */
+	void read() throws IOException
+	{
+		int bytesRead = channel.read(readBuffer);
+		if(bytesRead<0)
+		{
+			close();
+			return;
+		}
+		readBuffer.flip();
+		if(!protocolSelected)
+		{
+			if(readBuffer.remaining()<4)
+			{
+				readBuffer.compact();
+				return;
+			}
+			protocolSelected = true;
+			int magic = readBuffer.getInt(readBuffer.position());
+			if(magic==BinaryCodec.MAGIC || magic==BinaryCodec.MAGIC_V2)
+			{
+				readBuffer.getInt();
+				codec = new BinaryCodec(magic==BinaryCodec.MAGIC_V2);
+				synchronized(writeLock)
+				{
+					writeBuffer = BinaryCodec.ensureCapacity(writeBuffer, 4);
+					writeBuffer.putInt(magic);
+				}
+				ioLoop.requestWrite(this);
+			}
+		}
+		Object message;
+		while((message = codec.decode(readBuffer))!=null)
+		{
+			inbound.add(message);
+		}
+		readBuffer.compact();
+		if(!readBuffer.hasRemaining())
+		{
+			// a single message does not fit into the buffer - grow it
+			ByteBuffer largerBuffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			largerBuffer.put(readBuffer);
+			readBuffer = largerBuffer;
+		}
+		scheduleProcessing();
+	}
+
+	/**
+	 * called by the IoLoop when the channel is writable. writes as much of the
+	 * pending output as the socket accepts.
+	 */
+	void write() throws IOException
+	{
+		synchronized(writeLock)
+		{
+			writeBuffer.flip();
+			channel.write(writeBuffer);
+			boolean remaining = writeBuffer.hasRemaining();
+			writeBuffer.compact();
+			if(remaining)
+			{
+				// socket send buffer is full. wait for the next write event
+				return;
+			}
+		}
+		if(closeAfterWrite)
+		{
+			close();
+		}
+		else
+		{
+			setInterest(SelectionKey.OP_READ);
+		}
+	}
+
+	void setInterest(int operations)
+	{
+		if(selectionKey!=null && selectionKey.isValid())
+		{
+			selectionKey.interestOps(operations);
+		}
+	}
+
+	boolean hasPendingOutput()
+	{
+		synchronized(writeLock)
+		{
+			return writeBuffer.position()>0 || closeAfterWrite;
+		}
+	}
+
+	/**
+	 * returns the number of bytes not yet written to the client
+	 *
+	 * @return	the number of pending bytes
+	 */
+	public int getPendingOutputSize()
+	{
+		synchronized(writeLock)
+		{
+			return writeBuffer.position();
+		}
+	}
+
+	/**
+	 * sends the given object to the client. the method may be called from any thread,
+	 * the actual write is done by the IoLoop owning the connection.
+	 *
+	 * @param message		the object to send
+	 * @throws IOException	if the object can not be encoded
+	 */
+	public void send(Object message) throws IOException
+	{
+		if(!closed)
+		{
+			synchronized(writeLock)
+			{
+				writeBuffer = codec.encode(message, writeBuffer);
+			}
+			ioLoop.requestWrite(this);
+		}
+	}
+
+	/**
+	 * closes the connection once all pending output was written to the client
+	 */
+	public void closeAfterWrite()
+	{
+		closeAfterWrite = true;
+		ioLoop.requestWrite(this);
+	}
+
+	/**
+	 * suspends the processing of the messages after the message currently processed. must
+	 * be called by the handler of the message. the worker is released when the handler
+	 * returns; the messages received meanwhile are processed after resume() was called.
+	 */
+	public void suspend()
+	{
+		suspension.set(SUSPENDED);
+	}
+
+	/**
+	 * resumes the processing of the messages after suspend(). the method may be called
+	 * from any thread, also before the handler which suspended the processing returned.
+	 */
+	public void resume()
+	{
+		if(suspension.compareAndSet(SUSPENDED, RESUMED))
+		{
+			// the worker is still in the handler and simply continues
+			return;
+		}
+		if(suspension.compareAndSet(PARKED, NOT_SUSPENDED))
+		{
+			processing.set(false);
+			scheduleProcessing();
+		}
+	}
+
+	void close()
+	{
+		if(!closed)
+		{
+			closed = true;
+			if(selectionKey!=null)
+			{
+				selectionKey.cancel();
+			}
+			try
+			{
+				channel.close();
+			}
+			catch(IOException ex)
+			{
+				// nothing we can do here
+			}
+		}
+	}
+
+	private void scheduleProcessing()
+	{
+		while(!inbound.isEmpty() && processing.compareAndSet(false, true))
+		{
+			try
+			{
+				workers.execute(processTask);
+				return;
+			}
+			catch(RejectedExecutionException ex)
+			{
+				// the processing flag stays set, so the busy responses keep the order of the messages
+				rejectMessages();
+				processing.set(false);
+			}
+		}
+	}
+
+	/**
+	 * answers each queued message with a busy response. messages received meanwhile are
+	 * scheduled again by the caller.
+	 */
+	private void rejectMessages()
+	{
+		Object message;
+		while((message = inbound.poll())!=null)
+		{
+			int requestId = message instanceof ClientRequest ? ((ClientRequest)message).getRequestId() : 0;
+			try
+			{
+				send(requestId!=0 ? new ClientResponse(requestId, RESPONSE_BUSY, false) : RESPONSE_BUSY);
+			}
+			catch(IOException ex)
+			{
+				inbound.clear();
+				close();
+			}
+		}
+	}
+
+	private void processMessages()
+	{
+		Object message;
+		while(!closed && (message = inbound.poll())!=null)
+		{
+			try
+			{
+				clientHandler.handleMessage(message);
+			}
+			catch(Exception ex)
+			{
+				ex.printStackTrace();
+				close();
+			}
+			if(park())
+			{
+				// resume() schedules the processing again. until then the processing flag stays set
+				return;
+			}
+		}
+		processing.set(false);
+		// messages may have arrived after the last poll
+		scheduleProcessing();
+	}
+
+	/**
+	 * called after each message. returns true if the handler suspended the processing and
+	 * did not resume it already - the worker has to stop then.
+	 */
+	private boolean park()
+	{
+		while(true)
+		{
+			int state = suspension.get();
+			if(state==NOT_SUSPENDED)
+			{
+				return false;
+			}
+			else if(state==RESUMED && suspension.compareAndSet(RESUMED, NOT_SUSPENDED))
+			{
+				return false;
+			}
+			else if(state==SUSPENDED && suspension.compareAndSet(SUSPENDED, PARKED))
+			{
+				return true;
+			}
+		}
+	}
+}
@@ -18,37 +18,36 @@
  */
 package com.datamelt.coordination;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.net.SocketException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import com.datamelt.coordination.JobManager;
 import com.datamelt.etl.Job;
+import com.datamelt.etl.JobStatus;
 import com.datamelt.util.SystemUtility;
+import com.datamelt.util.Time;
 
-public class ClientHandler extends Thread
+public class ClientHandler
 {
-	private Socket socket;
+	private ClientConnection connection;
     private long clientStart;
     private long serverStart;
     private int serverPort;
     private JobManager jobManager;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    // the events of the jobs sent to the client, if it subscribed
+    private Subscription subscription;
+    // the id of the request being processed. 0 if the client does not use request ids
+    private int requestId;
     
     // list of possible messages
     // the "exit" message is explicitly excluded here
-    public static final String[] MESSAGES					= {"uptime","processid","hello","jobfinished", "jobcanstart", "jobstartstatus", "jobstarttime", "jobrun", "jobexitcode", "jobruntime", "jobdependencies", "jobreset", "jobremove", "jobjson", "listjobs", "resetjobs", "reloadjobs", "numberofjobs", "nextjob"};
+    public static final String[] MESSAGES					= {"uptime","processid","hello","jobfinished", "jobcanstart", "jobstartstatus", "jobstarttime", "jobrun", "jobexitcode", "jobruntime", "jobdependencies", "jobreset", "jobremove", "jobjson", "listjobs", "resetjobs", "reloadjobs", "numberofjobs", "nextjob", "queuestatus", "jobstats", "jobupstream", "jobdownstream", "jobblocked", "jobwait", "subscribe", "jobstatus"};
     
     public static final String RESPONSE_UPTIME 				= "uptime";
     public static final String RESPONSE_EXIT 				= "exit";
@@ -70,345 +69,705 @@ public class ClientHandler extends Thread
     public static final String RESPONSE_JOB_RUN				= "jobrun";
     public static final String RESPONSE_JOB_EXIT_CODE		= "jobexitcode";
     public static final String RESPONSE_JOB_DEPENDENCIES	= "jobdependencies";
+    public static final String RESPONSE_QUEUE_STATUS		= "queuestatus";
+    public static final String RESPONSE_JOB_STATS			= "jobstats";
+    public static final String RESPONSE_JOB_UPSTREAM		= "jobupstream";
+    public static final String RESPONSE_JOB_DOWNSTREAM		= "jobdownstream";
+    public static final String RESPONSE_JOB_BLOCKED			= "jobblocked";
+    public static final String RESPONSE_JOB_WAIT			= "jobwait";
+    public static final String RESPONSE_SUBSCRIBE			= "subscribe";
+    public static final String RESPONSE_UNSUBSCRIBE			= "unsubscribe";
+    public static final String RESPONSE_JOB_STATUS			= "jobstatus";
     
     public static final String DELIMITER					= ":";
     
+    // the jobwait response when the job has finished ends with the exit code: "exit code: [0]"
+    public static final String EXIT_CODE					= "exit code: ";
+    // the first line of the jobstatus table. the columns are separated by tabs
+    public static final String JOB_STATUS_HEADER			= "job\tstate\tscheduled\tstarted\tfinished\texit code";
+    private static final String NO_VALUE					= "-";
+    // timeout of the jobwait message if none is given
+    public static final long DEFAULT_WAIT_TIMEOUT_SECONDS	= 3600;
+    
     private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
     private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
     
-    private static Map<String,String> environmentVariables;
-    private static String scriptName;
-    private static String scriptFolder;
+    private static final CommandRegistry commands			= createCommands();
     
-    ClientHandler(Socket socket, JobManager jobManager, int serverPort, long serverStart) throws Exception
+    ClientHandler(ClientConnection connection, JobManager jobManager, int serverPort, long serverStart)
     {
     	this.clientStart = System.currentTimeMillis();
     	this.serverStart = serverStart;
     	this.serverPort = serverPort;
     	this.jobManager = jobManager;
-        this.socket = socket;
-        
-        this.outputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-        // flush MUST be called after creating the output stream, otherwise the stream blocks
-        outputStream.flush();
-        this.inputStream = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.connection = connection;
     }
 
-    @Override
-    public void run()
+    /**
+     * processes a single message received from the client. responses are sent back
+     * through the connection of the client.
+     * 
+     * @param object		the message received
+     * @throws Exception	if the message can not be processed or the response can not be sent
+     */
+    public void handleMessage(Object object) throws Exception
     {
-    	try
-        {
-    		boolean ok=true;
-    		while (ok)
-    		{
-            	// waiting for a server object on the input stream
-            	Object object = inputStream.readObject();
-
-            	if(object instanceof String)
-            	{
-            		String serverObject = (String)object;
-            		if(serverObject.equals(RESPONSE_EXIT))
-            		{
-    	                String responseMessage = "exit";
-    	                sendClientMessage(responseMessage);
-    	                
-    	                //systemMessage("client requested exit - closing client socket");
+    	ClientRequest request;
+    	requestId = 0;
+    	if(object instanceof ClientRequest)
+    	{
+    		request = (ClientRequest)object;
+    	}
+    	else if(object instanceof String)
+    	{
+    		request = ClientRequest.parse((String)object);
+    	}
+    	else
+    	{
+    		String responseMessage = "unknown object received - only Strings are processed";
+            sendClientMessage(responseMessage);
+            return;
+    	}
+    	
+    	requestId = request.getRequestId();
+    	CommandHandler commandHandler = commands.getHandler(request);
+    	if(commandHandler!=null)
+    	{
+    		commandHandler.handle(this, request);
+    	}
+    	else
+    	{
+            String responseMessage = "unknown message: [" + request + "]";
+            sendClientMessage(responseMessage);
+    	}
+    }
+    
+    /**
+     * returns the registry of the commands the server understands. additional commands
+     * can be registered here before the server is started.
+     * 
+     * @return	the registry of commands
+     */
+    public static CommandRegistry getCommands()
+    {
+    	return commands;
+    }
+    
+    private static CommandRegistry createCommands()
+    {
+    	CommandRegistry registry = new CommandRegistry();
+    	registry.register(BinaryCodec.OP_EXIT, RESPONSE_EXIT, ClientHandler::exit);
+    	registry.register(BinaryCodec.OP_UPTIME, RESPONSE_UPTIME, ClientHandler::uptime);
+    	registry.register(BinaryCodec.OP_PROCESSID, RESPONSE_PROCESSID, ClientHandler::processId);
+    	registry.register(BinaryCodec.OP_HELLO, RESPONSE_HELLO, ClientHandler::hello);
+    	registry.register(BinaryCodec.OP_JOB_CAN_START, RESPONSE_JOB_CAN_START, ClientHandler::jobCanStart);
+    	registry.register(BinaryCodec.OP_JOB_START_STATUS, RESPONSE_JOB_START_STATUS, ClientHandler::jobStartStatus);
+    	registry.register(BinaryCodec.OP_JOB_STARTTIME, RESPONSE_JOB_STARTTIME, ClientHandler::jobStarttime);
+    	registry.register(BinaryCodec.OP_JOB_JSON, RESPONSE_JOB_JSON, ClientHandler::jobJson);
+    	registry.register(BinaryCodec.OP_JOB_RUNTIME, RESPONSE_JOB_RUNTIME, ClientHandler::jobRuntime);
+    	registry.register(BinaryCodec.OP_JOB_DEPENDENCIES, RESPONSE_JOB_DEPENDENCIES, ClientHandler::jobDependencies);
+    	registry.register(BinaryCodec.OP_NEXT_JOB, RESPONSE_NEXT_JOB, ClientHandler::nextJob);
+    	registry.register(BinaryCodec.OP_LIST_JOBS, RESPONSE_LIST_JOBS, ClientHandler::listJobs);
+    	registry.register(BinaryCodec.OP_NUMBER_OF_JOBS, RESPONSE_NUMBER_OF_JOBS, ClientHandler::numberOfJobs);
+    	registry.register(BinaryCodec.OP_JOB_EXIT_CODE, RESPONSE_JOB_EXIT_CODE, ClientHandler::jobExitCode);
+    	registry.register(BinaryCodec.OP_RESET_JOBS, RESPONSE_RESET_JOBS, ClientHandler::resetJobs);
+    	registry.register(BinaryCodec.OP_JOB_RESET, RESPONSE_JOB_RESET, ClientHandler::jobReset);
+    	registry.register(BinaryCodec.OP_JOB_REMOVE, RESPONSE_JOB_REMOVE, ClientHandler::jobRemove);
+    	registry.register(BinaryCodec.OP_RELOAD_JOBS, RESPONSE_RELOAD_JOBS, ClientHandler::reloadJobs);
+    	registry.register(BinaryCodec.OP_JOB_FINISHED, RESPONSE_JOB_FINISHED, ClientHandler::jobFinished);
+    	registry.register(BinaryCodec.OP_JOB_RUN, RESPONSE_JOB_RUN, ClientHandler::jobRun);
+    	registry.register(BinaryCodec.OP_QUEUE_STATUS, RESPONSE_QUEUE_STATUS, ClientHandler::queueStatus);
+    	registry.register(BinaryCodec.OP_JOB_STATS, RESPONSE_JOB_STATS, ClientHandler::jobStats);
+    	registry.register(BinaryCodec.OP_JOB_UPSTREAM, RESPONSE_JOB_UPSTREAM, ClientHandler::jobUpstream);
+    	registry.register(BinaryCodec.OP_JOB_DOWNSTREAM, RESPONSE_JOB_DOWNSTREAM, ClientHandler::jobDownstream);
+    	registry.register(BinaryCodec.OP_JOB_BLOCKED, RESPONSE_JOB_BLOCKED, ClientHandler::jobBlocked);
+    	registry.register(BinaryCodec.OP_JOB_WAIT, RESPONSE_JOB_WAIT, ClientHandler::jobWait);
+    	registry.register(BinaryCodec.OP_SUBSCRIBE, RESPONSE_SUBSCRIBE, ClientHandler::subscribe);
+    	registry.register(BinaryCodec.OP_UNSUBSCRIBE, RESPONSE_UNSUBSCRIBE, ClientHandler::unsubscribe);
+    	registry.register(BinaryCodec.OP_JOB_STATUS, RESPONSE_JOB_STATUS, ClientHandler::jobStatus);
+    	return registry;
+    }
+    
+    private void exit(ClientRequest request) throws Exception
+    {
+    	if(subscription!=null)
+    	{
+    		jobManager.getEventPublisher().unsubscribe(subscription);
+    	}
+        String responseMessage = "exit";
+        sendClientMessage(responseMessage);
+        
+        //systemMessage("client requested exit - closing client socket");
 
-    	               	ok=false;
-            		}
-            		else if(serverObject.equals(RESPONSE_UPTIME))
-            		{
-    	                String responseMessage = "uptime " + getRunTime(System.currentTimeMillis(),serverStart);
-    	                sendClientMessage(responseMessage);
-            		}
-            		else if(serverObject.equals(RESPONSE_PROCESSID))
-            		{
-    	                long pid = getProcessId();
-    	                sendClientMessage("server processid: [" + pid + "]");
-            		}
-            		else if(serverObject.equals(RESPONSE_HELLO))
-            		{
-    	                sendClientMessage(RESPONSE_HELLO + " client from: [" + socket.getInetAddress().toString() + "]");
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_CAN_START))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			int jobStatus = jobManager.getJobStatus(jobId);
-            			if(jobStatus != JobManager.STATUS_UNDEFINED)
-            			{
-            				sendClientMessage("status: [" + JobManager.JOB_STATUS[jobStatus] + "]");
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_START_STATUS))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			int jobStatus = jobManager.getJobStatus(jobId);
-            			if(jobStatus != JobManager.STATUS_UNDEFINED)
-            			{
-            				sendClientMessage(jobStatus);
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_STARTTIME))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			String jobStarttime = jobManager.getJobScheduledStarttime(jobId);
-            			if(jobStarttime!=null)
-            			{
-            				sendClientMessage(jobStarttime);
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_JSON))
-            		{
-            			String jobId = parseJobId(serverObject);
-        				Job job = jobManager.getJob(jobId);
-        				if(job!=null)
-        				{
-        					sendMessage(jobManager.getJobAsJson(jobId));
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_RUNTIME))
-            		{
-            			String jobId = parseJobId(serverObject);
-        				Job job = jobManager.getJob(jobId);
-        				if(job!=null)
-        				{
-            				if(job.getActualStartTime()!=null && job.getFinishedTime()!=null)
-            				{
-            					long jobStarttime = job.getActualStartTime().getTimeInMillis();
-            					long jobEndtime = job.getFinishedTime().getTimeInMillis();
-            					sendClientMessage(getRunTime(jobEndtime, jobStarttime));
-            				}
-            				else if(job.getActualStartTime()==null)
-            				{
-            					sendClientMessage(jobId, "not started");
-            				}
-            				else
-            				{
-            					sendClientMessage(jobId, "not finished");
-            				}
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_DEPENDENCIES))
-            		{
-            			String jobId = parseJobId(serverObject);
-        				Job job = jobManager.getJob(jobId);
-        				if(job!=null)
-        				{
-        					sendClientMessage(jobId, "depends on: " + job.getDependentJobs().toString());
-        				}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_NEXT_JOB))
-            		{
-            				ArrayList<String> nextJobIds = jobManager.getNextJobs();
-            				if(nextJobIds.size()>0)
-            				{
-            					String jobId = nextJobIds.get(0);
-            					Job job = jobManager.getJob(jobId);
-            					sendClientMessage("next job(s): " + nextJobIds + " at [" +job.getScheduledStartTime().getTime() + "]");
-            				}
-            				else
-            				{
-            					sendClientMessage("no next job");
-            				}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_LIST_JOBS))
-            		{
-        					sendClientMessage("list of jobs: " + Arrays.deepToString(jobManager.getJobList()));
-            		}
-            		else if(serverObject.startsWith(RESPONSE_NUMBER_OF_JOBS))
-            		{
-        					sendClientMessage("number of jobs: [" + jobManager.getNumberOfJobs() + "]");
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_EXIT_CODE))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			int exitCode = jobManager.getJob(jobId).getExitCode();
-           				sendClientMessage(jobId, exitCode);
-            		}
-            		else if(serverObject.startsWith(RESPONSE_RESET_JOBS))
-            		{
-            			jobManager.resetJobs();
-            			
-            			systemMessage("reset jobs. schedules set to current date");
-    	                sendClientMessage("ok");
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_RESET))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			Job job = jobManager.getJob(jobId);
-        				if(job!=null)
-        				{
-        					jobManager.resetJob(job);
-        					sendClientMessage(jobId, "reset");
-        				}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_REMOVE))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			Job job = jobManager.getJob(jobId);
-        				if(job!=null)
-        				{
-        					jobManager.removeJob(jobId);
-        					sendClientMessage(jobId, "removed");
-        				}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_RELOAD_JOBS))
-            		{
-            			jobManager.reloadJobs();
-            			
-            			systemMessage("reloaded jobs");
-    	                sendClientMessage("ok");
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_FINISHED))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			Job job = jobManager.getJob(jobId);
-            			if(job!=null)
-            			{
-            				if(job.isFinished())
-            				{
-            					sendClientMessage(jobId,"finished [" + job.getFinishedTime().getTime() + "]");
-            				}
-            				else
-            				{
-            					sendClientMessage(jobId, "not finished");
-            				}
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else if(serverObject.startsWith(RESPONSE_JOB_RUN))
-            		{
-            			String jobId = parseJobId(serverObject);
-            			Job job = jobManager.getJob(jobId);
-            			if(job!=null)
-            			{
-	            			if(!job.isFinished() && !job.isRunning())
-	            			{
-	            				EtlJob etlJob = new EtlJob(job, serverPort, jobManager.getFolderLogfiles());
-	            				EtlJob.setEnvironmentVariables(environmentVariables);
-	            				EtlJob.setScriptFolder(scriptFolder);
-	            				EtlJob.setScriptName(scriptName);
-	            				systemMessage(job.getJobId(), "activated run. scheduled: [" + job.getScheduledStartTime().getTime() + "]");
-	            				sendClientMessage(jobId, "activated run. scheduled: [" + job.getScheduledStartTime().getTime() + "]");
-	            				etlJob.start();
-	            				
-	            			}
-	            			else
-	            			{
-	            				if(job.isFinished())
-	            				{
-	            					sendClientMessage(jobId, "finished: [" + job.getFinishedTime().getTime() + "]");
-	            				}
-	            				else
-	            				{
-	            					sendClientMessage(jobId, "running: [" + job.getActualStartTime().getTime() + "]");
-	            				}
-	            			}
-            			}
-            			else
-            			{
-            				sendClientMessage(jobId, "not existing");
-            			}
-            		}
-            		else
-            		{
-    	                String responseMessage = "unknown message: [" + serverObject + "]";
-    	                sendClientMessage(responseMessage);
-            		}
-            	}
-            	else
-            	{
-            		String responseMessage = "unknown object received - only Strings are processed";
-	                sendClientMessage(responseMessage);
-            	}
-            }
-    		outputStream.flush();
-            socket.close();
-        }
-    	catch (EOFException e)
-        {
-        	// something went wrong here
-        	try
-        	{
-        		if(!socket.isClosed())
-     			{
-     				socket.close();
-     			}
-        	}
-        	catch(Exception ex)
-        	{
-        		
-        	}
-        }
-        catch (SocketException e)
-        {
-        	// something went wrong here
-        	try
-        	{
-        		if(!socket.isClosed())
-     			{
-     				socket.close();
-     			}
-        	}
-        	catch(Exception ex)
-        	{
-        		
-        	}
-        }
-        catch (Exception e)
-        {
-        	// something went wrong here
-        	try
-        	{
-        		if(!socket.isClosed())
-     			{
-     				socket.close();
-     			}
-        	}
-        	catch(Exception ex)
-        	{
-        		
-        	}
-            e.printStackTrace();
-        }
+       	connection.closeAfterWrite();
+    }
+    
+    private void uptime(ClientRequest request) throws Exception
+    {
+        String responseMessage = "uptime " + getRunTime(System.currentTimeMillis(),serverStart);
+        sendClientMessage(responseMessage);
+    }
+    
+    private void processId(ClientRequest request) throws Exception
+    {
+        long pid = getProcessId();
+        sendClientMessage("server processid: [" + pid + "]");
+    }
+    
+    private void hello(ClientRequest request) throws Exception
+    {
+        sendClientMessage(RESPONSE_HELLO + " client from: [" + connection.getRemoteAddress().toString() + "]");
+    }
+    
+    private void jobCanStart(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		int jobStatus = jobManager.getJobStatus(jobId);
+		if(jobStatus != JobManager.STATUS_UNDEFINED)
+		{
+			sendClientMessage("status: [" + JobManager.JOB_STATUS[jobStatus] + "]");
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobStartStatus(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		int jobStatus = jobManager.getJobStatus(jobId);
+		if(jobStatus != JobManager.STATUS_UNDEFINED)
+		{
+			sendClientMessage(jobStatus);
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobStarttime(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		String jobStarttime = jobManager.getJobScheduledStarttime(jobId);
+		if(jobStarttime!=null)
+		{
+			sendClientMessage(jobStarttime);
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobJson(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			sendMessage(jobManager.getJobAsJson(jobId));
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobRuntime(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			JobStatus status = job.getStatus();
+			if(status.getActualStartTime()!=null && status.getFinishedTime()!=null)
+			{
+				long jobStarttime = status.getActualStartTime().getTimeInMillis();
+				long jobEndtime = status.getFinishedTime().getTimeInMillis();
+				sendClientMessage(getRunTime(jobEndtime, jobStarttime));
+			}
+			else if(status.getActualStartTime()==null)
+			{
+				sendClientMessage(jobId, "not started");
+			}
+			else
+			{
+				sendClientMessage(jobId, "not finished");
+			}
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobDependencies(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		JobRegistry registry = jobManager.getRegistry();
+		Job job = registry.getJob(jobId);
+		if(job!=null)
+		{
+			sendClientMessage(jobId, "depends on: " + job.getDependentJobs().toString() + ", level: [" + registry.getJobGraph().getLevel(jobId) + "]");
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobUpstream(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		List<Job> upstreamJobs = jobManager.getJobGraph().getUpstreamJobs(jobId);
+		if(upstreamJobs!=null)
+		{
+			ArrayList<Job> openJobs = JobManager.getOpenJobs(upstreamJobs);
+			sendClientMessage(jobId, "upstream jobs: [" + upstreamJobs.size() + "], all finished: [" + openJobs.isEmpty() + "], not finished or failed: " + getJobIds(openJobs) + ", jobs: " + getJobIds(upstreamJobs));
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobDownstream(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		List<Job> downstreamJobs = jobManager.getJobGraph().getDownstreamJobs(jobId);
+		if(downstreamJobs!=null)
+		{
+			sendClientMessage(jobId, "downstream jobs: [" + downstreamJobs.size() + "], jobs: " + getJobIds(downstreamJobs));
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobBlocked(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		ArrayList<Job> blockedJobs = jobManager.getBlockedJobs(jobId);
+		if(blockedJobs!=null)
+		{
+			sendClientMessage(jobId, "blocks [" + blockedJobs.size() + "] job(s): " + getJobIds(blockedJobs));
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void nextJob(ClientRequest request) throws Exception
+    {
+		// the time is taken from the index as well: the jobs may be removed or reloaded meanwhile
+		Map.Entry<Long,ArrayList<String>> nextStart = jobManager.getNextStart();
+		if(nextStart!=null)
+		{
+			sendClientMessage("next job(s): " + nextStart.getValue() + " at [" + new Date(nextStart.getKey()) + "]");
+		}
+		else
+		{
+			sendClientMessage("no next job");
+		}
+    }
+    
+    private void listJobs(ClientRequest request) throws Exception
+    {
+		sendClientMessage("list of jobs: " + Arrays.deepToString(jobManager.getJobList()));
+    }
+    
+    /**
+     * the status of many jobs in one response: a table with a line per job and the columns
+     * separated by tabs. the jobs are selected by a JobFilter - e.g. jobstatus:*,
+     * jobstatus:id_0001,id_0002 or jobstatus:load_* - and listed in dependency order, a
+     * list of job ids in the given order. all jobs are taken from the same registry.
+     */
+    private void jobStatus(ClientRequest request) throws Exception
+    {
+    	JobFilter filter = JobFilter.parse(request.getJobId());
+    	JobRegistry registry = jobManager.getRegistry();
+    	// one format for the whole table
+    	SimpleDateFormat format = new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
+    	StringBuilder table = new StringBuilder(JOB_STATUS_HEADER);
+    	if(filter.isExact())
+    	{
+    		for(String jobId : filter.getJobIds())
+    		{
+    			appendJobStatus(table, jobId, registry.getJob(jobId), format);
+    		}
+    	}
+    	else
+    	{
+    		for(Job job : registry.getJobs())
+    		{
+    			if(filter.matches(job.getJobId()))
+    			{
+    				appendJobStatus(table, job.getJobId(), job, format);
+    			}
+    		}
+    	}
+    	sendClientMessage(table.toString());
+    }
+    
+    private static void appendJobStatus(StringBuilder table, String jobId, Job job, SimpleDateFormat format)
+    {
+    	table.append('\n').append(jobId).append('\t');
+    	if(job==null)
+    	{
+    		table.append("not existing\t").append(NO_VALUE).append('\t').append(NO_VALUE).append('\t').append(NO_VALUE).append('\t').append(NO_VALUE);
+    		return;
+    	}
+    	// the status holds state, times and exit code of the same moment
+    	JobStatus status = job.getStatus();
+    	table.append(status.getState().name().toLowerCase(Locale.ROOT)).append('\t');
+    	appendTime(table, job.getScheduledStartTime(), format);
+    	appendTime(table, status.getActualStartTime(), format);
+    	appendTime(table, status.getFinishedTime(), format);
+    	if(status.isFinished())
+    	{
+    		table.append(status.getExitCode());
+    	}
+    	else
+    	{
+    		table.append(NO_VALUE);
+    	}
+    }
+    
+    private static void appendTime(StringBuilder table, Time time, SimpleDateFormat format)
+    {
+    	table.append(time!=null ? format.format(new Date(time.getTimeInMillis())) : NO_VALUE).append('\t');
+    }
+    
+    private void numberOfJobs(ClientRequest request) throws Exception
+    {
+		sendClientMessage("number of jobs: [" + jobManager.getNumberOfJobs() + "]");
+    }
+    
+    private void jobExitCode(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			sendClientMessage(jobId, job.getExitCode());
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void resetJobs(ClientRequest request) throws Exception
+    {
+		int notReset = jobManager.resetJobs();
+		
+		systemMessage("reset jobs. schedules set to current date");
+		if(notReset==0)
+		{
+			sendClientMessage("ok");
+		}
+		else
+		{
+			sendClientMessage("ok. [" + notReset + "] running job(s) not reset");
+		}
+    }
+    
+    private void jobReset(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			if(jobManager.resetJob(job))
+			{
+				sendClientMessage(jobId, "reset");
+			}
+			else
+			{
+				sendClientMessage(jobId, "running. can not be reset");
+			}
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void jobRemove(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			ArrayList<String> dependentJobIds = jobManager.removeJob(jobId);
+			if(dependentJobIds==null)
+			{
+				sendClientMessage(jobId, "removed");
+			}
+			else
+			{
+				sendClientMessage(jobId, "can not be removed. jobs " + dependentJobIds + " depend on it");
+			}
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    private void reloadJobs(ClientRequest request) throws Exception
+    {
+    	String summary;
+    	try
+    	{
+    		summary = jobManager.reloadJobs();
+    	}
+    	catch(Exception ex)
+    	{
+    		// the exceptions of the json parser have no message
+    		String message = ex.getMessage()!=null ? ex.getMessage() : ex.toString();
+    		systemMessage("error: jobs not reloaded: " + message);
+    		sendClientMessage("error: jobs not reloaded: " + message);
+    		return;
+    	}
+        sendClientMessage("ok. " + summary);
+    }
+    
+    private void jobFinished(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			JobStatus status = job.getStatus();
+			if(status.isFinished())
+			{
+				sendClientMessage(jobId,"finished [" + status.getFinishedTime().getTime() + "]");
+			}
+			else
+			{
+				sendClientMessage(jobId, "not finished");
+			}
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
+    }
+    
+    /**
+     * answers when the job has finished, with its exit code. the request is parked in the
+     * JobManager without a thread waiting for it: the response is sent by the thread
+     * ending the wait. the following messages of the client are processed afterwards -
+     * unless the client uses request ids: they are processed right away then and the
+     * response of the wait is matched by its id.
+     */
+    private void jobWait(ClientRequest request) throws Exception
+    {
+		final String jobId = request.getJobId();
+		final long timeoutSeconds = getWaitTimeout(request.getArguments());
+		if(timeoutSeconds<=0)
+		{
+			sendClientMessage(jobId, "invalid timeout: [" + request.getArguments() + "]");
+			return;
+		}
+		final int waitRequestId = requestId;
+		final boolean suspended = !connection.hasRequestIds();
+		if(suspended)
+		{
+			connection.suspend();
+		}
+		jobManager.waitForJob(jobId, timeoutSeconds * 1000, new JobWaiter()
+		{
+			@Override
+			public void jobFinished(Job job)
+			{
+				JobStatus status = job.getStatus();
+				sendWaitResponse(waitRequestId, suspended, jobId, "finished [" + status.getFinishedTime().getTime() + "], " + EXIT_CODE + "[" + status.getExitCode() + "]");
+			}
+			
+			@Override
+			public void waitTimedOut(Job job)
+			{
+				sendWaitResponse(waitRequestId, suspended, jobId, "not finished after [" + timeoutSeconds + "] seconds, state: [" + job.getState().name().toLowerCase(Locale.ROOT) + "]");
+			}
+			
+			@Override
+			public void jobRemoved(String removedJobId)
+			{
+				sendWaitResponse(waitRequestId, suspended, jobId, "not existing");
+			}
+		});
+    }
+    
+    private static long getWaitTimeout(String argument)
+    {
+    	if(argument==null || argument.trim().equals(""))
+    	{
+    		return DEFAULT_WAIT_TIMEOUT_SECONDS;
+    	}
+    	try
+    	{
+    		return Long.parseLong(argument.trim());
+    	}
+    	catch(NumberFormatException ex)
+    	{
+    		return -1;
+    	}
+    }
+    
+    private void sendWaitResponse(int waitRequestId, boolean suspended, String jobId, String message)
+    {
+    	String responseMessage = "job [" + jobId + "] " + message;
+    	try
+    	{
+    		// the request being processed meanwhile may be another one
+    		connection.send(waitRequestId!=0 ? new ClientResponse(waitRequestId, responseMessage, false) : responseMessage);
+    	}
+    	catch(IOException ex)
+    	{
+    		ex.printStackTrace();
+    		connection.close();
+    	}
+    	if(suspended)
+    	{
+    		connection.resume();
+    	}
+    }
+    
+    /**
+     * turns the connection into a stream of the events of the jobs selected by the filter.
+     * the client keeps receiving the events until it sends unsubscribe or exit. a client
+     * which does not read the events fast enough is disconnected.
+     */
+    private void subscribe(ClientRequest request) throws Exception
+    {
+    	JobEventPublisher eventPublisher = jobManager.getEventPublisher();
+    	if(subscription!=null)
+    	{
+    		eventPublisher.unsubscribe(subscription);
+    	}
+    	JobFilter filter = JobFilter.parse(request.getJobId());
+    	// the confirmation is sent before the first event
+    	sendClientMessage("subscribed to the events of jobs: [" + filter + "]");
+    	subscription = eventPublisher.subscribe(filter, connection, requestId);
+    }
+    
+    private void unsubscribe(ClientRequest request) throws Exception
+    {
+    	if(subscription!=null)
+    	{
+    		jobManager.getEventPublisher().unsubscribe(subscription);
+    		subscription = null;
+    		sendClientMessage("unsubscribed");
+    	}
+    	else
+    	{
+    		sendClientMessage("not subscribed");
+    	}
+    }
+    
+    private void jobRun(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		Job job = jobManager.getJob(jobId);
+		if(job!=null)
+		{
+			// the job manager changes the state atomically, so concurrent requests can not start the job twice
+			if(jobManager.runJob(job))
+			{
+				systemMessage(job.getJobId(), "activated run. scheduled: [" + job.getScheduledStartTime().getTime() + "]");
+				sendClientMessage(jobId, "activated run. scheduled: [" + job.getScheduledStartTime().getTime() + "]");
+				return;
+			}
+			JobStatus status = job.getStatus();
+			switch(status.getState())
+			{
+				case WAITING:
+					sendClientMessage(jobId, "waiting. run already requested");
+					break;
+				case QUEUED:
+					ExecutionPool executionPool = jobManager.getExecutionPool();
+					sendClientMessage(jobId, "queued. position: [" + executionPool.getPosition(job) + "], waiting: [" + getRunTime(executionPool.getWaitTime(job), 0) + "]");
+					break;
+				case RUNNING:
+					sendClientMessage(jobId, "running: [" + status.getActualStartTime().getTime() + "]");
+					break;
+				case SUCCEEDED:
+				case FAILED:
+					sendClientMessage(jobId, "finished: [" + status.getFinishedTime().getTime() + "]");
+					break;
+				default:
+					// the state changed between the request and now
+					sendClientMessage(jobId, "run not activated. state: [" + status + "]");
+			}
+		}
+		else
+		{
+			sendClientMessage(jobId, "not existing");
+		}
     }
 
+    private void queueStatus(ClientRequest request) throws Exception
+    {
+    	ExecutionPool executionPool = jobManager.getExecutionPool();
+    	sendClientMessage("processes running: [" + executionPool.getRunningProcesses() + "/" + executionPool.getMaxProcesses() + "]"
+    			+ ", queued: [" + executionPool.getQueueSize() + "]"
+    			+ ", order: [" + executionPool.getOrder() + "]"
+    			+ ", longest waiting: [" + getRunTime(executionPool.getOldestWaitTime(), 0) + "]"
+    			+ ", average wait: [" + getRunTime(executionPool.getAverageWaitTime(), 0) + "]"
+    			+ ", max wait: [" + getRunTime(executionPool.getMaxWaitTime(), 0) + "]"
+    			+ ", resources: " + executionPool.getResourceUsage()
+    			+ ", waiting requests: [" + jobManager.getNumberOfJobWaiters() + "]"
+    			+ ", subscribers: [" + jobManager.getEventPublisher().getNumberOfSubscribers() + "]");
+    }
+    
+    private void jobStats(ClientRequest request) throws Exception
+    {
+		String jobId = request.getJobId();
+		RunHistory runHistory = jobManager.getRunHistory();
+		if(jobManager.getJob(jobId)==null)
+		{
+			sendClientMessage(jobId, "not existing");
+			return;
+		}
+		else if(runHistory==null)
+		{
+			sendClientMessage(jobId, "no run history. define the history.file property");
+			return;
+		}
+		int numberOfRuns = RunHistory.DEFAULT_NUMBER_OF_RUNS;
+		if(request.getArguments()!=null)
+		{
+			try
+			{
+				numberOfRuns = Integer.parseInt(request.getArguments().trim());
+			}
+			catch(NumberFormatException ex)
+			{
+				sendClientMessage(jobId, "invalid number of runs: [" + request.getArguments() + "]");
+				return;
+			}
+		}
+		RunHistory.Statistics statistics = runHistory.getStatistics(jobId, numberOfRuns);
+		if(statistics==null)
+		{
+			sendClientMessage(jobId, "no runs recorded");
+			return;
+		}
+		double trend = statistics.getTrend();
+		sendClientMessage(jobId, "runs: [" + statistics.getRuns() + "/" + runHistory.getNumberOfRuns(jobId) + "]"
+				+ ", p50: [" + getDuration(statistics.getPercentile(50)) + "]"
+				+ ", p95: [" + getDuration(statistics.getPercentile(95)) + "]"
+				+ ", p99: [" + getDuration(statistics.getPercentile(99)) + "]"
+				+ ", failure rate: [" + String.format(Locale.ROOT, "%.1f%%", statistics.getFailureRate()) + "]"
+				+ ", trend: [" + (Double.isNaN(trend) ? "n/a" : String.format(Locale.ROOT, "%+.1f%%", trend)) + "]");
+    }
+    
     private void systemMessage(String message) throws IOException
     {
     	System.out.println(sdf.format(new Date()) + " - " + message);
@@ -431,8 +790,24 @@ public class ClientHandler extends Thread
 
     private void sendMessage(Object responseMessage) throws IOException
     {
-        outputStream.writeObject(responseMessage);
-       	outputStream.flush();
+    	if(requestId!=0)
+    	{
+    		connection.send(new ClientResponse(requestId, responseMessage, false));
+    	}
+    	else
+    	{
+    		connection.send(responseMessage);
+    	}
+    }
+    
+    private static String getJobIds(List<Job> jobs)
+    {
+    	ArrayList<String> jobIds = new ArrayList<String>(jobs.size());
+    	for(Job job : jobs)
+    	{
+    		jobIds.add(job.getJobId());
+    	}
+    	return jobIds.toString();
     }
     
     private String getRunTime(long endTime, long startTime)
@@ -458,25 +833,10 @@ public class ClientHandler extends Thread
     	}
     }
 
-    private String parseJobId(String message)
-	{
-    	if(message!=null && !message.trim().equals(""))
-    	{
-	    	String [] parts = message.split(DELIMITER);
-			if(parts.length>=2)
-			{
-				return parts[1];
-			}
-			else
-			{
-				return null;
-			}
-    	}
-    	else
-    	{
-    		return null;
-    	}
-	}
+    private String getDuration(long duration)
+    {
+    	return String.format(Locale.ROOT, "%.1f seconds", duration / 1000.0);
+    }
     
 	public long getProcessId()
 	{
@@ -487,35 +847,4 @@ public class ClientHandler extends Thread
 	{
 		return clientStart;
 	}
-
-	public static Map<String, String> getEnvironmentVariables()
-	{
-		return environmentVariables;
-	}
-
-	public static void setEnvironmentVariables(Map<String, String> environmentVariables)
-	{
-		ClientHandler.environmentVariables = environmentVariables;
-	}
-
-	public static String getScriptName()
-	{
-		return scriptName;
-	}
-
-	public static void setScriptName(String scriptName)
-	{
-		ClientHandler.scriptName = scriptName;
-	}
-
-	public static String getScriptFolder()
-	{
-		return scriptFolder;
-	}
-
-	public static void setScriptFolder(String scriptFolder)
-	{
-		ClientHandler.scriptFolder = scriptFolder;
-	}
-	
-}
+}
\ No newline at end of file
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+/**
+ * a message received from a client, parsed into its parts.
+ * 
+ * the message is parsed exactly once - either from the text format
+ * (command:jobid:arguments) or from a frame of the binary protocol - and the same
+ * object is then passed to the handler of the command.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class ClientRequest
+{
+	private int opcode;
+	private String command;
+	private String jobId;
+	private String arguments;
+	// the id the client gave the request - only sent with version 2 of the binary protocol
+	private int requestId;
+	
+	public ClientRequest(int opcode, String command, String jobId, String arguments)
+	{
+		this.opcode = opcode;
+		this.command = command;
+		this.jobId = jobId;
+		this.arguments = arguments;
+	}
+	
+	/**
+	 * parses a message in the text format. the opcode is resolved later by the
+	 * CommandRegistry.
+	 * 
+	 * @param message	the message
+	 * @return			the parsed request
+	 */
+	public static ClientRequest parse(String message)
+	{
+		String command = message;
+		String jobId = null;
+		String arguments = null;
+		int position = message.indexOf(ClientHandler.DELIMITER);
+		if(position>=0)
+		{
+			command = message.substring(0, position);
+			int nextPosition = message.indexOf(ClientHandler.DELIMITER, position + 1);
+			if(nextPosition>=0)
+			{
+				jobId = message.substring(position + 1, nextPosition);
+				arguments = message.substring(nextPosition + 1);
+			}
+			else
+			{
+				jobId = message.substring(position + 1);
+			}
+		}
+		return new ClientRequest(CommandRegistry.UNRESOLVED, command, jobId, arguments);
+	}
+	
+	public int getOpcode()
+	{
+		return opcode;
+	}
+	
+	public void setOpcode(int opcode)
+	{
+		this.opcode = opcode;
+	}
+	
+	public String getCommand()
+	{
+		return command;
+	}
+	
+	public String getJobId()
+	{
+		return jobId;
+	}
+	
+	public String getArguments()
+	{
+		return arguments;
+	}
+	
+	public int getRequestId()
+	{
+		return requestId;
+	}
+	
+	public void setRequestId(int requestId)
+	{
+		this.requestId = requestId;
+	}
+	
+	/**
+	 * returns the request in the text format
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder message = new StringBuilder(command);
+		if(jobId!=null)
+		{
+			message.append(ClientHandler.DELIMITER).append(jobId);
+		}
+		if(arguments!=null)
+		{
+			message.append(ClientHandler.DELIMITER).append(arguments);
+		}
+		return message.toString();
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+/**
+ * a response - or an event of a subscription - together with the id of the request it
+ * belongs to.
+ * 
+ * only version 2 of the binary protocol sends the request id to the client, so the
+ * client can match responses which arrive in a different order than the requests were
+ * sent. the other codecs send the message alone.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class ClientResponse
+{
+	private int requestId;
+	private Object message;
+	private boolean event;
+	
+	public ClientResponse(int requestId, Object message, boolean event)
+	{
+		this.requestId = requestId;
+		this.message = message;
+		this.event = event;
+	}
+	
+	public int getRequestId()
+	{
+		return requestId;
+	}
+	
+	public Object getMessage()
+	{
+		return message;
+	}
+	
+	/**
+	 * an event is sent without being requested - one of many for the same request id
+	 * 
+	 * @return	true if the message is an event
+	 */
+	public boolean isEvent()
+	{
+		return event;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.valueOf(message);
+	}
+}
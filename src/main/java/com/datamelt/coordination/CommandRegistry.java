@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * maps the commands the server understands to their handlers.
+ * 
+ * handlers are kept in an array indexed by the opcode, so dispatching a request is a
+ * single array access - independent of the number of registered commands. requests in
+ * the text format are resolved to their opcode using a hash lookup of the command.
+ * 
+ * commands which are not part of the binary protocol are registered without an opcode
+ * and get the next free one assigned.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class CommandRegistry
+{
+	public static final int UNRESOLVED						= -1;
+	
+	// opcodes of the binary protocol are in the range of a byte. automatically assigned ones start above
+	private static final int FIRST_ASSIGNED_OPCODE			= 256;
+	
+	private volatile CommandHandler[] handlers				= new CommandHandler[FIRST_ASSIGNED_OPCODE];
+	private ConcurrentHashMap<String,Integer> opcodes		= new ConcurrentHashMap<String,Integer>();
+	private int nextOpcode									= FIRST_ASSIGNED_OPCODE;
+	
+	/**
+	 * registers a handler for a command with a fixed opcode
+	 * 
+	 * @param opcode		the opcode of the command
+	 * @param command		the command in the text format
+	 * @param handler		the handler processing the command
+	 */
+	public synchronized void register(int opcode, String command, CommandHandler handler)
+	{
+		if(opcode<0)
+		{
+			throw new IllegalArgumentException("invalid opcode: [" + opcode + "]");
+		}
+		if(opcodes.containsKey(command))
+		{
+			throw new IllegalArgumentException("command is already registered: [" + command + "]");
+		}
+		if(opcode>=handlers.length)
+		{
+			handlers = Arrays.copyOf(handlers, Math.max(opcode + 1, handlers.length * 2));
+		}
+		handlers[opcode] = handler;
+		opcodes.put(command, opcode);
+	}
+	
+	/**
+	 * registers a handler for a command and assigns the next free opcode to it
+	 * 
+	 * @param command		the command in the text format
+	 * @param handler		the handler processing the command
+	 * @return				the assigned opcode
+	 */
+	public synchronized int register(String command, CommandHandler handler)
+	{
+		int opcode = nextOpcode++;
+		register(opcode, command, handler);
+		return opcode;
+	}
+	
+	/**
+	 * returns the handler for the request. if the opcode of the request is not yet
+	 * known, it is resolved from the command.
+	 * 
+	 * @param request	the request
+	 * @return			the handler or null if the command is unknown
+	 */
+	public CommandHandler getHandler(ClientRequest request)
+	{
+		int opcode = request.getOpcode();
+		if(opcode==UNRESOLVED)
+		{
+			Integer registeredOpcode = opcodes.get(request.getCommand());
+			if(registeredOpcode==null)
+			{
+				return null;
+			}
+			opcode = registeredOpcode;
+			request.setOpcode(opcode);
+		}
+		CommandHandler[] currentHandlers = handlers;
+		if(opcode<currentHandlers.length)
+		{
+			return currentHandlers[opcode];
+		}
+		else
+		{
+			return null;
+		}
+	}
+	
+	public boolean isRegistered(String command)
+	{
+		return opcodes.containsKey(command);
+	}
+	
+	public int size()
+	{
+		return opcodes.size();
+	}
+}
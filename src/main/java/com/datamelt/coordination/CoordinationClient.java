@@ -20,12 +20,28 @@ package com.datamelt.coordination;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
+/**
+ * client to send messages to the coordination server.
+ * 
+ * per default the client uses the binary protocol of the BinaryCodec. if the server does
+ * not confirm the binary protocol, the client falls back to java object serialization.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
 public class CoordinationClient
 {
 	// the server address - default is 127.0.0.1
@@ -35,9 +51,19 @@ public class CoordinationClient
 	// the socket to the server
 	private Socket socket;
 	
+	// use java object serialization instead of the binary protocol
+	private boolean useObjectStream=false;
+	
 	private ObjectOutputStream outputStream;
 	private ObjectInputStream inputStream;
 	
+	// streams and reusable buffers for the binary protocol
+	private BinaryCodec codec;
+	private OutputStream binaryOutputStream;
+	private DataInputStream binaryInputStream;
+	private ByteBuffer frameBuffer;
+	private byte[] responseBuffer;
+	
 	private long counter=0;
 	
 	public CoordinationClient(String server, int port) throws UnknownHostException, IOException
@@ -48,6 +74,15 @@ public class CoordinationClient
 		init();
 	}
 	
+	public CoordinationClient(String server, int port, boolean useObjectStream) throws UnknownHostException, IOException
+	{
+		this.server = server;
+		this.port = port;
+		this.useObjectStream = useObjectStream;
+		
+		init();
+	}
+	
 	public CoordinationClient(String server) throws UnknownHostException, IOException
 	{
 		this.server = server;
@@ -57,6 +92,28 @@ public class CoordinationClient
 	
 	private void init() throws UnknownHostException, IOException
 	{
+		if(!useObjectStream)
+		{
+			try
+			{
+				initBinary();
+				return;
+			}
+			catch(StreamCorruptedException ex)
+			{
+				// the server does not know the binary protocol
+			}
+			catch(EOFException ex)
+			{
+				// the server closed the connection - it does not know the binary protocol
+			}
+			catch(SocketException ex)
+			{
+				// the server reset the connection - it does not know the binary protocol
+			}
+			closeSocket();
+			useObjectStream = true;
+		}
 		getServerSocket(server, port);
 		outputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
 		// flush MUST be called - otherwise the stream is blocking!
@@ -64,17 +121,140 @@ public class CoordinationClient
 		inputStream = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
 	}
 	
+	private void initBinary() throws UnknownHostException, IOException
+	{
+		getServerSocket(server, port);
+		socket.setTcpNoDelay(true);
+		binaryOutputStream = new BufferedOutputStream(socket.getOutputStream());
+		binaryInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		
+		// the server greets with the header of a java serialization stream
+		if(binaryInputStream.readShort()!=ObjectStreamConstants.STREAM_MAGIC || binaryInputStream.readShort()!=ObjectStreamConstants.STREAM_VERSION)
+		{
+			throw new StreamCorruptedException("invalid stream header");
+		}
+		ByteBuffer magic = ByteBuffer.allocate(4).putInt(BinaryCodec.MAGIC);
+		binaryOutputStream.write(magic.array());
+		binaryOutputStream.flush();
+		if(binaryInputStream.readInt()!=BinaryCodec.MAGIC)
+		{
+			throw new StreamCorruptedException("binary protocol not confirmed by the server");
+		}
+		codec = new BinaryCodec();
+		frameBuffer = ByteBuffer.allocate(256);
+		responseBuffer = new byte[256];
+	}
+	
 	public Object getServerMessage(String message) throws IOException, ClassNotFoundException
 	{
 		sendMessage(message);
-		return inputStream.readObject();
+		counter++;
+		return readServerMessage();
+	}
+	
+	/**
+	 * reads the next message from the server. after subscribe() the server sends the
+	 * events of the jobs without being asked.
+	 * 
+	 * @return							the message
+	 * @throws IOException				if the message can not be read
+	 * @throws ClassNotFoundException	if the message can not be read
+	 */
+	public Object readServerMessage() throws IOException, ClassNotFoundException
+	{
+		if(useObjectStream)
+		{
+			return inputStream.readObject();
+		}
+		else
+		{
+			int length = binaryInputStream.readInt();
+			if(length<0 || length>BinaryCodec.MAX_FRAME_LENGTH)
+			{
+				throw new StreamCorruptedException("invalid frame length: [" + length + "]");
+			}
+			if(length>responseBuffer.length)
+			{
+				responseBuffer = new byte[Math.max(length, responseBuffer.length * 2)];
+			}
+			binaryInputStream.readFully(responseBuffer, 0, length);
+			return BinaryCodec.decodeResponse(responseBuffer, length);
+		}
+	}
+	
+	/**
+	 * waits until the job has finished. the server answers the moment the job has finished,
+	 * so the client does not have to ask repeatedly.
+	 * 
+	 * @param jobId				the id of the job
+	 * @param timeoutSeconds	the maximum time to wait in seconds
+	 * @return					the exit code of the job or null if the job has not finished within the timeout or does not exist
+	 * @throws IOException				if the message can not be sent or the response can not be read
+	 * @throws ClassNotFoundException	if the response can not be read
+	 */
+	public Integer waitForJob(String jobId, long timeoutSeconds) throws IOException, ClassNotFoundException
+	{
+		return getExitCode(getServerMessage(ClientHandler.RESPONSE_JOB_WAIT + ClientHandler.DELIMITER + jobId + ClientHandler.DELIMITER + timeoutSeconds));
+	}
+	
+	/**
+	 * returns the exit code from the response to a jobwait message
+	 * 
+	 * @param response		the response
+	 * @return				the exit code or null if the job has not finished
+	 */
+	static Integer getExitCode(Object response)
+	{
+		String text = response!=null ? response.toString() : "";
+		int position = text.lastIndexOf(ClientHandler.EXIT_CODE + "[");
+		if(position>=0 && text.endsWith("]"))
+		{
+			try
+			{
+				return Integer.valueOf(text.substring(position + ClientHandler.EXIT_CODE.length() + 1, text.length() - 1));
+			}
+			catch(NumberFormatException ex)
+			{
+				// not the response of a finished job
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * subscribes to the events of the jobs selected by the filter. the events are read
+	 * with readServerMessage() - one per call.
+	 * 
+	 * @param filter					the job ids or prefixes ending with *, separated by comma. null for all jobs
+	 * @return							the confirmation of the server
+	 * @throws IOException				if the message can not be sent or the response can not be read
+	 * @throws ClassNotFoundException	if the response can not be read
+	 */
+	public Object subscribe(String filter) throws IOException, ClassNotFoundException
+	{
+		return getServerMessage(filter!=null ? ClientHandler.RESPONSE_SUBSCRIBE + ClientHandler.DELIMITER + filter : ClientHandler.RESPONSE_SUBSCRIBE);
 	}
 	
 	private void sendMessage(String message) throws IOException
 	{
 		// send the message to the server
-		outputStream.writeObject(message);
-       	outputStream.flush();
+		if(useObjectStream)
+		{
+			outputStream.writeObject(message);
+	       	outputStream.flush();
+		}
+		else
+		{
+			frameBuffer.clear();
+			frameBuffer = codec.encodeRequest(message, frameBuffer);
+			binaryOutputStream.write(frameBuffer.array(), 0, frameBuffer.position());
+			binaryOutputStream.flush();
+		}
+	}
+	
+	public boolean isUsingObjectStream()
+	{
+		return useObjectStream;
 	}
 	
 	private void getServerSocket(String server, int port) throws UnknownHostException, IOException
@@ -85,7 +265,7 @@ public class CoordinationClient
 	
 	public void closeSocket() throws IOException
 	{
-		if(!socket.isClosed())
+		if(socket!=null && !socket.isClosed())
 		{
 			socket.close();
 		}
@@ -34,10 +34,15 @@ public class CoordinationClientMessage
     private static String hostname							= "localhost";
     private static int port									= 9000;
     private static String message;
+    // seconds to wait for the job of the message to finish. 0 means not to wait
+    private static long waitSeconds							= 0;
+    
+    // exit status of the tool if the job did not finish within the wait time - as the timeout command does
+    public static final int EXIT_NOT_FINISHED				= 124;
     
 	public static void main(String[] args) throws Exception
 	{
-		if(args.length!=3 && args.length!=1)
+		if(args.length<1 || args.length>4)
 		{
 			help();
 		}
@@ -56,12 +61,42 @@ public class CoordinationClientMessage
 					Object response = client.getServerMessage(message);
 			    	System.out.println(response.toString());
 			    	
+			    	if(ClientRequest.parse(message).getCommand().equals(ClientHandler.RESPONSE_SUBSCRIBE))
+			    	{
+			    		// print the events until the tool or the server is stopped
+			    		while(true)
+			    		{
+			    			System.out.println(client.readServerMessage());
+			    		}
+			    	}
+			    	
+			    	Integer exitCode = null;
+			    	String jobId = ClientRequest.parse(message).getJobId();
+			    	if(waitSeconds>0 && jobId!=null)
+			    	{
+			    		// the server answers once the job has finished
+			    		exitCode = client.waitForJob(jobId, waitSeconds);
+			    		if(exitCode!=null)
+			    		{
+			    			System.out.println("job [" + jobId + "] " + ClientHandler.EXIT_CODE + "[" + exitCode + "]");
+			    		}
+			    		else
+			    		{
+			    			System.out.println("job [" + jobId + "] not finished within [" + waitSeconds + "] seconds");
+			    		}
+			    	}
+			    	
 			    	// send an exit signal
 			    	client.getServerMessage(ClientHandler.RESPONSE_EXIT);
 			    	
 					// cleanup
 			    	client.closeOutputStream();
 				    client.closeSocket();
+				    
+				    if(waitSeconds>0)
+				    {
+				    	System.exit(exitCode!=null ? exitCode : EXIT_NOT_FINISHED);
+				    }
 				}
 				else
 				{
@@ -109,6 +144,10 @@ public class CoordinationClientMessage
 			{
 				message=args[i].substring(3);
 			}
+			else if(args[i].startsWith("-w="))
+			{
+				waitSeconds=Long.parseLong(args[i].substring(3));
+			}
 		}
 	}
 	
@@ -119,13 +158,17 @@ public class CoordinationClientMessage
 		System.out.println("- uptime       : request response on the uptime of the coordination server");
 		System.out.println("- processid    : request response on the Java process id of the coordination server");
 		System.out.println("- hello        : request friendly response");
+		System.out.println("- jobwait      : wait until the job has finished and respond with its exit code. e.g. jobwait:id_0001:3600");
+		System.out.println("- subscribe    : print the events of the jobs - queued, started, finished - as they happen. e.g. subscribe:id_* for the jobs starting with id_");
     	System.out.println();
-    	System.out.println("CoordinationClientMessage -h=[hostname] -p=[port] -m=[message]");
+    	System.out.println("CoordinationClientMessage -h=[hostname] -p=[port] -m=[message] -w=[seconds]");
     	System.out.println("where [hostname] : optional. the hostname or IP address of the server running the Jare rule engine. default: localhost");
     	System.out.println("      [port]     : optional. the port that the Jare rule engine server listens on. default: 9000");
     	System.out.println("      [message]  : required. the message to be sent to the Jare rule engine server");
+    	System.out.println("      [seconds]  : optional. wait up to this number of seconds for the job of the message to finish and exit with its exit code - or " + EXIT_NOT_FINISHED + " if it did not finish");
     	System.out.println();
     	System.out.println("example: CoordinationClientMessage -h=localhost -p=9000 -m=uptime");
+    	System.out.println("example: CoordinationClientMessage -h=localhost -p=9000 -m=jobrun:id_0001 -w=3600");
     	System.out.println();
     	System.out.println("published as open source under the Apache License. read the licence notice");
     	System.out.println("all code by uwe geercken, 2006-2017. uwe.geercken@web.de");
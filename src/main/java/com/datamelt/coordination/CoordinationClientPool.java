@@ -0,0 +1,535 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a pool of connections to the coordination server, for programs sending messages from
+ * many threads or over a long time.
+ * 
+ * opening a connection takes a tcp handshake and the protocol handshake - several round
+ * trips - before the first message is sent. the pool keeps the connections open after use
+ * and hands them to the next message, so a message costs a single round trip. each
+ * connection is used by one thread at a time; if all connections are in use, the thread
+ * waits until one is returned.
+ * 
+ * a connection which was idle for longer than the validation interval is checked with a
+ * hello message before it is used again. if a reused connection fails all the same - e.g.
+ * because the server was restarted - a message which only reads from the server is sent
+ * once more on a new connection: hello, uptime, processid and the status queries like
+ * jobfinished, jobstatus or jobwait. the client can not tell if the server received the
+ * message before the connection failed, so messages which change the jobs - jobrun,
+ * jobreset, jobremove, resetjobs and reloadjobs - are not sent again and the exception is
+ * thrown instead. the caller decides if it is safe to repeat them.
+ * a background thread keeps idle connections alive with a hello message every keep alive
+ * interval, so firewalls do not drop them, and closes connections which were not used for
+ * the maximum idle time.
+ * 
+ * the subscribe and exit messages change the state of the connection and can not be sent
+ * through the pool. use a CoordinationClient for them.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class CoordinationClientPool implements Closeable
+{
+	public static final int DEFAULT_MAX_CONNECTIONS			= 8;
+	public static final long DEFAULT_BORROW_TIMEOUT			= 30000;
+	public static final long DEFAULT_VALIDATION_INTERVAL	= 5000;
+	public static final long DEFAULT_KEEP_ALIVE_INTERVAL	= 30000;
+	public static final long DEFAULT_MAX_IDLE_TIME			= 300000;
+	
+	// how often the background thread looks at the idle connections
+	private static final long KEEP_ALIVE_CHECK_PERIOD		= 1000;
+	// the messages which do not change anything on the server and may be sent twice
+	private static final HashSet<String> READ_ONLY_COMMANDS	= new HashSet<String>(Arrays.asList(
+			ClientHandler.RESPONSE_UPTIME, ClientHandler.RESPONSE_PROCESSID, ClientHandler.RESPONSE_HELLO,
+			ClientHandler.RESPONSE_JOB_FINISHED, ClientHandler.RESPONSE_JOB_CAN_START, ClientHandler.RESPONSE_JOB_START_STATUS,
+			ClientHandler.RESPONSE_JOB_STARTTIME, ClientHandler.RESPONSE_JOB_RUNTIME, ClientHandler.RESPONSE_JOB_JSON,
+			ClientHandler.RESPONSE_NUMBER_OF_JOBS, ClientHandler.RESPONSE_LIST_JOBS, ClientHandler.RESPONSE_NEXT_JOB,
+			ClientHandler.RESPONSE_JOB_EXIT_CODE, ClientHandler.RESPONSE_JOB_DEPENDENCIES, ClientHandler.RESPONSE_QUEUE_STATUS,
+			ClientHandler.RESPONSE_JOB_STATS, ClientHandler.RESPONSE_JOB_UPSTREAM, ClientHandler.RESPONSE_JOB_DOWNSTREAM,
+			ClientHandler.RESPONSE_JOB_BLOCKED, ClientHandler.RESPONSE_JOB_WAIT, ClientHandler.RESPONSE_JOB_STATUS));
+	
+	private String server;
+	private int port;
+	private int maxConnections								= DEFAULT_MAX_CONNECTIONS;
+	private long borrowTimeout								= DEFAULT_BORROW_TIMEOUT;
+	private long validationInterval							= DEFAULT_VALIDATION_INTERVAL;
+	private long keepAliveInterval							= DEFAULT_KEEP_ALIVE_INTERVAL;
+	private long maxIdleTime								= DEFAULT_MAX_IDLE_TIME;
+	
+	// the idle connections, the most recently used one first. guarded by this
+	private ArrayDeque<PooledClient> idleClients			= new ArrayDeque<PooledClient>();
+	private int numberOfConnections;
+	private long numberOfReconnects;
+	private boolean closed;
+	
+	private ScheduledExecutorService keepAliveTimer;
+	
+	public CoordinationClientPool(String server, int port)
+	{
+		this(server, port, DEFAULT_MAX_CONNECTIONS);
+	}
+	
+	public CoordinationClientPool(String server, int port, int maxConnections)
+	{
+		if(maxConnections<1)
+		{
+			throw new IllegalArgumentException("the maximum number of connections must be at least 1: [" + maxConnections + "]");
+		}
+		this.server = server;
+		this.port = port;
+		this.maxConnections = maxConnections;
+		
+		keepAliveTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "coordination-client-pool-" + server + ":" + port);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		keepAliveTimer.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				keepAlive();
+			}
+		}, KEEP_ALIVE_CHECK_PERIOD, KEEP_ALIVE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * sends the message to the server on a connection of the pool and returns the response.
+	 * if a reused connection fails, only a read only message is sent again on a new
+	 * connection.
+	 * 
+	 * @param message					the message, e.g. jobfinished:id_0001
+	 * @return							the response of the server
+	 * @throws IOException				if the message can not be sent or the response can not be read
+	 * @throws ClassNotFoundException	if the response can not be read
+	 */
+	public Object getServerMessage(String message) throws IOException, ClassNotFoundException
+	{
+		String command = ClientRequest.parse(message).getCommand();
+		if(command.equals(ClientHandler.RESPONSE_SUBSCRIBE) || command.equals(ClientHandler.RESPONSE_EXIT))
+		{
+			throw new IllegalArgumentException("the message can not be sent through the pool: [" + command + "]");
+		}
+		PooledClient pooledClient = borrow();
+		Object response;
+		try
+		{
+			response = pooledClient.client.getServerMessage(message);
+		}
+		catch(IOException ex)
+		{
+			discard(pooledClient);
+			// the server may have processed the message already. only a message reading from the server is sent twice
+			if(!pooledClient.reused || !READ_ONLY_COMMANDS.contains(command))
+			{
+				throw ex;
+			}
+			// the connection was closed while it was idle. try once more with a new one
+			synchronized(this)
+			{
+				numberOfReconnects++;
+			}
+			pooledClient = borrowNew();
+			try
+			{
+				response = pooledClient.client.getServerMessage(message);
+			}
+			catch(IOException retryException)
+			{
+				discard(pooledClient);
+				throw retryException;
+			}
+		}
+		catch(ClassNotFoundException ex)
+		{
+			// the stream is in an unknown state
+			discard(pooledClient);
+			throw ex;
+		}
+		giveBack(pooledClient, true);
+		return response;
+	}
+	
+	/**
+	 * waits until the job has finished. the connection is in use while waiting
+	 * 
+	 * @param jobId				the id of the job
+	 * @param timeoutSeconds	the maximum time to wait in seconds
+	 * @return					the exit code of the job or null if the job has not finished within the timeout or does not exist
+	 * @throws IOException				if the message can not be sent or the response can not be read
+	 * @throws ClassNotFoundException	if the response can not be read
+	 */
+	public Integer waitForJob(String jobId, long timeoutSeconds) throws IOException, ClassNotFoundException
+	{
+		return CoordinationClient.getExitCode(getServerMessage(ClientHandler.RESPONSE_JOB_WAIT + ClientHandler.DELIMITER + jobId + ClientHandler.DELIMITER + timeoutSeconds));
+	}
+	
+	/**
+	 * takes an idle connection - checking it, if it was idle for long - or opens a new
+	 * one. waits for a connection to be returned if the maximum number is reached.
+	 */
+	private PooledClient borrow() throws IOException
+	{
+		while(true)
+		{
+			PooledClient pooledClient = null;
+			synchronized(this)
+			{
+				long deadline = System.currentTimeMillis() + borrowTimeout;
+				while(!closed && idleClients.isEmpty() && numberOfConnections>=maxConnections)
+				{
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining<=0)
+					{
+						throw new IOException("no connection to the server available within [" + borrowTimeout + "] ms. connections in use: [" + numberOfConnections + "]");
+					}
+					try
+					{
+						wait(remaining);
+					}
+					catch(InterruptedException ex)
+					{
+						Thread.currentThread().interrupt();
+						throw new IOException("interrupted while waiting for a connection to the server");
+					}
+				}
+				checkOpen();
+				pooledClient = idleClients.pollFirst();
+				if(pooledClient==null)
+				{
+					// the slot is taken before the connection is opened outside the lock
+					numberOfConnections++;
+				}
+			}
+			if(pooledClient==null)
+			{
+				return open();
+			}
+			if(System.currentTimeMillis() - pooledClient.lastActive<validationInterval || isAlive(pooledClient))
+			{
+				pooledClient.reused = true;
+				return pooledClient;
+			}
+			discard(pooledClient);
+		}
+	}
+	
+	/**
+	 * opens a new connection in place of a discarded one
+	 */
+	private PooledClient borrowNew() throws IOException
+	{
+		synchronized(this)
+		{
+			checkOpen();
+			numberOfConnections++;
+		}
+		return open();
+	}
+	
+	/**
+	 * opens a connection for a slot already counted in numberOfConnections
+	 */
+	private PooledClient open() throws IOException
+	{
+		try
+		{
+			return new PooledClient(new CoordinationClient(server, port));
+		}
+		catch(IOException | RuntimeException ex)
+		{
+			synchronized(this)
+			{
+				numberOfConnections--;
+				notifyAll();
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * returns the connection to the pool. used tells if a caller used the connection - or
+	 * only the keep alive thread
+	 */
+	private synchronized void giveBack(PooledClient pooledClient, boolean used)
+	{
+		if(closed)
+		{
+			numberOfConnections--;
+			pooledClient.close();
+		}
+		else
+		{
+			pooledClient.lastActive = System.currentTimeMillis();
+			if(used)
+			{
+				pooledClient.lastUsed = pooledClient.lastActive;
+				idleClients.addFirst(pooledClient);
+			}
+			else
+			{
+				// the connections used by callers stay at the front
+				idleClients.addLast(pooledClient);
+			}
+		}
+		notifyAll();
+	}
+	
+	private void discard(PooledClient pooledClient)
+	{
+		pooledClient.close();
+		synchronized(this)
+		{
+			numberOfConnections--;
+			notifyAll();
+		}
+	}
+	
+	private boolean isAlive(PooledClient pooledClient)
+	{
+		try
+		{
+			pooledClient.client.getServerMessage(ClientHandler.RESPONSE_HELLO);
+			return true;
+		}
+		catch(IOException | ClassNotFoundException ex)
+		{
+			return false;
+		}
+	}
+	
+	private void checkOpen() throws IOException
+	{
+		if(closed)
+		{
+			throw new IOException("the connection pool is closed");
+		}
+	}
+	
+	/**
+	 * closes the connections idle for longer than the maximum idle time and sends a hello
+	 * message on the connections idle for longer than the keep alive interval. the checked
+	 * connections are taken out of the pool meanwhile.
+	 */
+	private void keepAlive()
+	{
+		ArrayList<PooledClient> expired = new ArrayList<PooledClient>();
+		ArrayList<PooledClient> inactive = new ArrayList<PooledClient>();
+		synchronized(this)
+		{
+			long now = System.currentTimeMillis();
+			Iterator<PooledClient> iterator = idleClients.iterator();
+			while(iterator.hasNext())
+			{
+				PooledClient pooledClient = iterator.next();
+				if(now - pooledClient.lastUsed>=maxIdleTime)
+				{
+					iterator.remove();
+					expired.add(pooledClient);
+				}
+				else if(now - pooledClient.lastActive>=keepAliveInterval)
+				{
+					iterator.remove();
+					inactive.add(pooledClient);
+				}
+			}
+		}
+		for(PooledClient pooledClient : expired)
+		{
+			pooledClient.exit();
+			discard(pooledClient);
+		}
+		for(PooledClient pooledClient : inactive)
+		{
+			if(isAlive(pooledClient))
+			{
+				// the idle time counts from the last use by a caller, not from the hello
+				giveBack(pooledClient, false);
+			}
+			else
+			{
+				discard(pooledClient);
+			}
+		}
+	}
+	
+	/**
+	 * closes the idle connections. connections in use are closed when they are returned
+	 */
+	@Override
+	public void close()
+	{
+		ArrayList<PooledClient> clients;
+		synchronized(this)
+		{
+			closed = true;
+			clients = new ArrayList<PooledClient>(idleClients);
+			idleClients.clear();
+			notifyAll();
+		}
+		keepAliveTimer.shutdownNow();
+		for(PooledClient pooledClient : clients)
+		{
+			pooledClient.exit();
+			discard(pooledClient);
+		}
+	}
+	
+	public synchronized int getNumberOfConnections()
+	{
+		return numberOfConnections;
+	}
+	
+	public synchronized int getNumberOfIdleConnections()
+	{
+		return idleClients.size();
+	}
+	
+	/**
+	 * returns how often a message was sent once more on a new connection, because the
+	 * connection taken from the pool had failed
+	 * 
+	 * @return	the number of reconnects
+	 */
+	public synchronized long getNumberOfReconnects()
+	{
+		return numberOfReconnects;
+	}
+	
+	public String getServer()
+	{
+		return server;
+	}
+	
+	public int getPort()
+	{
+		return port;
+	}
+	
+	public int getMaxConnections()
+	{
+		return maxConnections;
+	}
+	
+	/**
+	 * sets the time to wait for a connection, if all connections are in use
+	 * 
+	 * @param borrowTimeout		the time in milliseconds
+	 */
+	public synchronized void setBorrowTimeout(long borrowTimeout)
+	{
+		this.borrowTimeout = borrowTimeout;
+	}
+	
+	/**
+	 * sets the idle time after which a connection is checked with a hello message before it is used
+	 * 
+	 * @param validationInterval	the time in milliseconds
+	 */
+	public synchronized void setValidationInterval(long validationInterval)
+	{
+		this.validationInterval = validationInterval;
+	}
+	
+	/**
+	 * sets the idle time after which the background thread sends a hello message on a connection
+	 * 
+	 * @param keepAliveInterval		the time in milliseconds
+	 */
+	public synchronized void setKeepAliveInterval(long keepAliveInterval)
+	{
+		this.keepAliveInterval = keepAliveInterval;
+	}
+	
+	/**
+	 * sets the idle time after which a connection is closed
+	 * 
+	 * @param maxIdleTime		the time in milliseconds
+	 */
+	public synchronized void setMaxIdleTime(long maxIdleTime)
+	{
+		this.maxIdleTime = maxIdleTime;
+	}
+	
+	/**
+	 * a connection of the pool and the times it was last used and last sent a message
+	 */
+	private static final class PooledClient
+	{
+		private final CoordinationClient client;
+		private long lastUsed;
+		private long lastActive;
+		// if the connection was used before
+		private boolean reused;
+		
+		private PooledClient(CoordinationClient client)
+		{
+			this.client = client;
+			this.lastUsed = System.currentTimeMillis();
+			this.lastActive = lastUsed;
+		}
+		
+		/**
+		 * tells the server that the connection is closed
+		 */
+		private void exit()
+		{
+			try
+			{
+				client.getServerMessage(ClientHandler.RESPONSE_EXIT);
+			}
+			catch(IOException | ClassNotFoundException ex)
+			{
+				// the connection is closed anyway
+			}
+		}
+		
+		private void close()
+		{
+			try
+			{
+				client.closeSocket();
+			}
+			catch(IOException ex)
+			{
+				// nothing we can do here
+			}
+		}
+	}
+}
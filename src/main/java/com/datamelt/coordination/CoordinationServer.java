@@ -21,25 +21,39 @@ package com.datamelt.coordination;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
-
-import javax.net.ServerSocketFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datamelt.coordination.JobManager;
 import com.datamelt.util.FileUtility;
 
 public class CoordinationServer extends Thread
 {
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private IoLoop[] ioLoops;
+    private ThreadPoolExecutor workers;
     private Properties properties = new Properties();
     private int port;
+    private int backlog;
+    private int ioThreads;
+    private int workerThreads;
+    private int workerQueueSize;
     private String propertiesFileFullname;
     private long serverStart;
     private JobManager jobManager;
@@ -51,9 +65,26 @@ public class CoordinationServer extends Thread
     private static final String PROPERTY_PORT 				= "server.port";
     private static final String PROPERTY_SCRIPT_FOLDER		= "script.folder";
     private static final String PROPERTY_SCRIPT_NAME		= "script.name";
+    private static final String PROPERTY_BACKLOG			= "server.backlog";
+    private static final String PROPERTY_IO_THREADS			= "server.io.threads";
+    private static final String PROPERTY_WORKER_THREADS		= "server.worker.threads";
+    private static final String PROPERTY_WORKER_QUEUE_SIZE	= "server.worker.queue.size";
+    private static final String PROPERTY_SCHEDULER_STATE_FILE	= "scheduler.state.file";
+    private static final String PROPERTY_MAX_PROCESSES		= "execution.max.processes";
+    private static final String PROPERTY_QUEUE_ORDER		= "execution.queue.order";
+    private static final String PROPERTY_JOURNAL_FILE		= "journal.file";
+    private static final String PROPERTY_SNAPSHOT_FILE		= "snapshot.file";
+    private static final String PROPERTY_SNAPSHOT_INTERVAL	= "snapshot.interval";
+    private static final String PROPERTY_HISTORY_FILE		= "history.file";
+    private static final String PROPERTY_SUBSCRIPTION_BUFFER_SIZE	= "subscription.buffer.size";
     
+    private static final int DEFAULT_SNAPSHOT_INTERVAL		= 300;
     
     private static final int 	DEFAULT_PORT 				= 9000;
+    private static final int 	DEFAULT_BACKLOG 			= 1024;
+    private static final int 	DEFAULT_IO_THREADS 			= 2;
+    private static final int 	DEFAULT_WORKER_THREADS 		= 8;
+    private static final int 	DEFAULT_WORKER_QUEUE_SIZE	= 10000;
     private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
     
     private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
@@ -112,15 +143,38 @@ public class CoordinationServer extends Thread
 		}
     }
     
+    private void setResourceCapacities() throws Exception
+    {
+    	Enumeration<?> enumeration = properties.propertyNames();
+		while (enumeration.hasMoreElements())
+		{
+			String key = (String) enumeration.nextElement();
+			if(key.startsWith("resource."))
+			{
+				String resourceClass = key.substring(9);
+				jobManager.getExecutionPool().setResourceCapacity(resourceClass, getIntProperty(key, 1));
+			}
+		}
+    }
+    
     private void setVariables()
     {
-    	if(properties.getProperty(PROPERTY_PORT)!=null)
+    	port = getIntProperty(PROPERTY_PORT, DEFAULT_PORT);
+    	backlog = getIntProperty(PROPERTY_BACKLOG, DEFAULT_BACKLOG);
+    	ioThreads = getIntProperty(PROPERTY_IO_THREADS, DEFAULT_IO_THREADS);
+    	workerThreads = getIntProperty(PROPERTY_WORKER_THREADS, DEFAULT_WORKER_THREADS);
+    	workerQueueSize = getIntProperty(PROPERTY_WORKER_QUEUE_SIZE, DEFAULT_WORKER_QUEUE_SIZE);
+    }
+    
+    private int getIntProperty(String key, int defaultValue)
+    {
+    	if(properties.getProperty(key)!=null)
     	{
-    		port = Integer.parseInt(getProperty(PROPERTY_PORT));
+    		return Integer.parseInt(getProperty(key).trim());
     	}
     	else
     	{
-    		port = DEFAULT_PORT;
+    		return defaultValue;
     	}
     }
     
@@ -131,7 +185,36 @@ public class CoordinationServer extends Thread
     
     private void createSocket() throws IOException
     {
-    	serverSocket = ServerSocketFactory.getDefault().createServerSocket(port);
+    	serverChannel = ServerSocketChannel.open();
+    	serverChannel.socket().setReuseAddress(true);
+    	serverChannel.bind(new InetSocketAddress(port), backlog);
+    	serverChannel.configureBlocking(false);
+    	acceptSelector = Selector.open();
+    	serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+    }
+    
+    private void createThreads() throws IOException
+    {
+    	ioLoops = new IoLoop[ioThreads];
+    	for(int i=0;i<ioThreads;i++)
+    	{
+    		ioLoops[i] = new IoLoop("jobrunner-io-" + i);
+    		ioLoops[i].start();
+    	}
+    	
+    	// the queue is bounded: when it is full, new messages are answered with a busy response
+    	workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(workerQueueSize), new ThreadFactory()
+    	{
+    		private AtomicInteger counter = new AtomicInteger();
+    		
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "jobrunner-worker-" + counter.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
     }
     
     public static void main(String args[]) throws Exception
@@ -157,12 +240,60 @@ public class CoordinationServer extends Thread
     	System.out.println(sdf.format(new Date()) + " - server start...");
 		System.out.println(sdf.format(new Date()) + " - using properties from: [" + server.propertiesFileFullname + "]");
 		File jsonFile = new File(server.getProperty(PROPERTY_JOBS_FILENAME));
+		if(server.getProperty(PROPERTY_SCRIPT_FOLDER)==null || server.getProperty(PROPERTY_SCRIPT_NAME)==null)
+		{
+			throw new Exception("the variables [script.folder] and [script.name] must be defined in the properties file");
+		}
 		if(jsonFile.exists())
 		{
-			server.jobManager = new JobManager(server.getProperty(PROPERTY_JOBS_FILENAME));
+			server.jobManager = new JobManager(server.getProperty(PROPERTY_JOBS_FILENAME), server.getProperty(PROPERTY_SNAPSHOT_FILE)!=null ? server.getProperty(PROPERTY_SNAPSHOT_FILE).trim() : null);
 			server.jobManager.setFolderLogfiles(server.getProperty(PROPERTY_FOLDER_LOGS));
+			EtlJob.setEnvironmentVariables(environmentVariables);
+			EtlJob.setScriptName(server.getProperty(PROPERTY_SCRIPT_NAME));
+			EtlJob.setScriptFolder(server.getProperty(PROPERTY_SCRIPT_FOLDER));
+			server.jobManager.getExecutionPool().setMaxProcesses(server.getIntProperty(PROPERTY_MAX_PROCESSES, ExecutionPool.DEFAULT_MAX_PROCESSES));
+			server.jobManager.getEventPublisher().setBufferSize(server.getIntProperty(PROPERTY_SUBSCRIPTION_BUFFER_SIZE, JobEventPublisher.DEFAULT_BUFFER_SIZE));
+			if(server.getProperty(PROPERTY_QUEUE_ORDER)!=null)
+			{
+				server.jobManager.getExecutionPool().setOrder(server.getProperty(PROPERTY_QUEUE_ORDER).trim());
+			}
+			server.setResourceCapacities();
+			final JobManager jobManager = server.jobManager;
+			final String snapshotFilename = server.getProperty(PROPERTY_SNAPSHOT_FILE)!=null ? server.getProperty(PROPERTY_SNAPSHOT_FILE).trim() : null;
+			if(server.getProperty(PROPERTY_HISTORY_FILE)!=null)
+			{
+				jobManager.openRunHistory(server.getProperty(PROPERTY_HISTORY_FILE).trim());
+			}
+			jobManager.recoverState(server.getProperty(PROPERTY_JOURNAL_FILE)!=null ? server.getProperty(PROPERTY_JOURNAL_FILE).trim() : null);
+			if(snapshotFilename!=null)
+			{
+				jobManager.startSnapshots(snapshotFilename, server.getIntProperty(PROPERTY_SNAPSHOT_INTERVAL, DEFAULT_SNAPSHOT_INTERVAL));
+			}
+			// write the outstanding status changes and a last snapshot when the server is stopped
+			Runtime.getRuntime().addShutdownHook(new Thread("jobrunner-shutdown")
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						jobManager.closeJournal();
+						if(snapshotFilename!=null)
+						{
+							jobManager.writeSnapshot(snapshotFilename);
+						}
+					}
+					catch(Exception ex)
+					{
+						ex.printStackTrace();
+					}
+				}
+			});
+			server.jobManager.startScheduler(server.getProperty(PROPERTY_SCHEDULER_STATE_FILE));
+			server.createThreads();
 			server.start();
-	        System.out.println(sdf.format(new Date()) +  " - waiting on: [" + server.serverSocket.getInetAddress() + "], port: [" + server.port + "] for connections");
+	        System.out.println(sdf.format(new Date()) +  " - waiting on: [" + server.serverChannel.socket().getInetAddress() + "], port: [" + server.port + "] for connections");
+	        System.out.println(sdf.format(new Date()) +  " - using [" + server.ioThreads + "] io threads and [" + server.workerThreads + "] worker threads");
 		}
 		else
 		{
@@ -173,34 +304,47 @@ public class CoordinationServer extends Thread
     @Override
     public void run()
     {
+    	int nextLoop = 0;
     	boolean ok=true;
         while (ok)
         {
             try  
             {
-                final Socket socketToClient = serverSocket.accept();
-                //System.out.println(sdf.format(new Date()) + " - client connected from: [" + socketToClient.getInetAddress() +"]");
-                ClientHandler clientHandler = new ClientHandler(socketToClient, jobManager, port, serverStart);
-                ClientHandler.setEnvironmentVariables(environmentVariables);
-                if(getProperty(PROPERTY_SCRIPT_FOLDER)!=null && getProperty(PROPERTY_SCRIPT_NAME)!=null)
-                {
-	                ClientHandler.setScriptName(getProperty(PROPERTY_SCRIPT_NAME));
-	                ClientHandler.setScriptFolder(getProperty(PROPERTY_SCRIPT_FOLDER));
-	                clientHandler.start();
-                }
-                else
-                {
-                	throw new Exception("the variables [script.folder] and [script.name] must be defined in the properties file");
-                }
+            	acceptSelector.select();
+            	Iterator<SelectionKey> keys = acceptSelector.selectedKeys().iterator();
+            	while(keys.hasNext())
+            	{
+            		keys.next();
+            		keys.remove();
+            		// accept all pending connections and distribute them round robin to the io loops
+            		SocketChannel channel;
+            		while((channel = serverChannel.accept())!=null)
+            		{
+            			//System.out.println(sdf.format(new Date()) + " - client connected from: [" + channel.socket().getInetAddress() +"]");
+            			IoLoop ioLoop = ioLoops[nextLoop];
+            			nextLoop = (nextLoop + 1) % ioLoops.length;
+            			try
+            			{
+	            			channel.socket().setTcpNoDelay(true);
+	            			ClientConnection connection = new ClientConnection(channel, ioLoop, workers);
+	            			connection.setClientHandler(new ClientHandler(connection, jobManager, port, serverStart));
+	            			ioLoop.register(connection);
+            			}
+            			catch(IOException ex)
+            			{
+            				channel.close();
+            			}
+            		}
+            	}
             }
             catch (Exception ex)
             {
             	ok = false;
-            	if(!serverSocket.isClosed())
+            	if(serverChannel.isOpen())
             	{
             		try 
             		{
-						serverSocket.close();
+            			serverChannel.close();
 					} 
             		catch (IOException ioexception)
             		{
@@ -210,6 +354,11 @@ public class CoordinationServer extends Thread
                 ex.printStackTrace();
             }
         }
+        for(IoLoop ioLoop : ioLoops)
+        {
+        	ioLoop.shutdown();
+        }
+        workers.shutdown();
     }
 
     public static void help()
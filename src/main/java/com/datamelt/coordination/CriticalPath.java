@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.datamelt.etl.Job;
+
+/**
+ * calculates the critical path length of the jobs.
+ *
+ * the critical path length of a job is its own expected duration plus the longest chain
+ * of expected durations of the jobs which - directly or indirectly - depend on it. it is
+ * the minimum time needed from the start of the job until all jobs after it have finished.
+ * when jobs compete for the process slots, starting the jobs with the longest critical
+ * path first shortens the total time of a batch.
+ *
+ * the jobs are processed in reverse topological order of the JobGraph, so the lengths of
+ * all jobs depending on a job are known when the job is processed and each job is
+ * visited once.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class CriticalPath
+{
+	private CriticalPath()
+	{
+	}
+
+	/**
+	 * calculates the critical path length of all jobs of the graph
+	 *
+	 * @param jobGraph			the dependency graph of the jobs
+	 * @param durations			the expected duration per job id in milliseconds
+	 * @param defaultDuration	the duration of jobs without an expected duration
+	 * @return					map of job id to critical path length in milliseconds
+	 */
+	public static HashMap<String,Long> calculate(JobGraph jobGraph, Map<String,Long> durations, long defaultDuration)
+	{
+		List<Job> order = jobGraph.getOrder();
+		// longest path found so far after each job, by position in the order
+		long[] longestFollowingPath = new long[order.size()];
+		HashMap<String,Long> pathLengths = new HashMap<String,Long>(order.size() * 2);
+		for(int i=order.size() - 1;i>=0;i--)
+		{
+			Job job = order.get(i);
+			Long duration = durations.get(job.getJobId());
+			long pathLength = (duration!=null ? duration : defaultDuration) + longestFollowingPath[i];
+			pathLengths.put(job.getJobId(), pathLength);
+			for(String dependentJobId : job.getDependentJobs())
+			{
+				int position = jobGraph.getPosition(dependentJobId);
+				longestFollowingPath[position] = Math.max(longestFollowingPath[position], pathLength);
+			}
+		}
+		return pathLengths;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Properties;
+
+import com.datamelt.etl.Job;
+
+/**
+ * timer thread which starts the jobs having a cron style schedule.
+ * 
+ * the next fire time of each scheduled job is kept in a ScheduleIndex. the thread sleeps
+ * until the earliest of them and then hands the due jobs to the JobManager, which runs
+ * them like a jobrun message would.
+ * 
+ * the last fire time of each job is stored in a state file. if the server was down when
+ * a job should have fired, the misfire policy of the job decides: "fire_once" runs the job
+ * once right after the server start, "ignore" waits for the next regular fire time.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class CronScheduler extends Thread
+{
+	public static final String MISFIRE_POLICY_FIRE_ONCE		= "fire_once";
+	public static final String MISFIRE_POLICY_IGNORE		= "ignore";
+	
+	private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
+	private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
+	
+	private JobManager jobManager;
+	private ScheduleIndex fireTimes							= new ScheduleIndex();
+	private String stateFilename;
+	private Properties lastFireTimes						= new Properties();
+	private volatile boolean running						= true;
+	
+	public CronScheduler(JobManager jobManager, String stateFilename) throws IOException
+	{
+		super("jobrunner-scheduler");
+		setDaemon(true);
+		this.jobManager = jobManager;
+		this.stateFilename = stateFilename;
+		loadState();
+	}
+	
+	private void loadState() throws IOException
+	{
+		if(stateFilename!=null)
+		{
+			File stateFile = new File(stateFilename);
+			if(stateFile.exists())
+			{
+				FileInputStream inputStream = new FileInputStream(stateFile);
+				try
+				{
+					lastFireTimes.load(inputStream);
+				}
+				finally
+				{
+					inputStream.close();
+				}
+			}
+		}
+	}
+	
+	private void saveState()
+	{
+		if(stateFilename!=null)
+		{
+			try
+			{
+				// write to a temporary file first, so the state file is never half written
+				File stateFile = new File(stateFilename);
+				File temporaryFile = new File(stateFilename + ".tmp");
+				FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+				try
+				{
+					lastFireTimes.store(outputStream, "last fire times of the scheduled jobs");
+				}
+				finally
+				{
+					outputStream.close();
+				}
+				Files.move(temporaryFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(IOException ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * adds the job to the scheduler or updates its next fire time. jobs without a
+	 * schedule are removed from the scheduler.
+	 * 
+	 * @param job		the job
+	 */
+	public synchronized void schedule(Job job)
+	{
+		if(job.getSchedule()==null)
+		{
+			fireTimes.remove(job.getJobId());
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long nextFireTime;
+		String lastFireTime = lastFireTimes.getProperty(job.getJobId());
+		if(lastFireTime!=null && job.getSchedule().getNextTime(Long.parseLong(lastFireTime)) <= now && fireTimes.getTime(job.getJobId())==null)
+		{
+			// the job should have fired while the server was down
+			if(MISFIRE_POLICY_IGNORE.equals(job.getMisfirePolicy()))
+			{
+				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] missed its schedule while the server was down. waiting for the next fire time");
+				nextFireTime = job.getSchedule().getNextTime(now);
+			}
+			else
+			{
+				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] missed its schedule while the server was down. firing once now");
+				nextFireTime = now;
+			}
+		}
+		else
+		{
+			nextFireTime = job.getSchedule().getNextTime(now);
+		}
+		if(nextFireTime>=0)
+		{
+			fireTimes.put(job.getJobId(), nextFireTime);
+		}
+		else
+		{
+			fireTimes.remove(job.getJobId());
+		}
+		notifyAll();
+	}
+	
+	public synchronized void unschedule(String jobId)
+	{
+		fireTimes.remove(jobId);
+		notifyAll();
+	}
+	
+	public synchronized void clear()
+	{
+		fireTimes.clear();
+		notifyAll();
+	}
+	
+	/**
+	 * returns the next fire time of the job
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the time in milliseconds or null if the job is not scheduled
+	 */
+	public Long getNextFireTime(String jobId)
+	{
+		return fireTimes.getTime(jobId);
+	}
+	
+	public void shutdown()
+	{
+		running = false;
+		synchronized(this)
+		{
+			notifyAll();
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while(running)
+		{
+			ArrayList<String> dueJobIds;
+			long now;
+			synchronized(this)
+			{
+				now = System.currentTimeMillis();
+				Long nextFireTime = fireTimes.getNextTime(Long.MIN_VALUE);
+				if(nextFireTime==null || nextFireTime > now)
+				{
+					try
+					{
+						// wait until the next fire time or until the schedule changes
+						wait(nextFireTime==null ? 0 : nextFireTime - now);
+					}
+					catch(InterruptedException ex)
+					{
+						return;
+					}
+					continue;
+				}
+				dueJobIds = fireTimes.getDue(now);
+			}
+			for(String jobId : dueJobIds)
+			{
+				fire(jobId, now);
+			}
+		}
+	}
+	
+	private void fire(String jobId, long now)
+	{
+		Job job = jobManager.getJob(jobId);
+		synchronized(this)
+		{
+			if(job==null || job.getSchedule()==null)
+			{
+				fireTimes.remove(jobId);
+				return;
+			}
+			lastFireTimes.setProperty(jobId, String.valueOf(now));
+			long nextFireTime = job.getSchedule().getNextTime(now);
+			if(nextFireTime>=0)
+			{
+				fireTimes.put(jobId, nextFireTime);
+			}
+			else
+			{
+				fireTimes.remove(jobId);
+			}
+		}
+		saveState();
+		try
+		{
+			jobManager.runScheduledJob(job);
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -20,6 +20,7 @@
 package com.datamelt.coordination;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -27,12 +28,10 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Map;
 
-import com.datamelt.coordination.ClientHandler;
-import com.datamelt.coordination.CoordinationClient;
 import com.datamelt.etl.Job;
 import com.datamelt.util.Time;
 
-public class EtlJob extends Thread 
+public class EtlJob implements ProcessReaper.ProcessListener
 {
 	private static final String DEFAULT_DATETIME_FORMAT			= "yyyy-MM-dd HH:mm:ss";
 	private static final String DEFAULT_LOG_DATETIME_FORMAT		= "yyyyMMddHHmmss";
@@ -44,15 +43,15 @@ public class EtlJob extends Thread
     private static String scriptFolder;
     
 	private Job job;
-	private String hostname 									= "127.0.0.1";
-	private int serverPort;
+	private JobManager jobManager;
 	private String logfileFolder								= null;
+	private ProcessRecord processRecord;
 	
 	
-	public EtlJob(Job job, int serverPort, String logfileFolder) throws Exception
+	public EtlJob(Job job, JobManager jobManager, String logfileFolder) throws Exception
 	{
 		this.job = job;
-		this.serverPort = serverPort;
+		this.jobManager = jobManager;
 		if(logfileFolder!=null && !logfileFolder.trim().equals(""))
 		{
 			this.logfileFolder = logfileFolder;
@@ -61,6 +60,7 @@ public class EtlJob extends Thread
 		{
 			this.logfileFolder = Paths.get("").toAbsolutePath().toString();
 		}
+		this.processRecord = new ProcessRecord(this.logfileFolder, job.getJobId());
 	}
 	
 	private ProcessBuilder getProcessBuilder()
@@ -72,7 +72,8 @@ public class EtlJob extends Thread
 		
     	parameters.addAll(job.getParameters());
 		
-		ProcessBuilder pb = new ProcessBuilder(parameters);
+		// the wrapper records pid and exit code, so that the process can be adopted after a restart
+		ProcessBuilder pb = new ProcessBuilder(processRecord.wrap(parameters));
 		
 		Map<String, String> env = pb.environment();
 		env.putAll(environmentVariables);
@@ -83,87 +84,66 @@ public class EtlJob extends Thread
 		return pb;
 	}
 	
-	public void run()
+	/**
+	 * starts the process of the job. the JobManager only starts the job once its scheduled
+	 * start time is reached and the jobs it depends on have finished.
+	 * 
+	 * the job has to be in state RUNNING already - the ExecutionPool changes the state
+	 * before the process is started, so that it can not be started twice.
+	 * 
+	 * the method returns right after the process was started. the process is supervised by
+	 * the reaper of the JobManager, which calls processExited() when it has ended.
+	 * 
+	 * @throws IOException	if the process can not be started
+	 */
+	public void start() throws IOException
 	{
-		job.setStartRequested(true);
-		int jobStatus = -1;
-		CoordinationClient client = null;
+		ProcessBuilder processBuilder = getProcessBuilder();
 		
-		try
-		{
-			client = new CoordinationClient(hostname,serverPort);
-			
-			while(jobStatus!=JobManager.STATUS_JOB_CAN_START)
-			{
-				jobStatus = (int)client.getServerMessage(ClientHandler.RESPONSE_JOB_START_STATUS + ClientHandler.DELIMITER + job.getJobId());
-				if(jobStatus==JobManager.STATUS_SCHEDULED_TIME_NOT_REACHED)
-				{
-					//System.out.println(sdf.format(new Date()) + " - [" + job.getJobId()+ "] job scheduled start time not reached: " + job.getScheduledStartTime().getTime());
-					sleep(job.getCheckInterval());
-				}
-				else if(jobStatus==JobManager.STATUS_DEPENDENT_JOB_NOT_FINISHED && job.getCheckIntervalCounter() < job.getMaxCheckIntervals())
-				{
-					job.setCheckIntervalCounter(job.getCheckIntervalCounter()+1);
-					System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] waiting for dependent job(s) to finish. interval: [" + job.getCheckIntervalSeconds() + "] seconds, retries left: [" + (job.getMaxCheckIntervals() - job.getCheckIntervalCounter())+"]");
-					sleep(job.getCheckInterval());
-				}
-				else if(jobStatus!=JobManager.STATUS_JOB_CAN_START)
-				{
-					System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] dependent job(s) not finished and max check intervals is reached");
-					break;
-				}
-			}
-		}
-		catch(Exception ex)
-		{
-			ex.printStackTrace();
-		}
+		File output = new File(logfileFolder + "/" + job.getJobId() + "_" + sdfLogs.format(new Date()) + ".log");
+		processBuilder.redirectOutput(output);
+		processRecord.create(job.getActualStartTime().getTimeInMillis(), output);
 		
-		if(jobStatus==JobManager.STATUS_JOB_CAN_START)
-		{
-			ProcessBuilder processBuilder = getProcessBuilder();
-			
-			File output = new File(logfileFolder + "/" + job.getJobId() + "_" + sdfLogs.format(new Date()) + ".log");
-			processBuilder.redirectOutput(output);
-			Process process = null;
-			try
-			{
-				job.setActualStartTime(new Time(Calendar.getInstance()));
-				job.setRunning(true);
-				
-				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] started [" + job.getActualStartTime().getTime() + "]");
-				
-				// send an exit signal
-		    	client.getServerMessage(ClientHandler.RESPONSE_EXIT);
-		    	
-				process = processBuilder.start();
-			    int exitCode = process.waitFor();
-			    job.setExitCode(exitCode);
-			    job.setRunning(false);
-			    job.setFinished(true);
-			    job.setFinishedTime(new Time(Calendar.getInstance()));
-			    
-				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] finished [" + job.getFinishedTime().getTime() + "]");
-				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] exit code: " + exitCode);
-				
-		    	
-			}
-			catch(Exception e)
-			{
-			      e.printStackTrace();
-			}  
-		}
+		System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] started [" + job.getActualStartTime().getTime() + "]");
 		
-		// cleanup
+		Process process;
 		try
 		{
-			client.closeOutputStream();
-			client.closeSocket();
+			process = processBuilder.start();
 		}
-		catch(Exception ex)
+		catch(IOException ex)
 		{
-			ex.printStackTrace();
+			processRecord.delete();
+			throw ex;
 		}
+		jobManager.getProcessReaper().register(process, processRecord, this);
+	}
+	
+	/**
+	 * adopts the process of the job, which was launched by a previous instance of the
+	 * server. the job has to be in state RUNNING already. the process is supervised by
+	 * the reaper, like a process started by this server.
+	 */
+	public void adopt()
+	{
+		System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] adopted running process [" + processRecord.getPid() + "], log [" + processRecord.getLogfile() + "]");
+		jobManager.getProcessReaper().register(processRecord, this);
+	}
+	
+	/**
+	 * called by the reaper when the process of the job has ended
+	 */
+	@Override
+	public void processExited(int exitCode)
+	{
+		job.markFinished(exitCode, new Time(Calendar.getInstance()));
+		processRecord.delete();
+		
+		System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] finished [" + job.getFinishedTime().getTime() + "]");
+		System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] exit code: " + exitCode);
+		
+		// start the jobs which waited for this job
+		jobManager.jobFinished(job);
 	}
 	
 	public static Map<String, String> getEnvironmentVariables()
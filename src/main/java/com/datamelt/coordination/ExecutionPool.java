@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.datamelt.etl.Job;
+import com.datamelt.util.Time;
+
+/**
+ * limits the number of job processes running at the same time.
+ * 
+ * jobs which are ready to start are submitted to the pool. if less than the maximum
+ * number of processes are running, the job is started right away. otherwise it waits
+ * in a queue until a running job finishes. the queue is either processed in the order
+ * the jobs were submitted (fifo) or by the priority of the jobs, where jobs with the same
+ * priority are processed in the order they were submitted. with the critical path order,
+ * the job with the longest chain of expected runtimes after it - see CriticalPath - is
+ * started first, because every minute it waits adds to the total runtime of the batch.
+ * 
+ * jobs may also require tokens of one or more resource classes - e.g. a database which
+ * should not be used by more than a few jobs at the same time. a job is only started
+ * when all the tokens it requires are available, it never holds some of them while
+ * waiting for others. a queued job whose tokens are not available does not block the
+ * jobs behind it. a job requiring more tokens than the capacity of a resource class is
+ * started once no other job uses that class.
+ * 
+ * the queue is a sorted set in the order of the pool. submitting and removing a job takes
+ * logarithmic time, and starting the next jobs walks the queue from its head only until
+ * all free slots are taken - the jobs waiting for resource tokens are skipped on the way.
+ * the values the order depends on are taken when the job is submitted, so they can not
+ * change while the job is queued.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class ExecutionPool
+{
+	public static final String ORDER_FIFO					= "fifo";
+	public static final String ORDER_PRIORITY				= "priority";
+	public static final String ORDER_CRITICAL_PATH			= "critical_path";
+	
+	public static final int DEFAULT_MAX_PROCESSES			= 4;
+	
+	private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
+	private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
+	
+	private static final Comparator<QueuedJob> FIFO_ORDER = new Comparator<QueuedJob>()
+	{
+		@Override
+		public int compare(QueuedJob queuedJob1, QueuedJob queuedJob2)
+		{
+			return Long.compare(queuedJob1.sequence, queuedJob2.sequence);
+		}
+	};
+	
+	private static final Comparator<QueuedJob> PRIORITY_ORDER = new Comparator<QueuedJob>()
+	{
+		@Override
+		public int compare(QueuedJob queuedJob1, QueuedJob queuedJob2)
+		{
+			// higher priority first
+			int result = Integer.compare(queuedJob2.priority, queuedJob1.priority);
+			if(result==0)
+			{
+				result = Long.compare(queuedJob1.sequence, queuedJob2.sequence);
+			}
+			return result;
+		}
+	};
+	
+	private static final Comparator<QueuedJob> CRITICAL_PATH_ORDER = new Comparator<QueuedJob>()
+	{
+		@Override
+		public int compare(QueuedJob queuedJob1, QueuedJob queuedJob2)
+		{
+			// longer critical path first
+			int result = Long.compare(queuedJob2.criticalPathLength, queuedJob1.criticalPathLength);
+			if(result==0)
+			{
+				result = PRIORITY_ORDER.compare(queuedJob1, queuedJob2);
+			}
+			return result;
+		}
+	};
+	
+	private JobManager jobManager;
+	private int maxProcesses								= DEFAULT_MAX_PROCESSES;
+	private String order									= ORDER_FIFO;
+	private Comparator<QueuedJob> comparator				= FIFO_ORDER;
+	private TreeSet<QueuedJob> queue						= new TreeSet<QueuedJob>(FIFO_ORDER);
+	// the entries of the queue by job
+	private IdentityHashMap<Job,QueuedJob> queuedJobs		= new IdentityHashMap<Job,QueuedJob>();
+	private int runningProcesses							= 0;
+	private long sequence									= 0;
+	
+	// capacity and number of tokens in use per resource class
+	private HashMap<String,Integer> resourceCapacities		= new HashMap<String,Integer>();
+	private HashMap<String,Integer> resourcesInUse			= new HashMap<String,Integer>();
+	
+	// statistics about the time the started jobs waited in the queue
+	private long startedJobs								= 0;
+	private long totalWaitTime								= 0;
+	private long maxWaitTime								= 0;
+	
+	public ExecutionPool(JobManager jobManager)
+	{
+		this.jobManager = jobManager;
+	}
+	
+	/**
+	 * submits a job which is ready to run. the job is started right away or queued if the
+	 * maximum number of processes is reached. only a job in state WAITING is accepted.
+	 * 
+	 * @param job		the job to start
+	 * @return			true if the job was accepted
+	 */
+	public synchronized boolean submit(Job job)
+	{
+		if(!job.queue())
+		{
+			return false;
+		}
+		QueuedJob queuedJob = new QueuedJob(job, sequence++, System.currentTimeMillis(), job.getPriority(), jobManager.getCriticalPathLength(job.getJobId()));
+		queue.add(queuedJob);
+		queuedJobs.put(job, queuedJob);
+		if(runningProcesses>=maxProcesses)
+		{
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId() + "] queued. [" + runningProcesses + "] processes running, [" + queue.size() + "] job(s) waiting");
+		}
+		startQueuedJobs();
+		return true;
+	}
+	
+	/**
+	 * removes the job from the queue, if it has not been started yet
+	 * 
+	 * @param job		the job
+	 * @return			true if the job was waiting in the queue
+	 */
+	public synchronized boolean remove(Job job)
+	{
+		QueuedJob queuedJob = queuedJobs.remove(job);
+		if(queuedJob!=null)
+		{
+			queue.remove(queuedJob);
+			job.unqueue();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * called when the process of a job started by the pool has ended. the resource tokens
+	 * of the job are released and the next jobs from the queue are started.
+	 * 
+	 * @param job		the job which ended
+	 */
+	public synchronized void processFinished(Job job)
+	{
+		if(runningProcesses>0)
+		{
+			runningProcesses--;
+		}
+		releaseResources(job);
+		startQueuedJobs();
+	}
+	
+	/**
+	 * counts the process of a job which was launched by a previous instance of the server
+	 * and is still running. the process occupies a slot and the resource tokens of the job
+	 * until processFinished() is called.
+	 * 
+	 * @param job		the running job
+	 */
+	public synchronized void adopt(Job job)
+	{
+		runningProcesses++;
+		acquireResources(job);
+	}
+	
+	private void startQueuedJobs()
+	{
+		if(runningProcesses>=maxProcesses || queue.isEmpty())
+		{
+			return;
+		}
+		// walk the queue in order. jobs waiting for resource tokens are skipped
+		Iterator<QueuedJob> iterator = queue.iterator();
+		while(iterator.hasNext() && runningProcesses<maxProcesses)
+		{
+			QueuedJob queuedJob = iterator.next();
+			Job job = queuedJob.job;
+			if(!resourcesAvailable(job))
+			{
+				continue;
+			}
+			iterator.remove();
+			queuedJobs.remove(job);
+			// mark the job running right away, so that it can not be started twice
+			if(!job.markRunning(new Time(Calendar.getInstance())))
+			{
+				// the job was reset in the meantime
+				continue;
+			}
+			acquireResources(job);
+			long waitTime = System.currentTimeMillis() - queuedJob.queuedTime;
+			startedJobs++;
+			totalWaitTime += waitTime;
+			maxWaitTime = Math.max(maxWaitTime, waitTime);
+			runningProcesses++;
+			try
+			{
+				EtlJob etlJob = new EtlJob(job, jobManager, jobManager.getFolderLogfiles());
+				etlJob.start();
+			}
+			catch(Exception ex)
+			{
+				runningProcesses--;
+				releaseResources(job);
+				job.markStartFailed();
+				ex.printStackTrace();
+			}
+		}
+	}
+	
+	private boolean resourcesAvailable(Job job)
+	{
+		for(Map.Entry<String,Integer> resource : job.getResources().entrySet())
+		{
+			Integer capacity = resourceCapacities.get(resource.getKey());
+			int inUse = getResourcesInUse(resource.getKey());
+			if(capacity!=null && inUse>0 && inUse + resource.getValue()>capacity)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void acquireResources(Job job)
+	{
+		for(Map.Entry<String,Integer> resource : job.getResources().entrySet())
+		{
+			resourcesInUse.put(resource.getKey(), getResourcesInUse(resource.getKey()) + resource.getValue());
+		}
+	}
+	
+	private void releaseResources(Job job)
+	{
+		for(Map.Entry<String,Integer> resource : job.getResources().entrySet())
+		{
+			resourcesInUse.put(resource.getKey(), Math.max(getResourcesInUse(resource.getKey()) - resource.getValue(), 0));
+		}
+	}
+	
+	private int getResourcesInUse(String resourceClass)
+	{
+		Integer inUse = resourcesInUse.get(resourceClass);
+		return inUse!=null ? inUse : 0;
+	}
+	
+	/**
+	 * sets the number of tokens available for the resource class. jobs requiring a resource
+	 * class without a defined capacity are not limited by it.
+	 * 
+	 * @param resourceClass		the name of the resource class
+	 * @param capacity			the number of tokens
+	 * @throws Exception		if the capacity is less than 1
+	 */
+	public synchronized void setResourceCapacity(String resourceClass, int capacity) throws Exception
+	{
+		if(capacity<1)
+		{
+			throw new Exception("the capacity of resource class [" + resourceClass + "] must be at least 1");
+		}
+		resourceCapacities.put(resourceClass, capacity);
+		startQueuedJobs();
+	}
+	
+	/**
+	 * returns the tokens in use and the capacity of all resource classes
+	 * 
+	 * @return	map of resource class to "in use/capacity"
+	 */
+	public synchronized TreeMap<String,String> getResourceUsage()
+	{
+		TreeMap<String,String> usage = new TreeMap<String,String>();
+		for(Map.Entry<String,Integer> resource : resourceCapacities.entrySet())
+		{
+			usage.put(resource.getKey(), getResourcesInUse(resource.getKey()) + "/" + resource.getValue());
+		}
+		return usage;
+	}
+	
+	/**
+	 * returns the position of the job in the queue, starting at 1
+	 * 
+	 * @param job		the job
+	 * @return			the position or 0 if the job is not queued
+	 */
+	public synchronized int getPosition(Job job)
+	{
+		QueuedJob queuedJob = queuedJobs.get(job);
+		return queuedJob!=null ? queue.headSet(queuedJob).size() + 1 : 0;
+	}
+	
+	/**
+	 * returns the time the job has been waiting in the queue
+	 * 
+	 * @param job		the job
+	 * @return			the time in milliseconds or 0 if the job is not queued
+	 */
+	public synchronized long getWaitTime(Job job)
+	{
+		QueuedJob queuedJob = queuedJobs.get(job);
+		return queuedJob!=null ? System.currentTimeMillis() - queuedJob.queuedTime : 0;
+	}
+	
+	/**
+	 * returns the time the job which is waiting the longest has been waiting in the queue
+	 * 
+	 * @return	the time in milliseconds or 0 if the queue is empty
+	 */
+	public synchronized long getOldestWaitTime()
+	{
+		long oldestQueuedTime = Long.MAX_VALUE;
+		for(QueuedJob queuedJob : queue)
+		{
+			oldestQueuedTime = Math.min(oldestQueuedTime, queuedJob.queuedTime);
+		}
+		return queue.isEmpty() ? 0 : System.currentTimeMillis() - oldestQueuedTime;
+	}
+	
+	/**
+	 * returns the average time the started jobs waited in the queue
+	 * 
+	 * @return	the time in milliseconds
+	 */
+	public synchronized long getAverageWaitTime()
+	{
+		return startedJobs>0 ? totalWaitTime/startedJobs : 0;
+	}
+	
+	public synchronized long getMaxWaitTime()
+	{
+		return maxWaitTime;
+	}
+	
+	public synchronized int getQueueSize()
+	{
+		return queue.size();
+	}
+	
+	public synchronized int getRunningProcesses()
+	{
+		return runningProcesses;
+	}
+	
+	public synchronized int getMaxProcesses()
+	{
+		return maxProcesses;
+	}
+	
+	public synchronized void setMaxProcesses(int maxProcesses) throws Exception
+	{
+		if(maxProcesses<1)
+		{
+			throw new Exception("the maximum number of processes must be at least 1");
+		}
+		this.maxProcesses = maxProcesses;
+		startQueuedJobs();
+	}
+	
+	public synchronized String getOrder()
+	{
+		return order;
+	}
+	
+	/**
+	 * sets the order in which the queued jobs are started
+	 * 
+	 * @param order			"fifo", "priority" or "critical_path"
+	 * @throws Exception	if the order is unknown
+	 */
+	public synchronized void setOrder(String order) throws Exception
+	{
+		if(ORDER_FIFO.equals(order))
+		{
+			comparator = FIFO_ORDER;
+		}
+		else if(ORDER_PRIORITY.equals(order))
+		{
+			comparator = PRIORITY_ORDER;
+		}
+		else if(ORDER_CRITICAL_PATH.equals(order))
+		{
+			comparator = CRITICAL_PATH_ORDER;
+		}
+		else
+		{
+			throw new Exception("invalid queue order: [" + order + "]. allowed values are: [" + ORDER_FIFO + "], [" + ORDER_PRIORITY + "] and [" + ORDER_CRITICAL_PATH + "]");
+		}
+		this.order = order;
+		TreeSet<QueuedJob> reorderedQueue = new TreeSet<QueuedJob>(comparator);
+		reorderedQueue.addAll(queue);
+		queue = reorderedQueue;
+	}
+	
+	private static class QueuedJob
+	{
+		private Job job;
+		private long sequence;
+		private long queuedTime;
+		private int priority;
+		private long criticalPathLength;
+		
+		private QueuedJob(Job job, long sequence, long queuedTime, int priority, long criticalPathLength)
+		{
+			this.job = job;
+			this.sequence = sequence;
+			this.queuedTime = queuedTime;
+			this.priority = priority;
+			this.criticalPathLength = criticalPathLength;
+		}
+	}
+}
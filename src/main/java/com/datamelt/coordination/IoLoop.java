@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * selector thread which multiplexes the reading and writing of many client connections.
+ *
+ * the server runs a small, fixed number of these loops and distributes the accepted
+ * connections among them. the loop itself never blocks on a single client: it only
+ * moves bytes between the sockets and the connection buffers. the processing of the
+ * messages is done in the worker pool of the server.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class IoLoop extends Thread
+{
+	private Selector selector;
+	private volatile boolean running						= true;
+
+	private ConcurrentLinkedQueue<ClientConnection> newConnections		= new ConcurrentLinkedQueue<ClientConnection>();
+	private ConcurrentLinkedQueue<ClientConnection> writeRequests		= new ConcurrentLinkedQueue<ClientConnection>();
+
+	public IoLoop(String name) throws IOException
+	{
+		super(name);
+		setDaemon(true);
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * hands a newly accepted connection over to this loop
+	 *
+	 * @param connection	the connection
+	 */
+	void register(ClientConnection connection)
+	{
+		newConnections.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * signals that the connection has output pending. may be called from any thread.
+	 *
+	 * @param connection	the connection
+	 */
+	void requestWrite(ClientConnection connection)
+	{
+		writeRequests.add(connection);
+		selector.wakeup();
+	}
+
+	int getNumberOfConnections()
+	{
+		return selector.keys().size();
+	}
+
+	public void shutdown()
+	{
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		while(running)
+		{
+			try
+			{
+				registerNewConnections();
+				processWriteRequests();
+
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					ClientConnection connection = (ClientConnection) key.attachment();
+					try
+					{
+						if(key.isReadable())
+						{
+							connection.read();
+						}
+						if(key.isValid() && key.isWritable())
+						{
+							connection.write();
+						}
+					}
+					catch(IOException ex)
+					{
+						connection.close();
+					}
+					catch(CancelledKeyException ex)
+					{
+						connection.close();
+					}
+				}
+			}
+			catch(Exception ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+		for(SelectionKey key : selector.keys())
+		{
+			((ClientConnection) key.attachment()).close();
+		}
+		try
+		{
+			selector.close();
+		}
+		catch(IOException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	private void registerNewConnections()
+	{
+		ClientConnection connection;
+		while((connection = newConnections.poll())!=null)
+		{
+			try
+			{
+				connection.getChannel().configureBlocking(false);
+				// the stream header is pending, so the connection starts with a write
+				SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, connection);
+				connection.setSelectionKey(key);
+			}
+			catch(IOException ex)
+			{
+				connection.close();
+			}
+		}
+	}
+
+	private void processWriteRequests()
+	{
+		ClientConnection connection;
+		while((connection = writeRequests.poll())!=null)
+		{
+			if(!connection.isClosed())
+			{
+				try
+				{
+					// try writing right away. only if the socket buffer is full, we wait for a write event
+					connection.write();
+					if(!connection.isClosed() && connection.hasPendingOutput())
+					{
+						connection.setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					}
+				}
+				catch(IOException ex)
+				{
+					connection.close();
+				}
+				catch(CancelledKeyException ex)
+				{
+					connection.close();
+				}
+			}
+		}
+	}
+}
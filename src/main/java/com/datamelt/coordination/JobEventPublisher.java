@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.datamelt.etl.Job;
+import com.datamelt.etl.JobState;
+import com.datamelt.etl.JobStatus;
+import com.datamelt.etl.JobStatusListener;
+
+/**
+ * publishes the status changes of the jobs as events to the subscribed clients.
+ * 
+ * an event is one line of text:
+ * 
+ * event: [finished], job: [id_0001], time: [2017-12-22 10:15:03], exit code: [0], duration: [3012 ms]
+ * 
+ * the events are waiting, queued, started, finished and reset - when the job goes back
+ * to idle. a finished event carries the exit code and the duration of the run. the event
+ * is built once and only if a subscriber selects the job; it is sent by the thread which
+ * changed the status of the job, without blocking it.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class JobEventPublisher implements JobStatusListener
+{
+	// maximum number of bytes pending for a subscriber before it is disconnected. a burst of
+	// events, e.g. when all jobs are reset, has to fit
+	public static final int DEFAULT_BUFFER_SIZE				= 1024 * 1024;
+	
+	public static final String EVENT_RESET					= "reset";
+	public static final String EVENT_WAITING				= "waiting";
+	public static final String EVENT_QUEUED					= "queued";
+	public static final String EVENT_STARTED				= "started";
+	public static final String EVENT_FINISHED				= "finished";
+	
+	private static final DateTimeFormatter dtf				= DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	
+	private CopyOnWriteArrayList<Subscription> subscriptions	= new CopyOnWriteArrayList<Subscription>();
+	private volatile int bufferSize							= DEFAULT_BUFFER_SIZE;
+	
+	/**
+	 * sends the events of the jobs selected by the filter to the client
+	 * 
+	 * @param filter		selects the jobs
+	 * @param connection	the connection to the client
+	 * @param requestId		the id of the subscribe request, sent with each event. 0 if the client does not use request ids
+	 * @return				the subscription
+	 */
+	public Subscription subscribe(JobFilter filter, ClientConnection connection, int requestId)
+	{
+		Subscription subscription = new Subscription(filter, connection, requestId, bufferSize);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+	
+	public void unsubscribe(Subscription subscription)
+	{
+		subscription.cancel();
+		subscriptions.remove(subscription);
+	}
+	
+	@Override
+	public void statusChanged(Job job, JobStatus status)
+	{
+		String event = null;
+		for(Subscription subscription : subscriptions)
+		{
+			if(!subscription.isActive())
+			{
+				subscriptions.remove(subscription);
+			}
+			else if(subscription.getFilter().matches(job.getJobId()))
+			{
+				if(event==null)
+				{
+					event = getEvent(job.getJobId(), status);
+				}
+				if(!subscription.publish(event))
+				{
+					subscriptions.remove(subscription);
+				}
+			}
+		}
+	}
+	
+	private static String getEvent(String jobId, JobStatus status)
+	{
+		JobState state = status.getState();
+		StringBuilder event = new StringBuilder(128);
+		event.append("event: [").append(getEventName(state)).append("], job: [").append(jobId).append("], time: [");
+		if(state.isFinished())
+		{
+			long finishedTime = status.getFinishedTime().getTimeInMillis();
+			event.append(format(finishedTime)).append("], exit code: [").append(status.getExitCode()).append("]");
+			if(status.getActualStartTime()!=null)
+			{
+				event.append(", duration: [").append(finishedTime - status.getActualStartTime().getTimeInMillis()).append(" ms]");
+			}
+		}
+		else if(state==JobState.RUNNING && status.getActualStartTime()!=null)
+		{
+			event.append(format(status.getActualStartTime().getTimeInMillis())).append("]");
+		}
+		else
+		{
+			event.append(format(System.currentTimeMillis())).append("]");
+		}
+		return event.toString();
+	}
+	
+	private static String getEventName(JobState state)
+	{
+		switch(state)
+		{
+			case WAITING:
+				return EVENT_WAITING;
+			case QUEUED:
+				return EVENT_QUEUED;
+			case RUNNING:
+				return EVENT_STARTED;
+			case SUCCEEDED:
+			case FAILED:
+				return EVENT_FINISHED;
+			default:
+				return EVENT_RESET;
+		}
+	}
+	
+	private static String format(long time)
+	{
+		return dtf.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+	}
+	
+	/**
+	 * sets the maximum number of bytes pending for a subscriber. a subscriber having more
+	 * bytes pending is disconnected. applies to new subscriptions
+	 * 
+	 * @param bufferSize	the size in bytes
+	 */
+	public void setBufferSize(int bufferSize)
+	{
+		this.bufferSize = bufferSize;
+	}
+	
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+	
+	public int getNumberOfSubscribers()
+	{
+		return subscriptions.size();
+	}
+}
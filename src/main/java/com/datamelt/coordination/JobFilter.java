@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * selects jobs by their id. the filter is a comma separated list of entries, each one
+ * either a job id, a prefix ending with * or a pattern using * for any number of
+ * characters and ? for a single character. a single * or an empty filter selects all jobs.
+ * 
+ * examples: "*", "load_customers", "load_*", "load_*,export_sales", "dwh_??_*"
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class JobFilter
+{
+	public static final String ALL							= "*";
+	private static final String SEPARATOR					= ",";
+	
+	private String filter;
+	private boolean all;
+	private LinkedHashSet<String> jobIds					= new LinkedHashSet<String>();
+	private ArrayList<String> prefixes						= new ArrayList<String>();
+	private ArrayList<Pattern> patterns						= new ArrayList<Pattern>();
+	
+	private JobFilter(String filter)
+	{
+		this.filter = filter;
+	}
+	
+	/**
+	 * parses the filter
+	 * 
+	 * @param filter	the filter or null to select all jobs
+	 * @return			the filter
+	 */
+	public static JobFilter parse(String filter)
+	{
+		if(filter==null || filter.trim().equals(""))
+		{
+			filter = ALL;
+		}
+		JobFilter jobFilter = new JobFilter(filter.trim());
+		for(String entry : filter.split(SEPARATOR))
+		{
+			entry = entry.trim();
+			int wildcard = indexOfWildcard(entry);
+			if(entry.equals(ALL))
+			{
+				jobFilter.all = true;
+			}
+			else if(wildcard<0)
+			{
+				if(!entry.equals(""))
+				{
+					jobFilter.jobIds.add(entry);
+				}
+			}
+			else if(wildcard==entry.length() - 1 && entry.charAt(wildcard)=='*')
+			{
+				jobFilter.prefixes.add(entry.substring(0, wildcard));
+			}
+			else
+			{
+				jobFilter.patterns.add(toPattern(entry));
+			}
+		}
+		return jobFilter;
+	}
+	
+	private static int indexOfWildcard(String entry)
+	{
+		for(int i=0;i<entry.length();i++)
+		{
+			if(entry.charAt(i)=='*' || entry.charAt(i)=='?')
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static Pattern toPattern(String entry)
+	{
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+		for(int i=0;i<entry.length();i++)
+		{
+			char c = entry.charAt(i);
+			if(c=='*' || c=='?')
+			{
+				if(i>start)
+				{
+					regex.append(Pattern.quote(entry.substring(start, i)));
+				}
+				regex.append(c=='*' ? ".*" : ".");
+				start = i + 1;
+			}
+		}
+		if(start<entry.length())
+		{
+			regex.append(Pattern.quote(entry.substring(start)));
+		}
+		return Pattern.compile(regex.toString());
+	}
+	
+	/**
+	 * checks if the filter selects the job
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			true if the job is selected
+	 */
+	public boolean matches(String jobId)
+	{
+		if(all || jobIds.contains(jobId))
+		{
+			return true;
+		}
+		for(int i=0;i<prefixes.size();i++)
+		{
+			if(jobId.startsWith(prefixes.get(i)))
+			{
+				return true;
+			}
+		}
+		for(int i=0;i<patterns.size();i++)
+		{
+			if(patterns.get(i).matcher(jobId).matches())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * checks if the filter consists of job ids only, without prefixes or patterns. the
+	 * selected jobs can then be looked up instead of checking all jobs
+	 * 
+	 * @return	true if the filter contains job ids only
+	 */
+	public boolean isExact()
+	{
+		return !all && prefixes.isEmpty() && patterns.isEmpty();
+	}
+	
+	/**
+	 * returns the job ids of the filter in the order they were given
+	 * 
+	 * @return	the job ids
+	 */
+	public List<String> getJobIds()
+	{
+		return new ArrayList<String>(jobIds);
+	}
+	
+	/**
+	 * checks if the filter selects all jobs
+	 * 
+	 * @return	true if all jobs are selected
+	 */
+	public boolean isAll()
+	{
+		return all;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return filter;
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import com.datamelt.etl.Job;
+
+/**
+ * the dependency graph of the jobs.
+ *
+ * the graph is built once when the jobs are loaded. it checks that every job a job
+ * depends on is defined and that the dependencies do not form a cycle - such a job could
+ * never start. the jobs are put in topological order: every job comes after all the jobs
+ * it depends on. the level of a job is the length of the longest chain of jobs it depends
+ * on: jobs without dependencies have level 0, a job depending on a level 0 job has level
+ * 1, and so on.
+ *
+ * the order is calculated with kahn's algorithm on arrays indexed by the position of the
+ * jobs, so building the graph takes linear time in the number of jobs and dependencies.
+ * jobs which are independent of each other keep the order they were given in.
+ *
+ * the graph also holds a ReachabilityIndex, so the jobs a job depends on directly or
+ * indirectly - and the jobs depending on it - are known without following the
+ * dependencies at the time of a request.
+ *
+ * the graph is not changed after it was built.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class JobGraph
+{
+	// maximum number of errors and jobs of a cycle listed in the exception
+	private static final int MAX_ERRORS						= 10;
+
+	private List<Job> order;
+	private HashMap<String,Integer> positions;
+	private int[] levels;
+	private int numberOfLevels;
+	private ReachabilityIndex reachabilityIndex;
+
+	private JobGraph(Job[] order, int[] levels, ReachabilityIndex reachabilityIndex)
+	{
+		this.order = Collections.unmodifiableList(Arrays.asList(order));
+		this.levels = levels;
+		this.reachabilityIndex = reachabilityIndex;
+		this.positions = new HashMap<String,Integer>(order.length * 2);
+		for(int i=0;i<order.length;i++)
+		{
+			positions.put(order[i].getJobId(), i);
+			numberOfLevels = Math.max(numberOfLevels, levels[i] + 1);
+		}
+	}
+
+	/**
+	 * builds the graph of the given jobs
+	 *
+	 * @param jobs			the jobs
+	 * @return				the graph
+	 * @throws Exception	if a job depends on an undefined job or the dependencies form a cycle
+	 */
+	public static JobGraph build(Collection<Job> jobs) throws Exception
+	{
+		int size = jobs.size();
+		Job[] jobArray = jobs.toArray(new Job[size]);
+		HashMap<String,Integer> index = new HashMap<String,Integer>(size * 2);
+		ArrayList<String> errors = new ArrayList<String>();
+		for(int i=0;i<size;i++)
+		{
+			if(index.put(jobArray[i].getJobId(), i)!=null)
+			{
+				errors.add("job [" + jobArray[i].getJobId() + "] is defined multiple times");
+			}
+		}
+		// the jobs each job depends on, by position
+		int[][] upstream = new int[size][];
+		int[] numberOfDownstream = new int[size];
+		int numberOfEdges = 0;
+		for(int i=0;i<size;i++)
+		{
+			ArrayList<String> dependentJobs = jobArray[i].getDependentJobs();
+			upstream[i] = new int[dependentJobs.size()];
+			for(int j=0;j<dependentJobs.size();j++)
+			{
+				Integer position = index.get(dependentJobs.get(j));
+				if(position==null)
+				{
+					errors.add("job [" + jobArray[i].getJobId() + "] depends on job [" + dependentJobs.get(j) + "], which is not defined");
+					upstream[i][j] = -1;
+				}
+				else
+				{
+					upstream[i][j] = position;
+					numberOfDownstream[position]++;
+					numberOfEdges++;
+				}
+			}
+		}
+		if(!errors.isEmpty())
+		{
+			throw new Exception(getMessage(errors));
+		}
+		// the jobs depending on each job, as one array with a start offset per job
+		int[] downstreamStart = new int[size + 1];
+		for(int i=0;i<size;i++)
+		{
+			downstreamStart[i + 1] = downstreamStart[i] + numberOfDownstream[i];
+		}
+		int[] downstream = new int[numberOfEdges];
+		int[] filled = new int[size];
+		int[] openDependencies = new int[size];
+		for(int i=0;i<size;i++)
+		{
+			for(int position : upstream[i])
+			{
+				downstream[downstreamStart[position] + filled[position]++] = i;
+			}
+			openDependencies[i] = upstream[i].length;
+		}
+		// kahn: a job is added to the order once all jobs it depends on were added
+		int[] sorted = new int[size];
+		int[] levels = new int[size];
+		int head = 0;
+		int tail = 0;
+		for(int i=0;i<size;i++)
+		{
+			if(openDependencies[i]==0)
+			{
+				sorted[tail++] = i;
+			}
+		}
+		while(head<tail)
+		{
+			int position = sorted[head++];
+			for(int k=downstreamStart[position];k<downstreamStart[position + 1];k++)
+			{
+				int dependent = downstream[k];
+				levels[dependent] = Math.max(levels[dependent], levels[position] + 1);
+				if(--openDependencies[dependent]==0)
+				{
+					sorted[tail++] = dependent;
+				}
+			}
+		}
+		if(tail<size)
+		{
+			errors.add("the dependencies of [" + (size - tail) + "] job(s) form a cycle: " + findCycle(jobArray, upstream, openDependencies));
+			throw new Exception(getMessage(errors));
+		}
+		Job[] order = new Job[size];
+		int[] orderedLevels = new int[size];
+		int[] positionInOrder = new int[size];
+		for(int i=0;i<size;i++)
+		{
+			order[i] = jobArray[sorted[i]];
+			orderedLevels[i] = levels[sorted[i]];
+			positionInOrder[sorted[i]] = i;
+		}
+		// the direct dependencies again, by position in the order
+		int[] orderedUpstreamStart = new int[size + 1];
+		int[] orderedUpstream = new int[numberOfEdges];
+		int[] orderedDownstreamStart = new int[size + 1];
+		int[] orderedDownstream = new int[numberOfEdges];
+		for(int i=0;i<size;i++)
+		{
+			int position = sorted[i];
+			orderedUpstreamStart[i + 1] = orderedUpstreamStart[i] + upstream[position].length;
+			for(int j=0;j<upstream[position].length;j++)
+			{
+				orderedUpstream[orderedUpstreamStart[i] + j] = positionInOrder[upstream[position][j]];
+			}
+			orderedDownstreamStart[i + 1] = orderedDownstreamStart[i] + numberOfDownstream[position];
+			for(int k=downstreamStart[position];k<downstreamStart[position + 1];k++)
+			{
+				orderedDownstream[orderedDownstreamStart[i] + k - downstreamStart[position]] = positionInOrder[downstream[k]];
+			}
+		}
+		ReachabilityIndex reachabilityIndex = new ReachabilityIndex(orderedUpstreamStart, orderedUpstream, orderedDownstreamStart, orderedDownstream);
+		return new JobGraph(order, orderedLevels, reachabilityIndex);
+	}
+
+	/**
+	 * finds one cycle among the jobs which could not be ordered. each of these jobs depends
+	 * on at least one other job which could not be ordered, so following these dependencies
+	 * leads into a cycle.
+	 */
+	private static String findCycle(Job[] jobs, int[][] upstream, int[] openDependencies)
+	{
+		int start = 0;
+		while(openDependencies[start]==0)
+		{
+			start++;
+		}
+		int[] visited = new int[jobs.length];
+		ArrayList<Integer> path = new ArrayList<Integer>();
+		int position = start;
+		while(visited[position]==0)
+		{
+			visited[position] = path.size() + 1;
+			path.add(position);
+			for(int dependency : upstream[position])
+			{
+				if(openDependencies[dependency]>0)
+				{
+					position = dependency;
+					break;
+				}
+			}
+		}
+		StringBuilder cycle = new StringBuilder();
+		int cycleStart = visited[position] - 1;
+		for(int i=cycleStart;i<path.size();i++)
+		{
+			if(i - cycleStart==MAX_ERRORS && path.size() - i>1)
+			{
+				// list the start and the end of a long cycle only
+				cycle.append("[" + (path.size() - i - 1) + " more job(s)] depends on ");
+				i = path.size() - 1;
+			}
+			cycle.append("[").append(jobs[path.get(i)].getJobId()).append("] depends on ");
+		}
+		cycle.append("[").append(jobs[position].getJobId()).append("]");
+		return cycle.toString();
+	}
+
+	private static String getMessage(ArrayList<String> errors)
+	{
+		StringBuilder message = new StringBuilder("invalid job dependencies: ");
+		for(int i=0;i<errors.size() && i<MAX_ERRORS;i++)
+		{
+			if(i>0)
+			{
+				message.append("; ");
+			}
+			message.append(errors.get(i));
+		}
+		if(errors.size()>MAX_ERRORS)
+		{
+			message.append("; and [" + (errors.size() - MAX_ERRORS) + "] more error(s)");
+		}
+		return message.toString();
+	}
+
+	/**
+	 * returns the jobs in topological order: every job comes after the jobs it depends on
+	 *
+	 * @return	the jobs
+	 */
+	public List<Job> getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * returns the position of the job in the topological order
+	 *
+	 * @param jobId		the id of the job
+	 * @return			the position or -1 if the job is not part of the graph
+	 */
+	public int getPosition(String jobId)
+	{
+		Integer position = positions.get(jobId);
+		return position!=null ? position : -1;
+	}
+
+	/**
+	 * returns the level of the job: the length of the longest chain of jobs it depends on
+	 *
+	 * @param jobId		the id of the job
+	 * @return			the level or -1 if the job is not part of the graph
+	 */
+	public int getLevel(String jobId)
+	{
+		Integer position = positions.get(jobId);
+		return position!=null ? levels[position] : -1;
+	}
+
+	/**
+	 * returns all jobs the job depends on, directly or indirectly
+	 *
+	 * @param jobId		the id of the job
+	 * @return			the jobs in topological order or null if the job is not part of the graph
+	 */
+	public List<Job> getUpstreamJobs(String jobId)
+	{
+		Integer position = positions.get(jobId);
+		return position!=null ? getJobs(reachabilityIndex.getUpstream(position)) : null;
+	}
+
+	/**
+	 * returns all jobs depending on the job, directly or indirectly
+	 *
+	 * @param jobId		the id of the job
+	 * @return			the jobs in topological order or null if the job is not part of the graph
+	 */
+	public List<Job> getDownstreamJobs(String jobId)
+	{
+		Integer position = positions.get(jobId);
+		return position!=null ? getJobs(reachabilityIndex.getDownstream(position)) : null;
+	}
+
+	/**
+	 * checks if the job depends directly or indirectly on the other job
+	 *
+	 * @param jobId			the id of the job
+	 * @param otherJobId	the id of the other job
+	 * @return				if the job depends on the other job
+	 */
+	public boolean dependsOn(String jobId, String otherJobId)
+	{
+		Integer position = positions.get(jobId);
+		Integer otherPosition = positions.get(otherJobId);
+		return position!=null && otherPosition!=null && reachabilityIndex.isUpstream(position, otherPosition);
+	}
+
+	private List<Job> getJobs(int[] jobPositions)
+	{
+		ArrayList<Job> jobs = new ArrayList<Job>(jobPositions.length);
+		for(int position : jobPositions)
+		{
+			jobs.add(order.get(position));
+		}
+		return jobs;
+	}
+
+	public ReachabilityIndex getReachabilityIndex()
+	{
+		return reachabilityIndex;
+	}
+
+	public int getNumberOfLevels()
+	{
+		return numberOfLevels;
+	}
+
+	public int size()
+	{
+		return order.size();
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import com.datamelt.etl.Job;
+import com.datamelt.etl.JobState;
+import com.datamelt.etl.JobStatus;
+import com.datamelt.etl.JobStatusListener;
+
+/**
+ * append-only journal of the status changes of the jobs.
+ * 
+ * every status change is appended as a record to the journal file. when the server is
+ * restarted, the journal is replayed, so the jobs get back the state they had - e.g. jobs
+ * which finished before the restart stay finished and their dependent jobs can start.
+ * 
+ * appending a record only copies it to a buffer. a separate writer thread writes all
+ * buffered records with a single write and forces them to disk with a single sync. so a
+ * burst of status changes costs one disk sync, not one per change (group commit).
+ * 
+ * each record has the layout: length (int), version (long), time written (long), state
+ * (byte), exit code (int), start time (long), finish time (long), length of the job id
+ * (short), job id (utf-8) followed by a crc32 checksum (int) of all bytes after the
+ * length. the version of the status is the sequence number of the record. a record which
+ * is incomplete or has a wrong checksum ends the replay - it was being written when the
+ * server stopped.
+ * 
+ * the journal is compacted when it is opened and again whenever it has grown beyond the
+ * compact size and to twice its size after the last compaction. the writer thread then
+ * writes the current status of all jobs to a new file, which replaces the journal. a
+ * status is set on the job before it is appended here, so the new file holds at least
+ * the status of every record written to the old one; records appended meanwhile follow
+ * in the new file and the newer version wins on replay.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class JobJournal extends Thread implements JobStatusListener
+{
+	private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
+	private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
+	
+	private static final int BUFFER_SIZE					= 64 * 1024;
+	public static final long DEFAULT_COMPACT_SIZE			= 64 * 1024 * 1024;
+	// version, time, state, exit code, start time, finish time and length of the job id
+	private static final int RECORD_FIXED_LENGTH			= 8 + 8 + 1 + 4 + 8 + 8 + 2;
+	private static final JobState[] STATES					= JobState.values();
+	
+	private File file;
+	private FileChannel channel;
+	private JobManager jobManager;
+	private long compactSize								= DEFAULT_COMPACT_SIZE;
+	// written by the writer thread only, once the journal is open
+	private long fileSize;
+	private long compactedSize;
+	private long compactions								= 0;
+	
+	private final Object lock								= new Object();
+	private ByteBuffer pending								= ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer writing								= ByteBuffer.allocate(BUFFER_SIZE);
+	private CRC32 checksum									= new CRC32();
+	private long appendedRecords							= 0;
+	private long writtenRecords								= 0;
+	private long syncs										= 0;
+	private volatile boolean running						= true;
+	
+	public JobJournal(String filename)
+	{
+		super("jobrunner-journal");
+		setDaemon(true);
+		this.file = new File(filename);
+	}
+	
+	/**
+	 * reads the journal and returns the last status written for each job
+	 * 
+	 * @return				map of job id to status
+	 * @throws IOException	if the journal can not be read
+	 */
+	public HashMap<String,JobStatus> replay() throws IOException
+	{
+		HashMap<String,JobStatus> statuses = new HashMap<String,JobStatus>();
+		if(!file.exists())
+		{
+			return statuses;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		CRC32 replayChecksum = new CRC32();
+		int records = 0;
+		while(buffer.remaining()>=4)
+		{
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if(length<RECORD_FIXED_LENGTH || buffer.remaining()<length + 4)
+			{
+				buffer.position(start);
+				break;
+			}
+			replayChecksum.reset();
+			replayChecksum.update(buffer.array(), buffer.position(), length);
+			long version = buffer.getLong();
+			buffer.getLong();
+			byte state = buffer.get();
+			int exitCode = buffer.getInt();
+			long actualStartTime = buffer.getLong();
+			long finishedTime = buffer.getLong();
+			int jobIdLength = buffer.getShort() & 0xFFFF;
+			if(jobIdLength!=length - RECORD_FIXED_LENGTH || state<0 || state>=STATES.length)
+			{
+				buffer.position(start);
+				break;
+			}
+			String jobId = new String(buffer.array(), buffer.position(), jobIdLength, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + jobIdLength);
+			if(buffer.getInt()!=(int) replayChecksum.getValue())
+			{
+				buffer.position(start);
+				break;
+			}
+			JobStatus previous = statuses.get(jobId);
+			if(previous==null || previous.getVersion()<version)
+			{
+				statuses.put(jobId, JobStatus.restore(STATES[state], exitCode, actualStartTime, finishedTime, version));
+			}
+			records++;
+		}
+		if(buffer.hasRemaining())
+		{
+			System.out.println(sdf.format(new Date()) + " - journal [" + file + "] has an incomplete record at position [" + buffer.position() + "]. ignoring the rest of the file");
+		}
+		System.out.println(sdf.format(new Date()) + " - replayed [" + records + "] records of journal [" + file + "]");
+		return statuses;
+	}
+	
+	/**
+	 * rewrites the journal so that it only contains the current status of the jobs of the
+	 * JobManager and starts the writer thread. status changes may be appended from now on.
+	 * 
+	 * @param jobManager	the JobManager, whose jobs are written when the journal is compacted
+	 * @throws IOException	if the journal can not be written
+	 */
+	public void open(JobManager jobManager) throws IOException
+	{
+		this.jobManager = jobManager;
+		compact();
+		start();
+	}
+	
+	/**
+	 * writes the current status of the jobs to a temporary file, replaces the journal with
+	 * it and appends to the new file from now on. only called before the writer thread is
+	 * started or by the writer thread itself.
+	 * 
+	 * @throws IOException	if the journal can not be written
+	 */
+	private void compact() throws IOException
+	{
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		CRC32 compactChecksum = new CRC32();
+		for(Job job : jobManager.getRegistry().getJobs())
+		{
+			buffer = writeRecord(buffer, compactChecksum, job.getJobId(), job.getStatus());
+		}
+		buffer.flip();
+		long size = buffer.remaining();
+		FileChannel temporaryChannel = new RandomAccessFile(temporaryFile, "rw").getChannel();
+		try
+		{
+			temporaryChannel.truncate(0);
+			while(buffer.hasRemaining())
+			{
+				temporaryChannel.write(buffer);
+			}
+			temporaryChannel.force(true);
+		}
+		finally
+		{
+			temporaryChannel.close();
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		FileChannel compactedChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if(channel!=null)
+		{
+			channel.close();
+		}
+		channel = compactedChannel;
+		fileSize = size;
+		compactedSize = size;
+	}
+	
+	private static ByteBuffer writeRecord(ByteBuffer buffer, CRC32 checksum, String jobId, JobStatus status)
+	{
+		byte[] jobIdBytes = jobId.getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_FIXED_LENGTH + jobIdBytes.length;
+		buffer = BinaryCodec.ensureCapacity(buffer, length + 8);
+		buffer.putInt(length);
+		int start = buffer.position();
+		buffer.putLong(status.getVersion());
+		buffer.putLong(System.currentTimeMillis());
+		buffer.put((byte) status.getState().ordinal());
+		buffer.putInt(status.getExitCode());
+		buffer.putLong(status.getActualStartTime()!=null ? status.getActualStartTime().getTimeInMillis() : -1);
+		buffer.putLong(status.getFinishedTime()!=null ? status.getFinishedTime().getTimeInMillis() : -1);
+		buffer.putShort((short) jobIdBytes.length);
+		buffer.put(jobIdBytes);
+		checksum.reset();
+		checksum.update(buffer.array(), start, length);
+		buffer.putInt((int) checksum.getValue());
+		return buffer;
+	}
+	
+	/**
+	 * appends the status to the journal. the method returns right away, the record is
+	 * written to disk by the writer thread.
+	 */
+	@Override
+	public void statusChanged(Job job, JobStatus status)
+	{
+		synchronized(lock)
+		{
+			pending = writeRecord(pending, checksum, job.getJobId(), status);
+			appendedRecords++;
+			lock.notifyAll();
+		}
+	}
+	
+	/**
+	 * waits until all records appended so far are written to disk
+	 * 
+	 * @throws InterruptedException	if the thread is interrupted while waiting
+	 */
+	public void sync() throws InterruptedException
+	{
+		synchronized(lock)
+		{
+			long records = appendedRecords;
+			while(writtenRecords<records && running)
+			{
+				lock.wait();
+			}
+		}
+	}
+	
+	/**
+	 * writes the outstanding records and closes the journal
+	 * 
+	 * @throws InterruptedException	if the thread is interrupted while waiting
+	 */
+	public void close() throws InterruptedException
+	{
+		sync();
+		running = false;
+		synchronized(lock)
+		{
+			lock.notifyAll();
+		}
+		join();
+	}
+	
+	/**
+	 * returns the number of disk syncs done. together with the number of records it shows
+	 * how many records were written per sync.
+	 * 
+	 * @return	the number of syncs
+	 */
+	public long getNumberOfSyncs()
+	{
+		synchronized(lock)
+		{
+			return syncs;
+		}
+	}
+	
+	/**
+	 * returns the number of times the journal was compacted while the server was running
+	 * 
+	 * @return	the number of compactions
+	 */
+	public long getNumberOfCompactions()
+	{
+		synchronized(lock)
+		{
+			return compactions;
+		}
+	}
+	
+	public long getCompactSize()
+	{
+		return compactSize;
+	}
+	
+	/**
+	 * sets the size in bytes the journal may grow to before it is compacted. it is
+	 * compacted only once it has grown to twice its size after the last compaction as well.
+	 * 
+	 * @param compactSize	the size in bytes
+	 */
+	public void setCompactSize(long compactSize)
+	{
+		this.compactSize = compactSize;
+	}
+	
+	public long getNumberOfRecords()
+	{
+		synchronized(lock)
+		{
+			return writtenRecords;
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while(true)
+		{
+			long records;
+			synchronized(lock)
+			{
+				while(pending.position()==0 && running)
+				{
+					try
+					{
+						lock.wait();
+					}
+					catch(InterruptedException ex)
+					{
+						return;
+					}
+				}
+				if(pending.position()==0)
+				{
+					break;
+				}
+				// swap the buffers, so new records can be appended while this batch is written
+				ByteBuffer batch = pending;
+				pending = writing;
+				writing = batch;
+				records = appendedRecords;
+			}
+			boolean compacted = false;
+			try
+			{
+				writing.flip();
+				fileSize += writing.remaining();
+				while(writing.hasRemaining())
+				{
+					channel.write(writing);
+				}
+				channel.force(false);
+				if(fileSize>compactSize && fileSize>compactedSize * 2)
+				{
+					long size = fileSize;
+					compact();
+					compacted = true;
+					System.out.println(sdf.format(new Date()) + " - compacted journal [" + file + "] from [" + size + "] to [" + fileSize + "] bytes");
+				}
+			}
+			catch(IOException ex)
+			{
+				System.out.println(sdf.format(new Date()) + " - error: can not write to journal [" + file + "]: " + ex.getMessage());
+			}
+			writing.clear();
+			synchronized(lock)
+			{
+				writtenRecords = records;
+				syncs++;
+				if(compacted)
+				{
+					compactions++;
+				}
+				lock.notifyAll();
+			}
+		}
+		try
+		{
+			channel.close();
+		}
+		catch(IOException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+}
@@ -21,21 +21,35 @@ package com.datamelt.coordination;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import com.datamelt.etl.Job;
-import com.datamelt.etl.JobCollection;
+import com.datamelt.etl.JobState;
+import com.datamelt.etl.JobStatus;
+import com.datamelt.etl.JobStatusListener;
 import com.datamelt.etl.Report;
 import com.datamelt.etl.ReportCollection;
+import com.datamelt.util.CronExpression;
 import com.datamelt.util.DateTimeUtility;
 import com.datamelt.util.FileUtility;
 import com.datamelt.util.Time;
@@ -57,6 +71,10 @@ public class JobManager
 	public static final String JSON_KEY_JOB_DEPENDENT_JOB_ID		= "jobid";
 	public static final String JSON_KEY_JOB_PARAMETERS				= "parameters";
 	public static final String JSON_KEY_JOB_PARAMETER				= "parameter";
+	public static final String JSON_KEY_JOB_SCHEDULE				= "schedule";
+	public static final String JSON_KEY_JOB_MISFIRE_POLICY			= "misfire_policy";
+	public static final String JSON_KEY_JOB_PRIORITY				= "priority";
+	public static final String JSON_KEY_JOB_RESOURCES				= "resources";
 	
 	private static final String DEFAULT_DATETIME_FORMAT				= "yyyy-MM-dd HH:mm:ss";
     private static SimpleDateFormat sdf								= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
@@ -71,52 +89,598 @@ public class JobManager
 	
 	public static final String TIME_DELIMITER						= ":";
 	
-	private JobCollection jobs 										= new JobCollection();
+	// expected duration of a job if no job has a run history (milliseconds)
+	public static final long DEFAULT_EXPECTED_DURATION				= 60000;
+	
+	// the job definitions. replaced as a whole when jobs are loaded, reloaded or removed.
+	// the new registry is built outside the lock and only swapped in while holding it
+	private volatile JobRegistry registry							= JobRegistry.empty();
 	private ReportCollection reports 								= new ReportCollection();
 	private String jobFilename										= null;
 	private String folderLogfiles									= null;
 	
-	private HashMap<String,String> jsonJobs							= new HashMap<String,String>();
+	// the parsed json definitions of the jobs read from the json file, to compare them at a reload.
+	// replaced as a whole together with the registry, never changed
+	private volatile HashMap<String,JSONObject> jsonDefinitions	= new HashMap<String,JSONObject>();
+	
+	// for each job the ids of the jobs which depend on it
+	private HashMap<String,ArrayList<String>> dependentJobsIndex	= new HashMap<String,ArrayList<String>>();
+	// the jobs ordered by their scheduled start time
+	private ScheduleIndex scheduleIndex								= new ScheduleIndex();
+	// timeouts of jobs waiting for their dependent jobs to finish
+	private HashMap<String,ScheduledFuture<?>> waitTimeouts		= new HashMap<String,ScheduledFuture<?>>();
+	// the requests waiting for a job to finish with the timeout of each request, per job id
+	private HashMap<String,LinkedHashMap<JobWaiter,ScheduledFuture<?>>> jobWaiters = new HashMap<String,LinkedHashMap<JobWaiter,ScheduledFuture<?>>>();
+	
+	private ScheduledExecutorService timer							= Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "jobrunner-timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	// starts the jobs having a cron style schedule. only created if the scheduler is started
+	private CronScheduler scheduler;
+	// limits the number of processes running at the same time
+	private ExecutionPool executionPool								= new ExecutionPool(this);
+	// supervises the running processes of the jobs
+	private ProcessReaper processReaper								= new ProcessReaper();
+	// records the status changes of the jobs. only created if the journal is opened
+	private volatile JobJournal journal;
+	// sends the status changes of the jobs to the subscribed clients
+	private JobEventPublisher eventPublisher						= new JobEventPublisher();
+	// informs the journal and the subscribers about every status change of a job
+	private final JobStatusListener statusListener					= new JobStatusListener()
+	{
+		@Override
+		public void statusChanged(Job job, JobStatus status)
+		{
+			JobJournal currentJournal = journal;
+			if(currentJournal!=null)
+			{
+				currentJournal.statusChanged(job, status);
+			}
+			eventPublisher.statusChanged(job, status);
+		}
+	};
+	private RunHistory runHistory;
+	// dependency graph of the jobs, replaced whenever jobs are loaded or removed
+	// critical path length per job id. the map is replaced, never changed
+	private volatile HashMap<String,Long> criticalPathLengths		= new HashMap<String,Long>();
+	private volatile boolean criticalPathsChanged					= true;
+	// the status of the jobs loaded from a snapshot, until the state is recovered
+	private HashMap<String,JobStatus> recoveredStatuses				= new HashMap<String,JobStatus>();
 	
 	public JobManager(String filename) throws Exception
 	{
 		this.jobFilename = filename;
 		loadJobs();
 	}
+	
+	/**
+	 * loads the jobs from the snapshot if it is valid and up to date, otherwise from the
+	 * json file
+	 * 
+	 * @param filename				the json file with the job definitions
+	 * @param snapshotFilename		the snapshot file or null
+	 * @throws Exception			if the jobs can not be loaded
+	 */
+	public JobManager(String filename, String snapshotFilename) throws Exception
+	{
+		this.jobFilename = filename;
+		if(snapshotFilename==null || !loadSnapshot(snapshotFilename))
+		{
+			loadJobs();
+		}
+	}
 
-	public JobManager(ArrayList<Job> jobs, ArrayList<Report> reports)
+	public JobManager(ArrayList<Job> jobs, ArrayList<Report> reports) throws Exception
 	{
-		this.jobs = new JobCollection(jobs);
+		this.registry = new JobRegistry(JobGraph.build(jobs), new HashMap<String,String>());
 		this.reports = new ReportCollection(reports);
+		for(Job job : jobs)
+		{
+			indexDependentJobs(job);
+			indexScheduledStartTime(job);
+		}
 	}
 	
-	public void addJob(Job job)
+	/**
+	 * adds the job. a job with the same id is replaced.
+	 * 
+	 * the new graph of the jobs is built without holding the lock of the JobManager. if the
+	 * jobs were changed in the meantime, it is built again from the changed jobs.
+	 * 
+	 * @param job			the job
+	 * @throws Exception	if the job depends on an undefined job or its dependencies form a cycle
+	 */
+	public void addJob(Job job) throws Exception
 	{
-		jobs.addJob(job);
+		while(true)
+		{
+			JobRegistry currentRegistry = registry;
+			ArrayList<Job> newJobs = new ArrayList<Job>(currentRegistry.getJobs());
+			Job currentJob = currentRegistry.getJob(job.getJobId());
+			if(currentJob!=null)
+			{
+				newJobs.remove(currentJob);
+			}
+			newJobs.add(job);
+			HashMap<String,String> newJsonJobs = new HashMap<String,String>(currentRegistry.getJsonJobs());
+			newJsonJobs.remove(job.getJobId());
+			JobRegistry newRegistry = new JobRegistry(JobGraph.build(newJobs), newJsonJobs);
+			synchronized(this)
+			{
+				if(registry!=currentRegistry)
+				{
+					continue;
+				}
+				if(currentJob!=null)
+				{
+					removeFromIndexes(currentJob);
+				}
+				initializeJob(job);
+				jsonDefinitions = withoutDefinition(jsonDefinitions, job.getJobId());
+				registry = newRegistry;
+				return;
+			}
+		}
 	}
 	
-	public void addReport(Report report)
+	/**
+	 * returns a copy of the json definitions without the definition of the given job
+	 */
+	private static HashMap<String,JSONObject> withoutDefinition(HashMap<String,JSONObject> definitions, String jobId)
 	{
-		reports.addReport(report);
+		HashMap<String,JSONObject> newDefinitions = new HashMap<String,JSONObject>(definitions);
+		newDefinitions.remove(jobId);
+		return newDefinitions;
 	}
-
-	public Job getJob(String jobId)
+	
+	/**
+	 * indexes a new job and schedules it. with a journal, the job starts idle
+	 */
+	private void initializeJob(Job job)
+	{
+		indexJob(job);
+		criticalPathsChanged = true;
+		job.setStatusListener(statusListener);
+		if(journal!=null)
+		{
+			// a new job starts idle. this is recorded, so an older state of a job with the same id is not recovered
+			JobStatus status = JobStatus.idle();
+			job.restoreStatus(status);
+			journal.statusChanged(job, status);
+		}
+	}
+	
+	/**
+	 * gives the jobs back the state they had when the server stopped. the state is taken
+	 * from the snapshot the jobs were loaded from - if any - and from the journal, where the
+	 * newer status of a job wins. afterwards the journal is opened, so all further status
+	 * changes are recorded.
+	 * 
+	 * finished jobs stay finished with their exit code and times. jobs which were waiting or
+	 * queued are requested to run again.
+	 * 
+	 * the process of a job which was running may have outlived the server. if it is still
+	 * alive, it is adopted and supervised like a process started by this server. if it has
+	 * ended in the meantime, the job is set to finished with the exit code of the process.
+	 * otherwise - e.g. after a reboot of the machine - the job is set to idle.
+	 * 
+	 * @param journalFilename		the name of the journal file or null if no journal is used
+	 * @throws Exception			if the journal can not be read or written
+	 */
+	public synchronized void recoverState(String journalFilename) throws Exception
+	{
+		HashMap<String,JobStatus> statuses = recoveredStatuses;
+		JobJournal journal = null;
+		if(journalFilename!=null)
+		{
+			journal = new JobJournal(journalFilename);
+			for(Map.Entry<String,JobStatus> journalStatus : journal.replay().entrySet())
+			{
+				JobStatus status = statuses.get(journalStatus.getKey());
+				if(status==null || status.getVersion()<journalStatus.getValue().getVersion())
+				{
+					statuses.put(journalStatus.getKey(), journalStatus.getValue());
+				}
+			}
+		}
+		recoveredStatuses = new HashMap<String,JobStatus>();
+		
+		ArrayList<Job> waitingJobs = new ArrayList<Job>();
+		ArrayList<Job> runningJobs = new ArrayList<Job>();
+		ArrayList<ProcessRecord> finishedProcesses = new ArrayList<ProcessRecord>();
+		List<Job> jobs = registry.getJobs();
+		for(Job job : jobs)
+		{
+			// the process record exists until the server has processed the end of the process
+			ProcessRecord processRecord = new ProcessRecord(getLogfileFolder(), job.getJobId());
+			if(processRecord.exists())
+			{
+				if(recoverProcess(job, processRecord))
+				{
+					runningJobs.add(job);
+				}
+				else
+				{
+					finishedProcesses.add(processRecord);
+				}
+				continue;
+			}
+			JobStatus status = statuses.get(job.getJobId());
+			if(status==null)
+			{
+				continue;
+			}
+			JobState state = status.getState();
+			if(state==JobState.WAITING || state==JobState.QUEUED)
+			{
+				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] was waiting when the server stopped. run requested again");
+				waitingJobs.add(job);
+			}
+			else if(state==JobState.RUNNING)
+			{
+				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] was running when the server stopped. state set to idle");
+			}
+			else
+			{
+				job.restoreStatus(status);
+			}
+		}
+		if(journal!=null)
+		{
+			journal.open(this);
+			// from now on the status listener of the jobs records the changes
+			this.journal = journal;
+		}
+		// the recovered state is recorded now
+		for(ProcessRecord processRecord : finishedProcesses)
+		{
+			processRecord.delete();
+		}
+		for(Job job : runningJobs)
+		{
+			executionPool.adopt(job);
+			new EtlJob(job, this, folderLogfiles).adopt();
+		}
+		for(Job job : waitingJobs)
+		{
+			runJob(job);
+		}
+	}
+	
+	/**
+	 * sets the state of a job from the process it had running when the server stopped
+	 * 
+	 * @param job				the job
+	 * @param processRecord		the record of the process
+	 * @return					true if the process is still alive and has to be adopted
+	 */
+	private boolean recoverProcess(Job job, ProcessRecord processRecord)
+	{
+		long startTime = processRecord.getStartTime();
+		JobStatus running = JobStatus.running(getTime(startTime>0 ? startTime : System.currentTimeMillis()));
+		Integer exitCode = processRecord.getExitCode();
+		if(exitCode!=null)
+		{
+			job.restoreStatus(running.finished(exitCode, getTime(processRecord.getExitTime())));
+			recordRun(job);
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] finished while the server was stopped. exit code: " + exitCode);
+			return false;
+		}
+		else if(processRecord.isAlive())
+		{
+			job.restoreStatus(running);
+			return true;
+		}
+		else
+		{
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] was running when the server stopped. the process was lost, state set to idle");
+			return false;
+		}
+	}
+	
+	private static Time getTime(long timeInMillis)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(timeInMillis);
+		return new Time(calendar);
+	}
+	
+	/**
+	 * returns the folder for the log files of the processes. the current folder is used,
+	 * if no folder is defined.
+	 * 
+	 * @return	the folder for the log files
+	 */
+	private String getLogfileFolder()
+	{
+		if(folderLogfiles!=null && !folderLogfiles.trim().equals(""))
+		{
+			return folderLogfiles;
+		}
+		return Paths.get("").toAbsolutePath().toString();
+	}
+	
+	/**
+	 * loads the jobs from the snapshot, if the snapshot exists and the json file with the
+	 * job definitions has not changed since the snapshot was written.
+	 * 
+	 * @param snapshotFilename		the name of the snapshot file
+	 * @return						true if the jobs were loaded from the snapshot
+	 */
+	private boolean loadSnapshot(String snapshotFilename)
 	{
-		for(Job job : jobs.getJobs())
+		try
 		{
-			if(job.getJobId().equals(jobId))
+			StateSnapshot snapshot = StateSnapshot.read(snapshotFilename, new File(jobFilename));
+			if(snapshot==null)
+			{
+				return false;
+			}
+			JobGraph graph = JobGraph.build(snapshot.getJobs());
+			for(Job job : graph.getOrder())
 			{
-				return job;
+				initializeJob(job);
 			}
+			registry = new JobRegistry(graph, snapshot.getJsonJobs());
+			recoveredStatuses = snapshot.getStatuses();
+			System.out.println(sdf.format(new Date()) + " - loaded [" + graph.size() + "] jobs from snapshot [" + snapshotFilename + "] written at [" + sdf.format(new Date(snapshot.getCreated())) + "]");
+			return true;
+		}
+		catch(Exception ex)
+		{
+			System.out.println(sdf.format(new Date()) + " - error: can not read snapshot [" + snapshotFilename + "]: " + ex.getMessage() + ". loading jobs from [" + jobFilename + "]");
+			registry = JobRegistry.empty();
+			dependentJobsIndex.clear();
+			scheduleIndex.clear();
+			return false;
 		}
-		return null;
 	}
 	
-	public String getJobAsJson(String jobId)
+	/**
+	 * writes a snapshot of the definitions and the status of all jobs
+	 * 
+	 * @param snapshotFilename		the name of the snapshot file
+	 * @throws IOException			if the snapshot can not be written
+	 */
+	public void writeSnapshot(String snapshotFilename) throws IOException
+	{
+		JobRegistry currentRegistry = registry;
+		StateSnapshot.write(snapshotFilename, new File(jobFilename), currentRegistry.getJobs(), currentRegistry.getJsonJobs());
+	}
+	
+	/**
+	 * writes a snapshot in the given interval, in a background thread
+	 * 
+	 * @param snapshotFilename		the name of the snapshot file
+	 * @param interval				the interval in seconds
+	 */
+	public void startSnapshots(final String snapshotFilename, long interval)
+	{
+		ScheduledExecutorService snapshotTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "jobrunner-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		snapshotTimer.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					writeSnapshot(snapshotFilename);
+				}
+				catch(Exception ex)
+				{
+					System.out.println(sdf.format(new Date()) + " - error: can not write snapshot [" + snapshotFilename + "]: " + ex.getMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * opens the history of the job runs. from now on every finished run of a job is
+	 * added to the history.
+	 * 
+	 * @param filename			the name of the history file
+	 * @throws IOException		if the history can not be read or written
+	 */
+	public void openRunHistory(String filename) throws IOException
+	{
+		RunHistory history = new RunHistory(filename);
+		history.open();
+		this.runHistory = history;
+	}
+	
+	/**
+	 * returns the dependency graph of the jobs with their topological order and levels
+	 * 
+	 * @return	the graph
+	 */
+	public JobGraph getJobGraph()
+	{
+		return registry.getJobGraph();
+	}
+	
+	/**
+	 * returns the jobs the job depends on directly or indirectly which have not finished
+	 * or have finished with a bad exit code. the job can only start without waiting if
+	 * this list is empty.
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the jobs in topological order or null if the job does not exist
+	 */
+	public ArrayList<Job> getOpenUpstreamJobs(String jobId)
+	{
+		List<Job> upstreamJobs = registry.getJobGraph().getUpstreamJobs(jobId);
+		return upstreamJobs!=null ? getOpenJobs(upstreamJobs) : null;
+	}
+	
+	/**
+	 * returns the jobs which have not finished or have finished with a bad exit code
+	 * 
+	 * @param jobs		the jobs
+	 * @return			the jobs which have not finished successfully
+	 */
+	public static ArrayList<Job> getOpenJobs(List<Job> jobs)
+	{
+		ArrayList<Job> openJobs = new ArrayList<Job>();
+		for(Job job : jobs)
+		{
+			JobStatus status = job.getStatus();
+			if(!status.isFinished() || status.getExitCode()>0)
+			{
+				openJobs.add(job);
+			}
+		}
+		return openJobs;
+	}
+	
+	/**
+	 * returns the jobs which wait for the job: the jobs depending on it directly or
+	 * indirectly which have not finished. a job which has finished successfully does not
+	 * block any job.
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the jobs in topological order or null if the job does not exist
+	 */
+	public ArrayList<Job> getBlockedJobs(String jobId)
+	{
+		JobRegistry currentRegistry = registry;
+		List<Job> downstreamJobs = currentRegistry.getJobGraph().getDownstreamJobs(jobId);
+		if(downstreamJobs==null)
+		{
+			return null;
+		}
+		ArrayList<Job> blockedJobs = new ArrayList<Job>();
+		JobStatus status = currentRegistry.getJob(jobId).getStatus();
+		if(status.isFinished() && status.getExitCode()==0)
+		{
+			return blockedJobs;
+		}
+		for(Job downstreamJob : downstreamJobs)
+		{
+			if(!downstreamJob.getStatus().isFinished())
+			{
+				blockedJobs.add(downstreamJob);
+			}
+		}
+		return blockedJobs;
+	}
+	
+	public RunHistory getRunHistory()
+	{
+		return runHistory;
+	}
+	
+	private void recordRun(Job job)
+	{
+		JobStatus status = job.getStatus();
+		if(runHistory!=null && status.getState().isFinished())
+		{
+			runHistory.add(job, status);
+			// the expected duration of the job may have changed
+			criticalPathsChanged = true;
+		}
+	}
+	
+	/**
+	 * returns the critical path length of the job: its expected duration plus the longest
+	 * chain of expected durations of the jobs depending on it. the value is only kept up to
+	 * date, if the execution pool uses the critical path order.
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the critical path length in milliseconds
+	 */
+	public long getCriticalPathLength(String jobId)
 	{
-		if(jobId!=null && jsonJobs.containsKey(jobId))
+		Long criticalPathLength = criticalPathLengths.get(jobId);
+		return criticalPathLength!=null ? criticalPathLength : 0;
+	}
+	
+	/**
+	 * calculates the critical path lengths of the jobs again, if jobs or their expected
+	 * durations changed. the expected duration of a job is taken from its last runs in
+	 * the run history. jobs without runs get the average expected duration of all jobs.
+	 */
+	private void updateCriticalPaths()
+	{
+		if(!criticalPathsChanged)
+		{
+			return;
+		}
+		criticalPathsChanged = false;
+		JobGraph graph = registry.getJobGraph();
+		HashMap<String,Long> durations = new HashMap<String,Long>();
+		long totalDuration = 0;
+		if(runHistory!=null)
+		{
+			for(Job job : graph.getOrder())
+			{
+				long duration = runHistory.getExpectedDuration(job.getJobId());
+				if(duration>=0)
+				{
+					durations.put(job.getJobId(), duration);
+					totalDuration += duration;
+				}
+			}
+		}
+		long defaultDuration = durations.isEmpty() ? DEFAULT_EXPECTED_DURATION : totalDuration / durations.size();
+		criticalPathLengths = CriticalPath.calculate(graph, durations, defaultDuration);
+	}
+	
+	/**
+	 * writes the outstanding records of the journal to disk and closes it
+	 * 
+	 * @throws InterruptedException	if the thread is interrupted while waiting
+	 */
+	public void closeJournal() throws InterruptedException
+	{
+		if(journal!=null)
 		{
-			return jsonJobs.get(jobId);
+			journal.close();
+		}
+	}
+	
+	/**
+	 * starts the thread which runs the jobs having a cron style schedule
+	 * 
+	 * @param stateFilename		file to store the last fire time of the jobs in. may be null
+	 * @throws Exception		if the state file can not be read
+	 */
+	public void startScheduler(String stateFilename) throws Exception
+	{
+		scheduler = new CronScheduler(this, stateFilename);
+		for(Job job : registry.getJobs())
+		{
+			scheduler.schedule(job);
+		}
+		scheduler.start();
+	}
+	
+	/**
+	 * returns the time the job is started next by the scheduler
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the time in milliseconds or null if the job is not scheduled
+	 */
+	public Long getNextFireTime(String jobId)
+	{
+		if(scheduler!=null)
+		{
+			return scheduler.getNextFireTime(jobId);
 		}
 		else
 		{
@@ -124,15 +688,73 @@ public class JobManager
 		}
 	}
 	
-	public String[] getJobList()
+	private void indexScheduledStartTime(Job job)
+	{
+		if(job.getScheduledStartTime()!=null)
+		{
+			scheduleIndex.put(job.getJobId(), job.getScheduledStartTime().getTimeInMillis());
+		}
+		else
+		{
+			scheduleIndex.remove(job.getJobId());
+		}
+	}
+	
+	private void indexDependentJobs(Job job)
+	{
+		for(String dependentJobId : job.getDependentJobs())
+		{
+			ArrayList<String> dependentJobs = dependentJobsIndex.get(dependentJobId);
+			if(dependentJobs==null)
+			{
+				dependentJobs = new ArrayList<String>();
+				dependentJobsIndex.put(dependentJobId, dependentJobs);
+			}
+			dependentJobs.add(job.getJobId());
+		}
+	}
+	
+	private void removeDependentJobsIndex(Job job)
 	{
-		String[] list = new String[jobs.size()];
-		for(int i=0;i<jobs.size();i++)
+		for(String dependentJobId : job.getDependentJobs())
 		{
-			Job job = jobs.getJob(i);
-			list[i] = job.getJobId();
+			ArrayList<String> dependentJobs = dependentJobsIndex.get(dependentJobId);
+			if(dependentJobs!=null)
+			{
+				dependentJobs.remove(job.getJobId());
+			}
 		}
-		return list;
+	}
+	
+	public void addReport(Report report)
+	{
+		reports.addReport(report);
+	}
+
+	public Job getJob(String jobId)
+	{
+		return registry.getJob(jobId);
+	}
+	
+	public String getJobAsJson(String jobId)
+	{
+		return registry.getJson(jobId);
+	}
+	
+	public String[] getJobList()
+	{
+		return registry.getJobIds();
+	}
+	
+	/**
+	 * returns the current job definitions. the registry does not change, also not when the
+	 * jobs are reloaded while it is used.
+	 * 
+	 * @return	the registry
+	 */
+	public JobRegistry getRegistry()
+	{
+		return registry;
 	}
 
 	private boolean checkFileOk(String path, String jobName)
@@ -157,68 +779,358 @@ public class JobManager
 		
 	}
 	
-	public void removeJob(String jobId)
+	/**
+	 * removes the job. a job other jobs depend on can not be removed - they could never
+	 * start afterwards.
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the ids of the jobs depending on the job if it was not removed, otherwise null
+	 */
+	public ArrayList<String> removeJob(String jobId)
 	{
-		int counter=0;
-		if(jobId!=null)
+		while(true)
 		{
-			for(Job job : jobs.getJobs())
+			JobRegistry currentRegistry;
+			synchronized(this)
 			{
-				if(job.getJobId().equals(jobId))
+				ArrayList<String> dependentJobIds = dependentJobsIndex.get(jobId);
+				if(dependentJobIds!=null && !dependentJobIds.isEmpty())
 				{
-					jobs.removeJob(counter);;
+					return new ArrayList<String>(dependentJobIds);
 				}
-				counter++;
+				currentRegistry = registry;
+			}
+			Job job = currentRegistry.getJob(jobId);
+			if(job==null)
+			{
+				return null;
+			}
+			// the new graph is built without holding the lock
+			ArrayList<Job> newJobs = new ArrayList<Job>(currentRegistry.getJobs());
+			newJobs.remove(job);
+			JobGraph graph;
+			try
+			{
+				graph = JobGraph.build(newJobs);
+			}
+			catch(Exception ex)
+			{
+				// removing a job nothing depends on keeps the graph valid
+				throw new IllegalStateException(ex);
+			}
+			HashMap<String,String> newJsonJobs = new HashMap<String,String>(currentRegistry.getJsonJobs());
+			newJsonJobs.remove(jobId);
+			JobRegistry newRegistry = new JobRegistry(graph, newJsonJobs);
+			synchronized(this)
+			{
+				// the jobs were changed in the meantime: check the dependent jobs and build the graph again
+				if(registry!=currentRegistry)
+				{
+					continue;
+				}
+				registry = newRegistry;
+				jsonDefinitions = withoutDefinition(jsonDefinitions, jobId);
+				removeFromIndexes(job);
+				criticalPathsChanged = true;
+				if(journal!=null)
+				{
+					journal.statusChanged(job, JobStatus.idle());
+				}
+				notifyJobRemoved(jobId);
+				return null;
 			}
 		}
 	}
 
 	public Report getReport(String reportId)
 	{
-		if(reportId!=null)
+		return reports.getReport(reportId);
+	}
+	
+	public void removeReport(String reportId)
+	{
+		reports.removeReport(reportId);
+	}
+	
+	/**
+	 * loads the jobs from the json file again and applies the differences to the current
+	 * jobs. the definitions are compared by job id:
+	 * 
+	 * - jobs with an unchanged definition are kept with their state. only the variables
+	 *   in their parameters are resolved again
+	 * - new jobs are added, jobs no longer defined are removed
+	 * - changed jobs are replaced by the new definition and keep their state
+	 * 
+	 * jobs which are waiting, queued or running are not touched, so a running process is
+	 * never disturbed: they keep their current definition and are compared again at the
+	 * next reload.
+	 * 
+	 * the differences are only applied if the new definitions are valid, otherwise the
+	 * current jobs are kept.
+	 * 
+	 * the json file is read and the new graph of the jobs is built without holding the lock
+	 * of the JobManager, so status requests and finishing jobs are not blocked meanwhile.
+	 * if the jobs were changed or a changed job was started in the meantime, the jobs are
+	 * compared again.
+	 * 
+	 * @return				a summary of the changes
+	 * @throws Exception	if the json file can not be read or the dependencies of the new jobs are not valid
+	 */
+	public String reloadJobs() throws Exception
+	{
+		while(true)
 		{
-			for(Report report : reports.getReports())
+			JobRegistry currentRegistry;
+			HashMap<String,JSONObject> currentDefinitions;
+			synchronized(this)
 			{
-				if(report.getReportId().equals(reportId))
-				{
-					return report;
-				}
+				currentRegistry = registry;
+				currentDefinitions = jsonDefinitions;
+			}
+			String summary = reloadJobs(currentRegistry, currentDefinitions);
+			if(summary!=null)
+			{
+				System.out.println(sdf.format(new Date()) + " - reloaded jobs: " + summary);
+				return summary;
 			}
 		}
-		return null;
 	}
 	
-	public void removeReport(String reportId)
+	/**
+	 * compares the jobs of the json file with the given registry and builds the new graph
+	 * without holding the lock of the JobManager. the differences are only applied if the
+	 * registry is still the current one and none of the changed or removed jobs was
+	 * started in the meantime.
+	 * 
+	 * @return	a summary of the changes or null if the jobs have to be compared again
+	 */
+	private String reloadJobs(JobRegistry currentRegistry, HashMap<String,JSONObject> currentDefinitions) throws Exception
 	{
-		int counter=0;
-		if(reportId!=null)
+		HashMap<String,JSONObject> newDefinitions = new HashMap<String,JSONObject>();
+		ArrayList<Job> newJobs = readJobs(newDefinitions, currentRegistry, currentDefinitions);
+		
+		ArrayList<Job> addedJobs = new ArrayList<Job>();
+		ArrayList<Job> changedJobs = new ArrayList<Job>();
+		ArrayList<Job> removedJobs = new ArrayList<Job>();
+		ArrayList<Job> unchangedJobs = new ArrayList<Job>();
+		ArrayList<String> activeJobIds = new ArrayList<String>();
+		for(int i=0;i<newJobs.size();i++)
+		{
+			Job newJob = newJobs.get(i);
+			Job currentJob = currentRegistry.getJob(newJob.getJobId());
+			if(currentJob==newJob)
+			{
+				unchangedJobs.add(currentJob);
+			}
+			else if(currentJob==null)
+			{
+				addedJobs.add(newJob);
+			}
+			else if(isActive(currentJob))
+			{
+				newJobs.set(i, currentJob);
+				keepDefinition(currentJob.getJobId(), currentDefinitions, newDefinitions);
+				activeJobIds.add(currentJob.getJobId());
+			}
+			else
+			{
+				changedJobs.add(newJob);
+			}
+		}
+		for(Job currentJob : currentRegistry.getJobs())
+		{
+			if(!newDefinitions.containsKey(currentJob.getJobId()))
+			{
+				if(isActive(currentJob))
+				{
+					newJobs.add(currentJob);
+					keepDefinition(currentJob.getJobId(), currentDefinitions, newDefinitions);
+					activeJobIds.add(currentJob.getJobId());
+				}
+				else
+				{
+					removedJobs.add(currentJob);
+				}
+			}
+		}
+		JobGraph graph = JobGraph.build(newJobs);
+		HashMap<Job,ArrayList<String>> parameters = new HashMap<Job,ArrayList<String>>();
+		HashMap<String,Integer> resolvedValues = new HashMap<String,Integer>();
+		for(Job job : unchangedJobs)
 		{
-			for(Report report : reports.getReports())
+			if(!job.getParameterDefinitions().isEmpty() && !isActive(job))
+			{
+				parameters.put(job, resolveParameters(job.getParameterDefinitions(), resolvedValues));
+			}
+		}
+		HashMap<String,String> newJsonJobs = new HashMap<String,String>(currentRegistry.getJsonJobs());
+		for(Job job : removedJobs)
+		{
+			newJsonJobs.remove(job.getJobId());
+		}
+		for(Job job : changedJobs)
+		{
+			newJsonJobs.put(job.getJobId(), newDefinitions.get(job.getJobId()).toString());
+		}
+		for(Job job : addedJobs)
+		{
+			newJsonJobs.put(job.getJobId(), newDefinitions.get(job.getJobId()).toString());
+		}
+		JobRegistry newRegistry = new JobRegistry(graph, newJsonJobs);
+		
+		synchronized(this)
+		{
+			if(registry!=currentRegistry || containsActive(changedJobs, currentRegistry) || containsActive(removedJobs, currentRegistry))
+			{
+				return null;
+			}
+			// the new definitions are valid: apply the differences
+			for(Job job : removedJobs)
+			{
+				removeFromIndexes(job);
+				if(journal!=null)
+				{
+					journal.statusChanged(job, JobStatus.idle());
+				}
+				notifyJobRemoved(job.getJobId());
+			}
+			for(Job job : changedJobs)
+			{
+				Job currentJob = currentRegistry.getJob(job.getJobId());
+				removeFromIndexes(currentJob);
+				job.restoreStatus(currentJob.getStatus());
+				job.setStatusListener(statusListener);
+				indexJob(job);
+			}
+			for(Job job : addedJobs)
+			{
+				initializeJob(job);
+			}
+			for(Map.Entry<Job,ArrayList<String>> jobParameters : parameters.entrySet())
 			{
-				if(report.getReportId().equals(reportId))
+				// a job started in the meantime keeps the parameters it was started with
+				if(!isActive(jobParameters.getKey()))
 				{
-					reports.removeReport(counter);;
+					jobParameters.getKey().setParameters(jobParameters.getValue());
 				}
-				counter++;
 			}
+			// readers see either all or none of the changes
+			registry = newRegistry;
+			jsonDefinitions = newDefinitions;
+			criticalPathsChanged = true;
+		}
+		
+		String summary = "added [" + addedJobs.size() + "], changed [" + changedJobs.size() + "], removed [" + removedJobs.size() + "], unchanged [" + unchangedJobs.size() + "] jobs";
+		if(!activeJobIds.isEmpty())
+		{
+			summary = summary + ", active jobs not changed: " + activeJobIds.toString();
 		}
+		return summary;
 	}
 	
-	public void reloadJobs() throws Exception
+	/**
+	 * returns if one of the current jobs with the ids of the given jobs was started
+	 */
+	private static boolean containsActive(ArrayList<Job> jobs, JobRegistry currentRegistry)
 	{
-		jobs.clear();
-		loadJobs();
+		for(Job job : jobs)
+		{
+			if(isActive(currentRegistry.getJob(job.getJobId())))
+			{
+				return true;
+			}
+		}
+		return false;
 	}
 	
+	/**
+	 * keeps the current definition of the job for the next reload. the definition is null
+	 * if the job was loaded from a snapshot.
+	 */
+	private static void keepDefinition(String jobId, HashMap<String,JSONObject> currentDefinitions, HashMap<String,JSONObject> newDefinitions)
+	{
+		newDefinitions.put(jobId, currentDefinitions.get(jobId));
+	}
+	
+	/**
+	 * returns if a run of the job was requested and has not finished yet
+	 */
+	private static boolean isActive(Job job)
+	{
+		JobState state = job.getStatus().getState();
+		return state==JobState.WAITING || state==JobState.QUEUED || state==JobState.RUNNING;
+	}
+	
+	private void indexJob(Job job)
+	{
+		indexDependentJobs(job);
+		indexScheduledStartTime(job);
+		if(scheduler!=null)
+		{
+			scheduler.schedule(job);
+		}
+	}
+	
+	private void removeFromIndexes(Job job)
+	{
+		removeDependentJobsIndex(job);
+		scheduleIndex.remove(job.getJobId());
+		executionPool.remove(job);
+		cancelWaitTimeout(job);
+		if(scheduler!=null)
+		{
+			scheduler.unschedule(job.getJobId());
+		}
+	}
+	
+	/**
+	 * loads the jobs from the json file. the dependencies of the jobs are checked before
+	 * any job is added.
+	 * 
+	 * @throws Exception	if a job depends on an undefined job or the dependencies form a cycle
+	 */
 	private void loadJobs() throws Exception
 	{
+		HashMap<String,JSONObject> newDefinitions = new HashMap<String,JSONObject>();
+		ArrayList<Job> newJobs = readJobs(newDefinitions, null, null);
+		JobGraph graph = JobGraph.build(newJobs);
+		for(Job job : graph.getOrder())
+		{
+			initializeJob(job);
+		}
+		HashMap<String,String> newJsonJobs = new HashMap<String,String>();
+		for(Map.Entry<String,JSONObject> definition : newDefinitions.entrySet())
+		{
+			newJsonJobs.put(definition.getKey(), definition.getValue().toString());
+		}
+		registry = new JobRegistry(graph, newJsonJobs);
+		jsonDefinitions = newDefinitions;
+		System.out.println(sdf.format(new Date()) + " - loaded [" + graph.size() + "] jobs with [" + graph.getNumberOfLevels() + "] dependency levels, reachability index: [" + (graph.getReachabilityIndex().getMemorySize() / 1024) + "] kb");
+	}
+	
+	/**
+	 * reads the job definitions from the json file. invalid definitions are skipped.
+	 * 
+	 * when the current jobs are kept, a job whose json definition has not changed is not
+	 * created again: the current job is returned instead, without checking its file.
+	 * 
+	 * @param newDefinitions		map to put the json definition of each job in
+	 * @param currentRegistry		the registry with the current jobs or null if no jobs are kept
+	 * @param currentDefinitions	the parsed json definitions of the current jobs or null if no jobs are kept
+	 * @return						the jobs
+	 * @throws Exception			if the json file can not be read or contains invalid values
+	 */
+	private ArrayList<Job> readJobs(HashMap<String,JSONObject> newDefinitions, JobRegistry currentRegistry, HashMap<String,JSONObject> currentDefinitions) throws Exception
+	{
+		ArrayList<Job> newJobs = new ArrayList<Job>();
 		JSONParser parser = new JSONParser();
 		// capture all job ids
-		ArrayList<String> jobIds = new ArrayList<String>(); 
+		HashSet<String> jobIds = new HashSet<String>();
+		HashMap<String,Integer> resolvedValues = new HashMap<String,Integer>();
 		
-		try
+		try(FileReader reader = new FileReader(jobFilename))
 		{
-			Object object = parser.parse(new FileReader(jobFilename));
+			Object object = parser.parse(reader);
 			
 			JSONObject jsonObject = (JSONObject) object;
 			
@@ -239,11 +1151,19 @@ public class JobManager
             		idExists = jobIds.contains(jobId);
             	}
             	
+            	if(currentRegistry!=null && !idExists && isUnchanged(jobId, jsonJob, currentRegistry, currentDefinitions))
+            	{
+            		newDefinitions.put(jobId, jsonJob);
+            		jobIds.add(jobId);
+            		newJobs.add(currentRegistry.getJob(jobId));
+            		continue;
+            	}
+            	
             	boolean fileOk = checkFileOk(jobPath, jobFilename);
             	
             	if(jobId!= null && fileOk & !idExists)
             	{
-	            	jsonJobs.put(jobId,jsonJob.toString());
+	            	newDefinitions.put(jobId,jsonJob);
             		
             		jobIds.add(jobId);
             		
@@ -272,6 +1192,47 @@ public class JobManager
 	            			throw new Exception("invalid scheduled start time definition. correct format is: [HH:mm:ss]");
 	            		}
 	            	}
+	            	if(jsonJob.get(JSON_KEY_JOB_SCHEDULE)!=null)
+	            	{
+	            		CronExpression schedule = new CronExpression((String) jsonJob.get(JSON_KEY_JOB_SCHEDULE));
+	            		job.setSchedule(schedule);
+	            		if(job.getScheduledStartTime()==null)
+	            		{
+	            			// the scheduler sets the start time whenever it runs the job
+	            			Calendar nextFireTime = Calendar.getInstance();
+	            			nextFireTime.setTimeInMillis(schedule.getNextTime(System.currentTimeMillis()));
+	            			job.setScheduledStartTime(new Time(nextFireTime));
+	            		}
+	            	}
+	            	if(jsonJob.get(JSON_KEY_JOB_MISFIRE_POLICY)!=null)
+	            	{
+	            		String misfirePolicy = (String) jsonJob.get(JSON_KEY_JOB_MISFIRE_POLICY);
+	            		if(misfirePolicy.equals(CronScheduler.MISFIRE_POLICY_FIRE_ONCE) || misfirePolicy.equals(CronScheduler.MISFIRE_POLICY_IGNORE))
+	            		{
+	            			job.setMisfirePolicy(misfirePolicy);
+	            		}
+	            		else
+	            		{
+	            			throw new Exception("invalid misfire policy: [" + misfirePolicy + "]. allowed values are: [" + CronScheduler.MISFIRE_POLICY_FIRE_ONCE + "] and [" + CronScheduler.MISFIRE_POLICY_IGNORE + "]");
+	            		}
+	            	}
+	            	if(jsonJob.get(JSON_KEY_JOB_PRIORITY)!=null)
+	            	{
+	            		job.setPriority(((Long) jsonJob.get(JSON_KEY_JOB_PRIORITY)).intValue());
+	            	}
+	            	if(jsonJob.get(JSON_KEY_JOB_RESOURCES)!=null)
+	            	{
+	            		JSONObject jsonResources = (JSONObject) jsonJob.get(JSON_KEY_JOB_RESOURCES);
+	            		for(Object key: jsonResources.keySet())
+	            		{
+	            			long tokens = (long) jsonResources.get(key);
+	            			if(tokens<1)
+	            			{
+	            				throw new Exception("invalid number of tokens for resource class [" + key + "] of job [" + jobId + "]. the value must be at least 1");
+	            			}
+	            			job.addResource((String) key, (int) tokens);
+	            		}
+	            	}
 	            	if(jsonJob.get(JSON_KEY_JOB_CHECK_INTERVAL)!=null)
 	            	{
 	            		job.setCheckInterval((long) jsonJob.get(JSON_KEY_JOB_CHECK_INTERVAL));	
@@ -297,30 +1258,16 @@ public class JobManager
 	            	{
 	            		JSONObject jsonParameters = (JSONObject) jsonJob.get(JSON_KEY_JOB_PARAMETERS);
 	            		
-	            		ArrayList<String>parameters = new ArrayList<String>();
-
+	            		LinkedHashMap<String,String> parameterDefinitions = new LinkedHashMap<String,String>();
 	                	for(Object key: jsonParameters.keySet())
 	                	{
-	                		String value = (String) jsonParameters.get(key);
-	                		
-	                		// translate variables to their real value
-	                		if(VariableReplacer.isVariable(value))
-	                		{
-	                			String variableName = VariableReplacer.getVariableName(value);
-	                			int offset = VariableReplacer.getOffset(value);
-	                			int realValue = DateTimeUtility.getFieldValue(variableName,offset);
-	                		
-	                			parameters.add("-param:" + key + "=" + realValue);
-	                		}
-	                		else
-	                		{
-	                			parameters.add("-param:" + key + "=" + value);
-	                		}
+	                		parameterDefinitions.put((String) key, (String) jsonParameters.get(key));
 	                	}
 	                	
-		            	job.setParameters(parameters);
+	                	job.setParameterDefinitions(parameterDefinitions);
+		            	job.setParameters(resolveParameters(parameterDefinitions, resolvedValues));
 	            	}           	
-	        		addJob(job);
+	        		newJobs.add(job);
             	}
             	else
             	{
@@ -339,12 +1286,67 @@ public class JobManager
             	}
             }
 		}
-		catch(Exception ex)
+		return newJobs;
+	}
+	
+	/**
+	 * checks if the job exists with the same json definition. the parsed definitions are
+	 * compared, jobs loaded from a snapshot only have the json text to compare with.
+	 */
+	private static boolean isUnchanged(String jobId, JSONObject jsonJob, JobRegistry currentRegistry, HashMap<String,JSONObject> currentDefinitions)
+	{
+		if(jobId==null || !currentRegistry.containsJob(jobId))
 		{
-			ex.printStackTrace();
+			return false;
 		}
-		
-
+		JSONObject currentDefinition = currentDefinitions.get(jobId);
+		if(currentDefinition!=null)
+		{
+			return jsonJob.equals(currentDefinition);
+		}
+		return jsonJob.toString().equals(currentRegistry.getJson(jobId));
+	}
+	
+	/**
+	 * translates the parameters of a job to the arguments passed to the process. variables
+	 * in the values are replaced by their real value, calculated from the current date.
+	 * 
+	 * @param parameterDefinitions		the parameters as defined in the json file
+	 * @param resolvedValues			cache of the values of the variables resolved so far. may be null
+	 * @return							the arguments for the process
+	 * @throws Exception				if a variable is not valid
+	 */
+	public static ArrayList<String> resolveParameters(Map<String,String> parameterDefinitions, HashMap<String,Integer> resolvedValues) throws Exception
+	{
+		ArrayList<String>parameters = new ArrayList<String>(parameterDefinitions.size());
+		for(Map.Entry<String,String> parameter : parameterDefinitions.entrySet())
+		{
+			String key = parameter.getKey();
+			String value = parameter.getValue();
+			
+			// translate variables to their real value
+			if(VariableReplacer.isVariable(value))
+			{
+				// the same variables are used by many jobs, so each one is only calculated once
+				Integer realValue = resolvedValues!=null ? resolvedValues.get(value) : null;
+				if(realValue==null)
+				{
+					String variableName = VariableReplacer.getVariableName(value);
+					int offset = VariableReplacer.getOffset(value);
+					realValue = DateTimeUtility.getFieldValue(variableName,offset);
+					if(resolvedValues!=null)
+					{
+						resolvedValues.put(value, realValue);
+					}
+				}
+				parameters.add("-param:" + key + "=" + realValue);
+			}
+			else
+			{
+				parameters.add("-param:" + key + "=" + value);
+			}
+		}
+		return parameters;
 	}
 	
 	private void loadReports(Job job)
@@ -379,21 +1381,41 @@ public class JobManager
 		}
 	}
 
-	public void resetJobs()
+	/**
+	 * resets all jobs which are not running
+	 * 
+	 * @return	the number of running jobs which were not reset
+	 */
+	public int resetJobs()
 	{
-		for(Job job : jobs.getJobs())
+		int notReset = 0;
+		for(Job job : registry.getJobs())
 		{
-			resetJob(job);
+			if(!resetJob(job))
+			{
+				notReset++;
+			}
 		}
+		return notReset;
 	}
 
-	public void resetJob(Job job)
+	/**
+	 * resets the job: the run request is dropped, the job is taken out of the execution
+	 * queue and its state, times and exit code are cleared. the scheduled start time is
+	 * set to the current day. a running job can not be reset.
+	 * 
+	 * @param job		the job to reset
+	 * @return			true if the job was reset, false if it is running
+	 */
+	public synchronized boolean resetJob(Job job)
 	{
-		job.setActualStartTime(null);
+		cancelRunRequest(job);
+		executionPool.remove(job);
+		if(!job.reset())
+		{
+			return false;
+		}
 		job.setCheckIntervalCounter(0);
-		job.setRunning(false);
-		job.setFinishedTime(null);
-		job.setFinished(false);
 			
 		Calendar calendar = job.getScheduledStartTime().getCalendar();
 		int hours = calendar.get(Calendar.HOUR_OF_DAY);
@@ -401,23 +1423,27 @@ public class JobManager
 		int seconds = calendar.get(Calendar.SECOND);
 	
 		job.setScheduledStartTime(new Time(hours,minutes,seconds));	
+		indexScheduledStartTime(job);
+		return true;
 	}
 
-	public void resetJob(String jobId)
+	public boolean resetJob(String jobId)
 	{
 		Job job = getJob(jobId);
 		if(job!=null)
 		{
-			resetJob(job);
+			return resetJob(job);
 		}
+		return false;
 	}
 	
 	public int getJobStatus(String jobId)
 	{
-		Job job = getJob(jobId);
+		JobRegistry currentRegistry = registry;
+		Job job = currentRegistry.getJob(jobId);
 		if(job!=null)
 		{
-			return getJobStatus(job);
+			return getJobStatus(job, currentRegistry);
 		}
 		else
 		{
@@ -426,6 +1452,15 @@ public class JobManager
 	}
 	
 	public int getJobStatus(Job job)
+	{
+		return getJobStatus(job, registry);
+	}
+	
+	/**
+	 * returns the status of the job. the jobs it depends on are looked up in the given
+	 * registry, so all of them are taken from the same definitions.
+	 */
+	private int getJobStatus(Job job, JobRegistry currentRegistry)
 	{
 		int status = STATUS_UNDEFINED;
 		if(!getJobScheduledTimeReached(job))
@@ -439,13 +1474,14 @@ public class JobManager
 			{
 				for(int i=0;i<dependentJobs.size();i++)
 				{
-					Job dependentJob = getJob(dependentJobs.get(i));
-					if(dependentJob!=null && !dependentJob.isFinished())
+					Job dependentJob = currentRegistry.getJob(dependentJobs.get(i));
+					JobStatus dependentJobStatus = dependentJob!=null ? dependentJob.getStatus() : null;
+					if(dependentJobStatus!=null && !dependentJobStatus.isFinished())
 					{
 						status = STATUS_DEPENDENT_JOB_NOT_FINISHED;
 						break;
 					}
-					else if(dependentJob!=null && dependentJob.isFinished() && dependentJob.getExitCode()>0)
+					else if(dependentJobStatus!=null && dependentJobStatus.getExitCode()>0)
 					{
 						status = STATUS_DEPENDENT_JOB_BAD_EXIT_CODE;
 						break;
@@ -464,6 +1500,287 @@ public class JobManager
 		return status;
 	}
 
+	/**
+	 * requests to run the job. the job is started as soon as its scheduled start time is
+	 * reached and all jobs it depends on have finished. there is no polling: a job waiting
+	 * for its scheduled start time is woken up by a timer, a job waiting for its dependent
+	 * jobs is evaluated again when one of them finishes.
+	 * 
+	 * if the dependent jobs have not finished within the check interval times the maximum
+	 * number of check intervals of the job, the run request is dropped. this time counts
+	 * from the first evaluation after the scheduled start time was reached, so a run can be
+	 * requested any time before the scheduled start time.
+	 * 
+	 * a job which can start is handed to the execution pool, which limits the number of
+	 * processes running at the same time.
+	 * 
+	 * @param job	the job to run
+	 * @return		true if the run was requested, false if the job is not idle
+	 */
+	public synchronized boolean runJob(final Job job)
+	{
+		// only one of concurrent requests can change the state from IDLE to WAITING
+		if(job.requestStart())
+		{
+			job.setCheckIntervalCounter(0);
+			evaluateJob(job);
+			return true;
+		}
+		return false;
+	}
+	
+	private synchronized void evaluateJob(final Job job)
+	{
+		if(job.getState()!=JobState.WAITING)
+		{
+			return;
+		}
+		int jobStatus = getJobStatus(job);
+		if(jobStatus==STATUS_JOB_CAN_START)
+		{
+			startJob(job);
+		}
+		else if(jobStatus==STATUS_SCHEDULED_TIME_NOT_REACHED)
+		{
+			long delay = job.getScheduledStartTime().getTimeInMillis() - System.currentTimeMillis();
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] waiting for the scheduled start time [" + sdf.format(new Date(job.getScheduledStartTime().getTimeInMillis())) + "]");
+			timer.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					evaluateJob(job);
+				}
+			}, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+		}
+		else if(jobStatus==STATUS_DEPENDENT_JOB_NOT_FINISHED)
+		{
+			// the job is evaluated again when one of its dependent jobs finishes. the time to wait
+			// for them starts once, when the scheduled start time has been reached
+			if(!waitTimeouts.containsKey(job.getJobId()))
+			{
+				ScheduledFuture<?> timeout = timer.schedule(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						waitTimeout(job);
+					}
+				}, job.getCheckInterval() * job.getMaxCheckIntervals(), TimeUnit.MILLISECONDS);
+				waitTimeouts.put(job.getJobId(), timeout);
+				System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] waiting for dependent job(s) to finish. timeout: [" + (job.getCheckIntervalSeconds() * job.getMaxCheckIntervals()) + "] seconds");
+			}
+		}
+		else
+		{
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] dependent job(s) finished with bad exit code. run request dropped");
+			cancelRunRequest(job);
+		}
+	}
+	
+	private synchronized void waitTimeout(Job job)
+	{
+		if(job.getState()==JobState.WAITING)
+		{
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] dependent job(s) not finished and max check intervals is reached");
+			cancelRunRequest(job);
+		}
+	}
+	
+	private void cancelRunRequest(Job job)
+	{
+		job.cancelStartRequest();
+		cancelWaitTimeout(job);
+	}
+	
+	private void cancelWaitTimeout(Job job)
+	{
+		ScheduledFuture<?> timeout = waitTimeouts.remove(job.getJobId());
+		if(timeout!=null)
+		{
+			timeout.cancel(false);
+		}
+	}
+	
+	private void startJob(Job job)
+	{
+		cancelWaitTimeout(job);
+		if(ExecutionPool.ORDER_CRITICAL_PATH.equals(executionPool.getOrder()))
+		{
+			updateCriticalPaths();
+		}
+		// the pool starts the job right away or as soon as a process slot is free
+		executionPool.submit(job);
+	}
+	
+	/**
+	 * called when the process of a job has finished. the jobs depending on the finished
+	 * job and waiting to be run are evaluated and submitted to the execution pool if they
+	 * can start now. afterwards the process slot of the job is given to the next job in the
+	 * pool - so the dependent jobs already compete for the slot. the requests waiting for
+	 * the job are notified.
+	 * 
+	 * @param job	the job which finished
+	 */
+	public synchronized void jobFinished(Job job)
+	{
+		recordRun(job);
+		LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters = removeWaiters(job.getJobId());
+		if(waiters!=null)
+		{
+			for(JobWaiter waiter : waiters.keySet())
+			{
+				waiter.jobFinished(job);
+			}
+		}
+		ArrayList<String> dependentJobIds = dependentJobsIndex.get(job.getJobId());
+		if(dependentJobIds!=null)
+		{
+			for(String dependentJobId : dependentJobIds)
+			{
+				Job dependentJob = getJob(dependentJobId);
+				if(dependentJob!=null)
+				{
+					evaluateJob(dependentJob);
+				}
+			}
+		}
+		executionPool.processFinished(job);
+	}
+	
+	/**
+	 * waits for the job to finish without blocking a thread. the waiter is notified once:
+	 * when the job has finished - right away if it has finished already - when the timeout
+	 * is reached or when the job does not exist or is removed.
+	 * 
+	 * @param jobId				the id of the job
+	 * @param timeoutMillis		the maximum time to wait in milliseconds
+	 * @param waiter			the waiter to notify
+	 */
+	public synchronized void waitForJob(final String jobId, long timeoutMillis, final JobWaiter waiter)
+	{
+		Job job = getJob(jobId);
+		if(job==null)
+		{
+			waiter.jobRemoved(jobId);
+		}
+		else if(job.getStatus().isFinished())
+		{
+			waiter.jobFinished(job);
+		}
+		else
+		{
+			ScheduledFuture<?> timeout = timer.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					waitTimedOut(jobId, waiter);
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+			LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters = jobWaiters.get(jobId);
+			if(waiters==null)
+			{
+				waiters = new LinkedHashMap<JobWaiter,ScheduledFuture<?>>();
+				jobWaiters.put(jobId, waiters);
+			}
+			waiters.put(waiter, timeout);
+		}
+	}
+	
+	private synchronized void waitTimedOut(String jobId, JobWaiter waiter)
+	{
+		LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters = jobWaiters.get(jobId);
+		// the waiter may have been notified just before the timeout
+		if(waiters!=null && waiters.remove(waiter)!=null)
+		{
+			if(waiters.isEmpty())
+			{
+				jobWaiters.remove(jobId);
+			}
+			waiter.waitTimedOut(getJob(jobId));
+		}
+	}
+	
+	private void notifyJobRemoved(String jobId)
+	{
+		LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters = removeWaiters(jobId);
+		if(waiters!=null)
+		{
+			for(JobWaiter waiter : waiters.keySet())
+			{
+				waiter.jobRemoved(jobId);
+			}
+		}
+	}
+	
+	/**
+	 * removes the waiters of the job and cancels their timeouts
+	 */
+	private LinkedHashMap<JobWaiter,ScheduledFuture<?>> removeWaiters(String jobId)
+	{
+		LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters = jobWaiters.remove(jobId);
+		if(waiters!=null)
+		{
+			for(ScheduledFuture<?> timeout : waiters.values())
+			{
+				timeout.cancel(false);
+			}
+		}
+		return waiters;
+	}
+	
+	/**
+	 * returns the number of requests waiting for jobs to finish
+	 * 
+	 * @return	the number of waiting requests
+	 */
+	public synchronized int getNumberOfJobWaiters()
+	{
+		int numberOfWaiters = 0;
+		for(LinkedHashMap<JobWaiter,ScheduledFuture<?>> waiters : jobWaiters.values())
+		{
+			numberOfWaiters += waiters.size();
+		}
+		return numberOfWaiters;
+	}
+	
+	/**
+	 * called by the scheduler when the schedule of the job fires. the job is reset, its
+	 * scheduled start time is set to now and it is run like a jobrun message would do. if
+	 * the job is still running or waiting from the previous fire time, nothing is done.
+	 * 
+	 * @param job	the job to run
+	 */
+	public synchronized void runScheduledJob(Job job)
+	{
+		JobState state = job.getState();
+		if(state==JobState.RUNNING || state==JobState.WAITING || state==JobState.QUEUED || !resetJob(job))
+		{
+			System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] schedule fired but the job is still running or waiting. skipping this run");
+			return;
+		}
+		System.out.println(sdf.format(new Date()) + " - job [" + job.getJobId()+ "] schedule fired. activated run of job");
+		job.setScheduledStartTime(new Time(Calendar.getInstance()));
+		indexScheduledStartTime(job);
+		runJob(job);
+	}
+	
+	public JobEventPublisher getEventPublisher()
+	{
+		return eventPublisher;
+	}
+	
+	public ProcessReaper getProcessReaper()
+	{
+		return processReaper;
+	}
+	
+	public ExecutionPool getExecutionPool()
+	{
+		return executionPool;
+	}
+	
 	public String getFolderLogfiles()
 	{
 		return folderLogfiles;
@@ -476,33 +1793,40 @@ public class JobManager
 
 	public int getNumberOfJobs()
 	{
-		return jobs.size();
+		return registry.size();
 	}
 	
+	/**
+	 * returns the ids of the jobs with the next scheduled start time after now. if
+	 * multiple jobs are scheduled for the same time, all of them are returned.
+	 * 
+	 * @return	list of job ids
+	 */
 	public ArrayList<String> getNextJobs()
 	{
-		long now = System.currentTimeMillis();
-		long differenceToNow=Long.MAX_VALUE;
-		// list will hold multiple job ids if they start at the same time
-		ArrayList<String> nextJobIds = new ArrayList<String>();
-		for(Job job : jobs.getJobs())
-		{
-			long jobTime = job.getScheduledStartTime().getTimeInMillis();
-			long jobDifferenceToNow = jobTime - now;
-			// check if the difference is greater zero (in the future) and
-			// smaller than what we found before
-			if(jobDifferenceToNow > 0 &&  jobDifferenceToNow < differenceToNow )
-			{
-				differenceToNow = jobDifferenceToNow;
-				// clear current list if smaller value found
-				nextJobIds.clear();
-				nextJobIds.add(job.getJobId());
-			}
-			else if(jobDifferenceToNow == differenceToNow )
-			{
-				nextJobIds.add(job.getJobId());
-			}
-		}
-		return nextJobIds;
+		return scheduleIndex.getNext(System.currentTimeMillis());
+	}
+	
+	/**
+	 * returns the next scheduled start time after now and the ids of the jobs scheduled
+	 * for it. both are read from the index at once, so they belong together even if the
+	 * jobs are changed meanwhile.
+	 * 
+	 * @return	the time in milliseconds and the list of job ids or null if no job is scheduled after now
+	 */
+	public Map.Entry<Long,ArrayList<String>> getNextStart()
+	{
+		return scheduleIndex.getNextEntry(System.currentTimeMillis());
+	}
+	
+	/**
+	 * returns the ids of all jobs with a scheduled start time at or before now, ordered
+	 * by their scheduled start time
+	 * 
+	 * @return	list of job ids
+	 */
+	public ArrayList<String> getDueJobs()
+	{
+		return scheduleIndex.getDue(System.currentTimeMillis());
 	}
 }
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.datamelt.etl.Job;
+
+/**
+ * an immutable snapshot of the job definitions: the jobs with their dependency graph and
+ * their json definitions.
+ *
+ * the JobManager publishes the current registry in a volatile field. a change - loading,
+ * reloading or removing jobs - creates a new registry and replaces the current one at
+ * once. readers take the current registry once and work with it without locking: they
+ * never see a change half applied and the registry can not change while they iterate it.
+ *
+ * only the definitions are part of the registry. the status of a job changes all the
+ * time and is kept in the job itself.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public final class JobRegistry
+{
+	private final JobGraph jobGraph;
+	private final Map<String,String> jsonJobs;
+	private final String[] jobIds;
+
+	/**
+	 * creates the registry
+	 *
+	 * @param jobGraph		the graph of the jobs
+	 * @param jsonJobs		the json definition per job id. the map is copied
+	 */
+	public JobRegistry(JobGraph jobGraph, Map<String,String> jsonJobs)
+	{
+		this.jobGraph = jobGraph;
+		this.jsonJobs = Collections.unmodifiableMap(new HashMap<String,String>(jsonJobs));
+		List<Job> jobs = jobGraph.getOrder();
+		this.jobIds = new String[jobs.size()];
+		for(int i=0;i<jobIds.length;i++)
+		{
+			jobIds[i] = jobs.get(i).getJobId();
+		}
+	}
+
+	/**
+	 * creates a registry without jobs
+	 *
+	 * @return	the registry
+	 */
+	public static JobRegistry empty()
+	{
+		try
+		{
+			return new JobRegistry(JobGraph.build(new ArrayList<Job>()), new HashMap<String,String>());
+		}
+		catch(Exception ex)
+		{
+			// a graph without jobs is always valid
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	public Job getJob(String jobId)
+	{
+		int position = jobGraph.getPosition(jobId);
+		return position>=0 ? jobGraph.getOrder().get(position) : null;
+	}
+
+	public boolean containsJob(String jobId)
+	{
+		return jobGraph.getPosition(jobId)>=0;
+	}
+
+	/**
+	 * returns the jobs in topological order
+	 *
+	 * @return	unmodifiable list of the jobs
+	 */
+	public List<Job> getJobs()
+	{
+		return jobGraph.getOrder();
+	}
+
+	/**
+	 * returns the ids of the jobs in topological order
+	 *
+	 * @return	a copy of the ids
+	 */
+	public String[] getJobIds()
+	{
+		return jobIds.clone();
+	}
+
+	public String getJson(String jobId)
+	{
+		return jobId!=null ? jsonJobs.get(jobId) : null;
+	}
+
+	/**
+	 * returns the json definitions of the jobs
+	 *
+	 * @return	unmodifiable map of job id to json definition
+	 */
+	public Map<String,String> getJsonJobs()
+	{
+		return jsonJobs;
+	}
+
+	public JobGraph getJobGraph()
+	{
+		return jobGraph;
+	}
+
+	public int size()
+	{
+		return jobIds.length;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import com.datamelt.etl.Job;
+
+/**
+ * is notified when the job it waits for has ended, or when the wait ended without it.
+ * 
+ * exactly one of the methods is called, once. the methods are called by the thread that
+ * ended the wait - the process reaper, the timer of the JobManager or the worker handling
+ * the request - and must not block.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public interface JobWaiter
+{
+	/**
+	 * the job has finished: it succeeded or failed
+	 * 
+	 * @param job		the job
+	 */
+	void jobFinished(Job job);
+	
+	/**
+	 * the job has not finished within the timeout
+	 * 
+	 * @param job		the job
+	 */
+	void waitTimedOut(Job job);
+	
+	/**
+	 * the job does not exist or was removed while waiting for it
+	 * 
+	 * @param jobId		the id of the job
+	 */
+	void jobRemoved(String jobId);
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * converts between the bytes on a client connection and the messages processed
+ * by the server.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public interface MessageCodec
+{
+	/**
+	 * decodes the next complete message from the buffer. if the buffer does not
+	 * contain a complete message, null is returned and the position of the buffer is
+	 * left unchanged, so that the method can be called again once more data arrived.
+	 *
+	 * @param buffer		buffer in read mode containing the received bytes
+	 * @return				the decoded message or null if more data is needed
+	 * @throws IOException	if the stream contains data which can not be processed
+	 */
+	Object decode(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * encodes the given response and appends it to the buffer. if the buffer is too
+	 * small, a larger buffer containing the previous content is returned.
+	 *
+	 * @param message		the response to encode
+	 * @param buffer		buffer in write mode to append the bytes to
+	 * @return				the buffer containing the encoded message
+	 * @throws IOException	if the message can not be encoded
+	 */
+	ByteBuffer encode(Object message, ByteBuffer buffer) throws IOException;
+}
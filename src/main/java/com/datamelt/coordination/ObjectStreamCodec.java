@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * non-blocking codec for the java object serialization stream used by the
+ * CoordinationClient.
+ *
+ * clients only ever send String objects to the server, so the decoder understands
+ * the small subset of the serialization protocol needed for that: the stream header,
+ * strings, back references to previously sent strings and stream resets. the encoder
+ * uses a regular ObjectOutputStream writing into a buffer, so the responses are exactly
+ * what a blocking ObjectInputStream on the client side expects. the output stream is
+ * reset after each message, so it does not hold on to the messages already sent.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ObjectStreamCodec implements MessageCodec
+{
+	private static final int MAX_STRING_LENGTH			= 65535;
+
+	private boolean headerRead							= false;
+	private ArrayList<String> handles					= new ArrayList<String>();
+
+	private ByteArrayOutputStream outputBuffer			= new ByteArrayOutputStream(512);
+	private ObjectOutputStream outputStream;
+
+	public ObjectStreamCodec() throws IOException
+	{
+		// the constructor writes the stream header to the buffer. it is sent to the client first
+		outputStream = new ObjectOutputStream(outputBuffer);
+		outputStream.flush();
+	}
+
+	/**
+	 * returns the serialization stream header, which has to be sent to the client right
+	 * after the connection is established. the client blocks until it has received it.
+	 *
+	 * @return	the bytes of the stream header
+	 */
+	public synchronized byte[] getStreamHeader()
+	{
+		byte[] header = outputBuffer.toByteArray();
+		outputBuffer.reset();
+		return header;
+	}
+
+	@Override
+	public Object decode(ByteBuffer buffer) throws IOException
+	{
+		while(true)
+		{
+			int start = buffer.position();
+			if(!headerRead)
+			{
+				if(buffer.remaining()<4)
+				{
+					return null;
+				}
+				short magic = buffer.getShort();
+				short version = buffer.getShort();
+				if(magic!=ObjectStreamConstants.STREAM_MAGIC || version!=ObjectStreamConstants.STREAM_VERSION)
+				{
+					throw new StreamCorruptedException("invalid stream header");
+				}
+				headerRead = true;
+				continue;
+			}
+			if(!buffer.hasRemaining())
+			{
+				return null;
+			}
+			byte typeCode = buffer.get();
+			if(typeCode==ObjectStreamConstants.TC_RESET)
+			{
+				handles.clear();
+				continue;
+			}
+			else if(typeCode==ObjectStreamConstants.TC_STRING)
+			{
+				if(buffer.remaining()<2)
+				{
+					buffer.position(start);
+					return null;
+				}
+				int length = buffer.getShort() & 0xFFFF;
+				if(buffer.remaining()<length)
+				{
+					buffer.position(start);
+					return null;
+				}
+				// DataInputStream knows how to read the modified UTF-8 encoding
+				byte[] bytes = new byte[length + 2];
+				buffer.position(start + 1);
+				buffer.get(bytes);
+				String value = new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+				handles.add(value);
+				return value;
+			}
+			else if(typeCode==ObjectStreamConstants.TC_REFERENCE)
+			{
+				if(buffer.remaining()<4)
+				{
+					buffer.position(start);
+					return null;
+				}
+				int handle = buffer.getInt() - ObjectStreamConstants.baseWireHandle;
+				if(handle<0 || handle>=handles.size())
+				{
+					throw new StreamCorruptedException("invalid handle value: [" + handle + "]");
+				}
+				return handles.get(handle);
+			}
+			else if(typeCode==ObjectStreamConstants.TC_LONGSTRING)
+			{
+				throw new StreamCorruptedException("messages longer than [" + MAX_STRING_LENGTH + "] bytes are not supported");
+			}
+			else
+			{
+				throw new StreamCorruptedException("unknown object received - only Strings are processed");
+			}
+		}
+	}
+
+	@Override
+	public synchronized ByteBuffer encode(Object message, ByteBuffer buffer) throws IOException
+	{
+		if(message instanceof ClientResponse)
+		{
+			// the client matches the responses by their order
+			message = ((ClientResponse)message).getMessage();
+		}
+		outputStream.writeObject(message);
+		// the stream keeps a handle to every object written until it is reset. a connection may
+		// stay open for days and receive an event after each status change, so it is reset after
+		// every message. the client reads the reset marker along with the next object
+		outputStream.reset();
+		outputStream.flush();
+		buffer = BinaryCodec.ensureCapacity(buffer, outputBuffer.size());
+		buffer.put(outputBuffer.toByteArray());
+		outputBuffer.reset();
+		return buffer;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * single thread supervising all running job processes.
+ * 
+ * instead of blocking one thread per process in waitFor(), the processes are registered
+ * here together with a listener. the reaper checks the registered processes in a short
+ * interval and calls the listener of each process which has ended. so the number of
+ * threads of the server stays the same, no matter how many processes are running.
+ * 
+ * a job process is started through a launcher, which starts the wrapper of the job in the
+ * background and ends right away (see ProcessRecord). the jdk only keeps a thread waiting
+ * for the launcher, which is gone after a moment. the wrapper itself is not a child of the
+ * server: it is checked through its pid in /proc and the exit file it writes before it
+ * ends. processes launched by a previous server instance are registered with their
+ * ProcessRecord only and are checked the same way.
+ * 
+ * the quick check only looks if the pid exists. every few checks the command line of the
+ * process is compared as well, to notice a wrapper which was killed and whose pid was
+ * reused, or which was not reaped by its new parent.
+ * 
+ * the listeners are called on the reaper thread and should not block.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class ProcessReaper extends Thread
+{
+	public static final long DEFAULT_POLL_INTERVAL			= 100;
+	// every how many checks the command line of a process is compared
+	public static final int FULL_CHECK_INTERVAL				= 10;
+	
+	private long pollInterval								= DEFAULT_POLL_INTERVAL;
+	private ArrayList<RunningProcess> processes				= new ArrayList<RunningProcess>();
+	private volatile boolean running						= true;
+	
+	/**
+	 * listener which is called when a registered process has ended
+	 */
+	public interface ProcessListener
+	{
+		void processExited(int exitCode);
+	}
+	
+	public ProcessReaper()
+	{
+		super("jobrunner-reaper");
+		setDaemon(true);
+	}
+	
+	/**
+	 * registers a started process. the listener is called once the wrapper of the process
+	 * has ended.
+	 * 
+	 * @param launcher		the launcher process started with the wrapped command of the record
+	 * @param record		the record of the process
+	 * @param listener		the listener to call
+	 */
+	public synchronized void register(Process launcher, ProcessRecord record, ProcessListener listener)
+	{
+		add(new RunningProcess(launcher, record, listener));
+	}
+	
+	/**
+	 * registers a process which was launched by a previous instance of the server. the
+	 * listener is called once the process has ended.
+	 * 
+	 * @param record		the record of the process
+	 * @param listener		the listener to call
+	 */
+	public synchronized void register(ProcessRecord record, ProcessListener listener)
+	{
+		add(new RunningProcess(null, record, listener));
+	}
+	
+	private void add(RunningProcess runningProcess)
+	{
+		processes.add(runningProcess);
+		if(getState()==State.NEW)
+		{
+			start();
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * returns the number of processes which are registered and have not ended yet
+	 * 
+	 * @return	number of processes
+	 */
+	public synchronized int getNumberOfProcesses()
+	{
+		return processes.size();
+	}
+	
+	public long getPollInterval()
+	{
+		return pollInterval;
+	}
+	
+	public void setPollInterval(long pollInterval)
+	{
+		this.pollInterval = pollInterval;
+	}
+	
+	public void shutdown()
+	{
+		running = false;
+		interrupt();
+	}
+	
+	@Override
+	public void run()
+	{
+		ArrayList<RunningProcess> exitedProcesses = new ArrayList<RunningProcess>();
+		while(running)
+		{
+			try
+			{
+				synchronized(this)
+				{
+					while(processes.isEmpty())
+					{
+						wait();
+					}
+					Iterator<RunningProcess> iterator = processes.iterator();
+					while(iterator.hasNext())
+					{
+						RunningProcess runningProcess = iterator.next();
+						if(!runningProcess.isAlive())
+						{
+							iterator.remove();
+							exitedProcesses.add(runningProcess);
+						}
+					}
+				}
+				// call the listeners outside of the lock, they may start new processes
+				for(RunningProcess exitedProcess : exitedProcesses)
+				{
+					try
+					{
+						exitedProcess.listener.processExited(exitedProcess.exitValue());
+					}
+					catch(Exception ex)
+					{
+						ex.printStackTrace();
+					}
+				}
+				exitedProcesses.clear();
+				Thread.sleep(pollInterval);
+			}
+			catch(InterruptedException ex)
+			{
+				// shutdown was requested
+			}
+		}
+	}
+	
+	private static class RunningProcess
+	{
+		private Process launcher;
+		private ProcessRecord record;
+		private ProcessListener listener;
+		private long pid;
+		private int checks;
+		
+		private RunningProcess(Process launcher, ProcessRecord record, ProcessListener listener)
+		{
+			this.launcher = launcher;
+			this.record = record;
+			this.listener = listener;
+		}
+		
+		private boolean isAlive()
+		{
+			// the pid file is written by the launcher, right before it ends
+			if(launcher!=null)
+			{
+				if(launcher.isAlive())
+				{
+					return true;
+				}
+				launcher = null;
+			}
+			if(pid==0)
+			{
+				pid = record.getPid();
+			}
+			if(pid<=0 || record.hasExited())
+			{
+				return false;
+			}
+			checks++;
+			if(checks % FULL_CHECK_INTERVAL==0)
+			{
+				return record.isAlive();
+			}
+			return ProcessRecord.processExists(pid);
+		}
+		
+		private int exitValue()
+		{
+			// the wrapper writes the exit file right before it ends. if it was killed, the exit code is unknown
+			Integer exitCode = record.getExitCode();
+			return exitCode!=null ? exitCode : -1;
+		}
+	}
+}
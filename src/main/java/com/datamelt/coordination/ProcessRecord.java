@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * the files describing a launched job process, so that the server can find the
+ * process again after a restart.
+ *
+ * the process of a job is not started directly but through a small shell wrapper, which
+ * runs the etl script and writes the exit code of the script to the exit file before it
+ * ends. the wrapper is started in the background by a launcher, which writes the process
+ * id of the wrapper to the pid file and ends right away. so the process started by the
+ * server ends at once and the jdk does not keep a thread waiting for it; the wrapper is
+ * checked through its pid and its exit file, for the whole time it runs. the server itself
+ * writes the run file with the start time and the log file of the process.
+ *
+ * the files are removed once the server has processed the end of the process. so if
+ * the files exist when the server starts, the process was launched by a previous server
+ * instance: it is either still alive and can be adopted, or it has ended and the exit
+ * file contains its exit code.
+ *
+ * java 8 has no api to get the pid of a process or to attach to a process by its pid.
+ * so the pid is written by the wrapper and a process is checked through the /proc
+ * filesystem.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ProcessRecord
+{
+	public static final String RUN_FOLDER					= "run";
+
+	private static final String PROC_FOLDER					= "/proc/";
+	private static final String KEY_START_TIME				= "start";
+	private static final String KEY_LOGFILE					= "log";
+
+	// arguments: pid file, exit file, the command to run
+	private static final String WRAPPER_SCRIPT				= "exitfile=\"$2\"; shift 2\n"
+															+ "\"$@\"\n"
+															+ "code=$?\n"
+															+ "echo $code > \"$exitfile.tmp\" && mv \"$exitfile.tmp\" \"$exitfile\"\n"
+															+ "exit $code\n";
+	// arguments: the wrapper script, pid file, exit file, the command to run. the wrapper
+	// gets no input and writes its errors to the log as well: the pipes of the launcher
+	// are closed by the jdk once the launcher has ended
+	private static final String LAUNCHER_SCRIPT				= "wrapper=\"$1\"; pidfile=\"$2\"; shift\n"
+															+ "sh -c \"$wrapper\" \"$0\" \"$@\" < /dev/null 2>&1 &\n"
+															+ "echo $! > \"$pidfile.tmp\" && mv \"$pidfile.tmp\" \"$pidfile\"\n";
+
+	private String jobId;
+	private File runFile;
+	private File pidFile;
+	private File exitFile;
+
+	public ProcessRecord(String logfileFolder, String jobId)
+	{
+		File folder = new File(logfileFolder, RUN_FOLDER);
+		this.jobId = jobId;
+		this.runFile = new File(folder, jobId + ".run");
+		this.pidFile = new File(folder, jobId + ".pid");
+		this.exitFile = new File(folder, jobId + ".exit");
+	}
+
+	/**
+	 * returns the command which launches the wrapper running the given command. the
+	 * launched process ends as soon as the wrapper was started in the background and its
+	 * pid was written.
+	 *
+	 * @param command		the command of the etl process
+	 * @return				the wrapped command
+	 */
+	public List<String> wrap(List<String> command)
+	{
+		ArrayList<String> wrappedCommand = new ArrayList<String>();
+		wrappedCommand.add("sh");
+		wrappedCommand.add("-c");
+		wrappedCommand.add(LAUNCHER_SCRIPT);
+		wrappedCommand.add("jobrunner-" + jobId);
+		wrappedCommand.add(WRAPPER_SCRIPT);
+		wrappedCommand.add(pidFile.getAbsolutePath());
+		wrappedCommand.add(exitFile.getAbsolutePath());
+		wrappedCommand.addAll(command);
+		return wrappedCommand;
+	}
+
+	/**
+	 * removes the files of a previous run and writes the run file for a new process
+	 *
+	 * @param startTime		the start time of the process
+	 * @param logfile		the log file of the process
+	 * @throws IOException	if the files can not be written
+	 */
+	public void create(long startTime, File logfile) throws IOException
+	{
+		delete();
+		Files.createDirectories(runFile.getParentFile().toPath());
+		Properties properties = new Properties();
+		properties.setProperty(KEY_START_TIME, String.valueOf(startTime));
+		properties.setProperty(KEY_LOGFILE, logfile.getAbsolutePath());
+		File tempFile = new File(runFile.getPath() + ".tmp");
+		try(FileOutputStream out = new FileOutputStream(tempFile))
+		{
+			properties.store(out, "job " + jobId);
+			out.getFD().sync();
+		}
+		Files.move(tempFile.toPath(), runFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * returns if a process was launched for the job whose end has not been processed yet
+	 *
+	 * @return	if the run file exists
+	 */
+	public boolean exists()
+	{
+		return runFile.exists();
+	}
+
+	public void delete()
+	{
+		runFile.delete();
+		pidFile.delete();
+		exitFile.delete();
+	}
+
+	/**
+	 * returns the start time from the run file
+	 *
+	 * @return				start time in milliseconds or -1 if unknown
+	 */
+	public long getStartTime()
+	{
+		Properties properties = readRunFile();
+		try
+		{
+			return Long.parseLong(properties.getProperty(KEY_START_TIME, "-1"));
+		}
+		catch(NumberFormatException ex)
+		{
+			return -1;
+		}
+	}
+
+	public String getLogfile()
+	{
+		return readRunFile().getProperty(KEY_LOGFILE);
+	}
+
+	/**
+	 * returns the pid the wrapper has written
+	 *
+	 * @return	the pid or -1 if it is not available
+	 */
+	public long getPid()
+	{
+		Integer pid = readNumber(pidFile);
+		return pid!=null ? pid : -1;
+	}
+
+	/**
+	 * returns the exit code the wrapper has written after the etl process ended
+	 *
+	 * @return	the exit code or null if the process has not ended or was killed
+	 */
+	public Integer getExitCode()
+	{
+		return readNumber(exitFile);
+	}
+
+	public long getExitTime()
+	{
+		return exitFile.lastModified();
+	}
+
+	/**
+	 * returns if the wrapper has written the exit code, which it does right before it ends
+	 *
+	 * @return	if the exit file exists
+	 */
+	public boolean hasExited()
+	{
+		return exitFile.exists();
+	}
+
+	/**
+	 * checks if a process with the given pid exists. unlike isAlive() the command line is
+	 * not compared, so this is only a quick check for a process known to be the wrapper.
+	 *
+	 * @param pid	the pid
+	 * @return		if the process exists
+	 */
+	public static boolean processExists(long pid)
+	{
+		return pid>0 && new File(PROC_FOLDER + pid).exists();
+	}
+
+	/**
+	 * checks if the wrapper process of the job is alive. the command line of the process
+	 * is compared as well, in case the pid was reused by another process in the meantime.
+	 *
+	 * @return		if the process is alive
+	 */
+	public boolean isAlive()
+	{
+		long pid = getPid();
+		if(pid<=0)
+		{
+			return false;
+		}
+		try
+		{
+			byte[] commandLine = Files.readAllBytes(new File(PROC_FOLDER + pid + "/cmdline").toPath());
+			return new String(commandLine, StandardCharsets.UTF_8).contains(pidFile.getAbsolutePath());
+		}
+		catch(IOException ex)
+		{
+			// the process does not exist anymore
+			return false;
+		}
+	}
+
+	private Properties readRunFile()
+	{
+		Properties properties = new Properties();
+		try(FileInputStream in = new FileInputStream(runFile))
+		{
+			properties.load(in);
+		}
+		catch(IOException ex)
+		{
+			// not available
+		}
+		return properties;
+	}
+
+	private static Integer readNumber(File file)
+	{
+		try
+		{
+			String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+			return Integer.valueOf(value);
+		}
+		catch(IOException | NumberFormatException ex)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.Arrays;
+
+/**
+ * the transitive closure of the job dependencies: for every job the set of all jobs it
+ * depends on directly or indirectly (upstream) and the set of all jobs depending on it
+ * directly or indirectly (downstream).
+ *
+ * the jobs are identified by their position in the topological order of the JobGraph.
+ * because every job comes after the jobs it depends on, the upstream set of a job is the
+ * union of the jobs it depends on and their upstream sets, which are all complete when
+ * the job is processed. the downstream sets are calculated the same way in reverse order.
+ *
+ * each set is stored compressed, in the smaller one of two forms: as a bitmap covering
+ * only the range from the first to the last position of the set, or as a list of runs of
+ * consecutive positions. a long chain of jobs needs one run per job instead of a bitmap
+ * growing with the length of the chain.
+ *
+ * the index is not changed after it was built.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ReachabilityIndex
+{
+	private PositionSet[] upstream;
+	private PositionSet[] downstream;
+
+	/**
+	 * builds the index from the direct dependencies. the positions of the jobs a job at
+	 * position i depends on are stored in upstreamPositions from upstreamStart[i] to
+	 * upstreamStart[i + 1], the same for downstream.
+	 *
+	 * @param upstreamStart				start offset of the direct upstream jobs of each position
+	 * @param upstreamPositions			the positions of the direct upstream jobs
+	 * @param downstreamStart			start offset of the direct downstream jobs of each position
+	 * @param downstreamPositions		the positions of the direct downstream jobs
+	 */
+	public ReachabilityIndex(int[] upstreamStart, int[] upstreamPositions, int[] downstreamStart, int[] downstreamPositions)
+	{
+		int size = upstreamStart.length - 1;
+		long[] scratch = new long[(size + 63) >>> 6];
+		upstream = new PositionSet[size];
+		for(int i=0;i<size;i++)
+		{
+			upstream[i] = closure(i, upstreamStart, upstreamPositions, upstream, scratch);
+		}
+		downstream = new PositionSet[size];
+		for(int i=size - 1;i>=0;i--)
+		{
+			downstream[i] = closure(i, downstreamStart, downstreamPositions, downstream, scratch);
+		}
+	}
+
+	/**
+	 * collects the direct neighbours of the position and their sets in the scratch bitmap
+	 * and returns them as a compressed set. the scratch bitmap is empty again afterwards.
+	 */
+	private static PositionSet closure(int position, int[] start, int[] positions, PositionSet[] sets, long[] scratch)
+	{
+		if(start[position]==start[position + 1])
+		{
+			return PositionSet.EMPTY;
+		}
+		int first = Integer.MAX_VALUE;
+		int last = -1;
+		for(int k=start[position];k<start[position + 1];k++)
+		{
+			int neighbour = positions[k];
+			scratch[neighbour >>> 6] |= 1L << neighbour;
+			first = Math.min(first, neighbour);
+			last = Math.max(last, neighbour);
+			PositionSet set = sets[neighbour];
+			if(set.size()>0)
+			{
+				set.addTo(scratch);
+				first = Math.min(first, set.first());
+				last = Math.max(last, set.last());
+			}
+		}
+		return PositionSet.take(scratch, first >>> 6, last >>> 6);
+	}
+
+	/**
+	 * returns the positions of all jobs the job depends on directly or indirectly
+	 *
+	 * @param position	the position of the job in the topological order
+	 * @return			the positions in ascending order
+	 */
+	public int[] getUpstream(int position)
+	{
+		return upstream[position].toArray();
+	}
+
+	/**
+	 * returns the positions of all jobs depending on the job directly or indirectly
+	 *
+	 * @param position	the position of the job in the topological order
+	 * @return			the positions in ascending order
+	 */
+	public int[] getDownstream(int position)
+	{
+		return downstream[position].toArray();
+	}
+
+	/**
+	 * checks if the job depends directly or indirectly on the other job
+	 *
+	 * @param position			the position of the job
+	 * @param otherPosition		the position of the other job
+	 * @return					if the other job is upstream of the job
+	 */
+	public boolean isUpstream(int position, int otherPosition)
+	{
+		return upstream[position].contains(otherPosition);
+	}
+
+	public int getNumberOfUpstream(int position)
+	{
+		return upstream[position].size();
+	}
+
+	public int getNumberOfDownstream(int position)
+	{
+		return downstream[position].size();
+	}
+
+	/**
+	 * returns the approximate memory used by the sets
+	 *
+	 * @return	the size in bytes
+	 */
+	public long getMemorySize()
+	{
+		long memorySize = 0;
+		for(int i=0;i<upstream.length;i++)
+		{
+			memorySize += upstream[i].getMemorySize() + downstream[i].getMemorySize();
+		}
+		return memorySize;
+	}
+
+	/**
+	 * an immutable set of positions, stored either as a bitmap or as runs
+	 */
+	private static final class PositionSet
+	{
+		private static final PositionSet EMPTY				= new PositionSet(0, 0, null, null);
+
+		private final int size;
+		// bitmap: the words from the first to the last word containing a position
+		private final int firstWord;
+		private final long[] words;
+		// runs: the first and the last plus one position of each run
+		private final int[] runs;
+
+		private PositionSet(int size, int firstWord, long[] words, int[] runs)
+		{
+			this.size = size;
+			this.firstWord = firstWord;
+			this.words = words;
+			this.runs = runs;
+		}
+
+		/**
+		 * creates the set from the given words of the scratch bitmap and clears them
+		 */
+		private static PositionSet take(long[] scratch, int firstWord, int lastWord)
+		{
+			int size = 0;
+			int numberOfRuns = 0;
+			long previous = 0;
+			for(int i=firstWord;i<=lastWord;i++)
+			{
+				long word = scratch[i];
+				size += Long.bitCount(word);
+				// a run starts at each position whose lower neighbour is not set
+				numberOfRuns += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+				previous = word;
+			}
+			PositionSet set;
+			if(numberOfRuns<=lastWord - firstWord + 1)
+			{
+				int[] runs = new int[numberOfRuns * 2];
+				int position = firstWord << 6;
+				for(int r=0;r<runs.length;r+=2)
+				{
+					runs[r] = nextPosition(scratch, position, lastWord, true);
+					position = nextPosition(scratch, runs[r], lastWord, false);
+					runs[r + 1] = position;
+				}
+				set = new PositionSet(size, 0, null, runs);
+			}
+			else
+			{
+				set = new PositionSet(size, firstWord, Arrays.copyOfRange(scratch, firstWord, lastWord + 1), null);
+			}
+			Arrays.fill(scratch, firstWord, lastWord + 1, 0);
+			return set;
+		}
+
+		/**
+		 * returns the next position from the given one which is set - or not set - in the
+		 * scratch bitmap. the end of the last word is returned if no position is found.
+		 */
+		private static int nextPosition(long[] scratch, int from, int lastWord, boolean set)
+		{
+			int i = from >>> 6;
+			long word = (set ? scratch[i] : ~scratch[i]) & (-1L << from);
+			while(word==0)
+			{
+				if(++i>lastWord)
+				{
+					return (lastWord + 1) << 6;
+				}
+				word = set ? scratch[i] : ~scratch[i];
+			}
+			return (i << 6) + Long.numberOfTrailingZeros(word);
+		}
+
+		private int size()
+		{
+			return size;
+		}
+
+		private boolean contains(int position)
+		{
+			if(words!=null)
+			{
+				int i = (position >>> 6) - firstWord;
+				return i>=0 && i<words.length && (words[i] & (1L << position))!=0;
+			}
+			else if(runs!=null)
+			{
+				// the last run starting at or before the position
+				int low = 0;
+				int high = runs.length / 2 - 1;
+				while(low<=high)
+				{
+					int middle = (low + high) >>> 1;
+					if(runs[middle * 2]<=position)
+					{
+						low = middle + 1;
+					}
+					else
+					{
+						high = middle - 1;
+					}
+				}
+				return high>=0 && position<runs[high * 2 + 1];
+			}
+			return false;
+		}
+
+		private int first()
+		{
+			if(words!=null)
+			{
+				return (firstWord << 6) + Long.numberOfTrailingZeros(words[0]);
+			}
+			return runs[0];
+		}
+
+		private int last()
+		{
+			if(words!=null)
+			{
+				return ((firstWord + words.length) << 6) - 1 - Long.numberOfLeadingZeros(words[words.length - 1]);
+			}
+			return runs[runs.length - 1] - 1;
+		}
+
+		/**
+		 * sets the positions of this set in the scratch bitmap
+		 */
+		private void addTo(long[] scratch)
+		{
+			if(words!=null)
+			{
+				for(int i=0;i<words.length;i++)
+				{
+					scratch[firstWord + i] |= words[i];
+				}
+			}
+			else
+			{
+				for(int r=0;r<runs.length;r+=2)
+				{
+					int startWord = runs[r] >>> 6;
+					int endWord = (runs[r + 1] - 1) >>> 6;
+					long firstMask = -1L << runs[r];
+					long lastMask = -1L >>> -runs[r + 1];
+					if(startWord==endWord)
+					{
+						scratch[startWord] |= firstMask & lastMask;
+					}
+					else
+					{
+						scratch[startWord] |= firstMask;
+						for(int i=startWord + 1;i<endWord;i++)
+						{
+							scratch[i] = -1L;
+						}
+						scratch[endWord] |= lastMask;
+					}
+				}
+			}
+		}
+
+		private int[] toArray()
+		{
+			int[] positions = new int[size];
+			int n = 0;
+			if(words!=null)
+			{
+				for(int i=0;i<words.length;i++)
+				{
+					long word = words[i];
+					while(word!=0)
+					{
+						positions[n++] = ((firstWord + i) << 6) + Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			}
+			else if(runs!=null)
+			{
+				for(int r=0;r<runs.length;r+=2)
+				{
+					for(int position=runs[r];position<runs[r + 1];position++)
+					{
+						positions[n++] = position;
+					}
+				}
+			}
+			return positions;
+		}
+
+		private long getMemorySize()
+		{
+			// object and array headers
+			long memorySize = 32;
+			if(words!=null)
+			{
+				memorySize += 16 + words.length * 8L;
+			}
+			else if(runs!=null)
+			{
+				memorySize += 16 + runs.length * 4L;
+			}
+			return memorySize;
+		}
+	}
+}
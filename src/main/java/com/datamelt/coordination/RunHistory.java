@@ -0,0 +1,396 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import com.datamelt.etl.Job;
+import com.datamelt.etl.JobStatus;
+
+/**
+ * append-only store of all finished runs of the jobs.
+ *
+ * for every run a record with the start and finish time, the exit code, the host and the
+ * parameters of the job is appended to the history file. the positions of the records
+ * are kept in an index per job, which is built when the file is opened. so the runtime
+ * statistics of a job only read the records of that job. the index also keeps the
+ * durations of the last runs of each job, from which the expected duration of the next
+ * run is taken.
+ *
+ * each record has the layout: length (int), start time (long), finish time (long), exit
+ * code (int), length of the job id (short), job id, length of the host (short), host,
+ * length of the parameters (int), parameters (all utf-8) followed by a crc32 checksum
+ * (int) of all bytes after the length. an incomplete record at the end of the file - it
+ * was being written when the server stopped - is removed when the file is opened.
+ *
+ * the records are not forced to disk. the history is used for statistics, where losing
+ * the last runs on a crash of the machine does not matter.
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class RunHistory
+{
+	public static final int DEFAULT_NUMBER_OF_RUNS			= 100;
+	// number of runs the expected duration of a job is taken from
+	public static final int EXPECTED_DURATION_RUNS			= 10;
+
+	private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
+	private static SimpleDateFormat sdf						= new SimpleDateFormat(DEFAULT_DATETIME_FORMAT);
+
+	// start time, finish time and exit code
+	private static final int RUN_LENGTH						= 8 + 8 + 4;
+	// the fixed fields plus the lengths of job id, host and parameters
+	private static final int RECORD_MIN_LENGTH				= RUN_LENGTH + 2 + 2 + 4;
+	private static final int READ_BUFFER_SIZE				= 64 * 1024;
+
+	private File file;
+	private FileChannel channel;
+	private long size;
+	private String host;
+	private HashMap<String,RecordIndex> index				= new HashMap<String,RecordIndex>();
+	private CRC32 checksum									= new CRC32();
+	private ByteBuffer buffer								= ByteBuffer.allocate(1024);
+	private ByteBuffer runBuffer							= ByteBuffer.allocate(RUN_LENGTH);
+
+	public RunHistory(String filename)
+	{
+		this.file = new File(filename);
+		try
+		{
+			this.host = InetAddress.getLocalHost().getHostName();
+		}
+		catch(IOException ex)
+		{
+			this.host = "unknown";
+		}
+	}
+
+	/**
+	 * opens the history file and builds the index of the records per job
+	 *
+	 * @throws IOException	if the file can not be read or written
+	 */
+	public synchronized void open() throws IOException
+	{
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		CRC32 readChecksum = new CRC32();
+		long position = 0;
+		long records = 0;
+		long fileSize = channel.size();
+		while(position<fileSize)
+		{
+			readBuffer.clear();
+			readBuffer.limit((int) Math.min(readBuffer.capacity(), fileSize - position));
+			channel.read(readBuffer, position);
+			readBuffer.flip();
+			while(readBuffer.remaining()>=4)
+			{
+				int start = readBuffer.position();
+				int length = readBuffer.getInt(start);
+				if(length<RECORD_MIN_LENGTH || position + start + length + 8>fileSize)
+				{
+					// incomplete record
+					fileSize = position + start;
+					break;
+				}
+				if(readBuffer.remaining()<length + 8)
+				{
+					// the record continues after the bytes read so far
+					if(length + 8>readBuffer.capacity())
+					{
+						readBuffer = ByteBuffer.allocate(length + 8);
+					}
+					break;
+				}
+				readChecksum.reset();
+				readChecksum.update(readBuffer.array(), start + 4, length);
+				int jobIdLength = readBuffer.getShort(start + 4 + RUN_LENGTH) & 0xFFFF;
+				if(jobIdLength>length - RECORD_MIN_LENGTH || readBuffer.getInt(start + 4 + length)!=(int) readChecksum.getValue())
+				{
+					fileSize = position + start;
+					break;
+				}
+				String jobId = new String(readBuffer.array(), start + 4 + RUN_LENGTH + 2, jobIdLength, StandardCharsets.UTF_8);
+				addToIndex(jobId, position + start, readBuffer.getLong(start + 12) - readBuffer.getLong(start + 4));
+				readBuffer.position(start + 4 + length + 4);
+				records++;
+			}
+			position += readBuffer.position();
+		}
+		if(position<channel.size())
+		{
+			System.out.println(sdf.format(new Date()) + " - run history [" + file + "] has an incomplete record at position [" + position + "]. removing the rest of the file");
+			channel.truncate(position);
+		}
+		size = position;
+		System.out.println(sdf.format(new Date()) + " - read [" + records + "] runs of [" + index.size() + "] jobs from run history [" + file + "]");
+	}
+
+	/**
+	 * appends the finished run of the job to the history
+	 *
+	 * @param job			the job
+	 * @param status		the status of the finished job
+	 */
+	public synchronized void add(Job job, JobStatus status)
+	{
+		if(channel==null || status.getActualStartTime()==null || status.getFinishedTime()==null)
+		{
+			return;
+		}
+		byte[] jobIdBytes = job.getJobId().getBytes(StandardCharsets.UTF_8);
+		byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+		byte[] parameterBytes = String.join(" ", job.getParameters()).getBytes(StandardCharsets.UTF_8);
+		int length = RECORD_MIN_LENGTH + jobIdBytes.length + hostBytes.length + parameterBytes.length;
+		buffer.clear();
+		buffer = BinaryCodec.ensureCapacity(buffer, length + 8);
+		buffer.putInt(length);
+		buffer.putLong(status.getActualStartTime().getTimeInMillis());
+		buffer.putLong(status.getFinishedTime().getTimeInMillis());
+		buffer.putInt(status.getExitCode());
+		buffer.putShort((short) jobIdBytes.length);
+		buffer.put(jobIdBytes);
+		buffer.putShort((short) hostBytes.length);
+		buffer.put(hostBytes);
+		buffer.putInt(parameterBytes.length);
+		buffer.put(parameterBytes);
+		checksum.reset();
+		checksum.update(buffer.array(), 4, length);
+		buffer.putInt((int) checksum.getValue());
+		buffer.flip();
+		try
+		{
+			long position = size;
+			while(buffer.hasRemaining())
+			{
+				channel.write(buffer, position + buffer.position());
+			}
+			size += buffer.limit();
+			addToIndex(job.getJobId(), position, status.getFinishedTime().getTimeInMillis() - status.getActualStartTime().getTimeInMillis());
+		}
+		catch(IOException ex)
+		{
+			System.out.println(sdf.format(new Date()) + " - error: can not write to run history [" + file + "]: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * returns the statistics of the last runs of the job
+	 *
+	 * @param jobId			the id of the job
+	 * @param numberOfRuns	the maximum number of runs to use
+	 * @return				the statistics or null if the job has no runs
+	 * @throws IOException	if the history can not be read
+	 */
+	public synchronized Statistics getStatistics(String jobId, int numberOfRuns) throws IOException
+	{
+		RecordIndex recordIndex = index.get(jobId);
+		if(recordIndex==null || numberOfRuns<1)
+		{
+			return null;
+		}
+		int runs = Math.min(numberOfRuns, recordIndex.size);
+		long[] durations = new long[runs];
+		int failures = 0;
+		for(int i=0;i<runs;i++)
+		{
+			runBuffer.clear();
+			long position = recordIndex.positions[recordIndex.size - runs + i] + 4;
+			while(runBuffer.hasRemaining())
+			{
+				if(channel.read(runBuffer, position + runBuffer.position())<0)
+				{
+					throw new IOException("unexpected end of run history [" + file + "]");
+				}
+			}
+			durations[i] = runBuffer.getLong(8) - runBuffer.getLong(0);
+			if(runBuffer.getInt(16)!=0)
+			{
+				failures++;
+			}
+		}
+		return new Statistics(runs, failures, durations);
+	}
+
+	/**
+	 * returns the number of runs in the history of the job
+	 *
+	 * @param jobId		the id of the job
+	 * @return			the number of runs
+	 */
+	public synchronized int getNumberOfRuns(String jobId)
+	{
+		RecordIndex recordIndex = index.get(jobId);
+		return recordIndex!=null ? recordIndex.size : 0;
+	}
+
+	/**
+	 * returns the expected duration of the next run of the job: the median duration of
+	 * its last runs
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the duration in milliseconds or -1 if the job has no runs
+	 */
+	public synchronized long getExpectedDuration(String jobId)
+	{
+		RecordIndex recordIndex = index.get(jobId);
+		if(recordIndex==null)
+		{
+			return -1;
+		}
+		int runs = Math.min(recordIndex.size, EXPECTED_DURATION_RUNS);
+		long[] durations = Arrays.copyOf(recordIndex.lastDurations, runs);
+		Arrays.sort(durations);
+		return durations[runs / 2];
+	}
+	
+	public synchronized void close() throws IOException
+	{
+		if(channel!=null)
+		{
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private void addToIndex(String jobId, long position, long duration)
+	{
+		RecordIndex recordIndex = index.get(jobId);
+		if(recordIndex==null)
+		{
+			recordIndex = new RecordIndex();
+			index.put(jobId, recordIndex);
+		}
+		recordIndex.add(position, duration);
+	}
+
+	/**
+	 * positions of the records of one job in the file, oldest first, and the durations of
+	 * the last runs
+	 */
+	private static class RecordIndex
+	{
+		private long[] positions								= new long[8];
+		private int size										= 0;
+		private long[] lastDurations							= new long[EXPECTED_DURATION_RUNS];
+
+		private void add(long position, long duration)
+		{
+			if(size==positions.length)
+			{
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			lastDurations[size % EXPECTED_DURATION_RUNS] = duration;
+			positions[size++] = position;
+		}
+	}
+
+	/**
+	 * runtime statistics over a number of runs of a job
+	 */
+	public static class Statistics
+	{
+		private int runs;
+		private int failures;
+		private long[] durations;
+		private long[] sortedDurations;
+
+		private Statistics(int runs, int failures, long[] durations)
+		{
+			this.runs = runs;
+			this.failures = failures;
+			this.durations = durations;
+			this.sortedDurations = durations.clone();
+			Arrays.sort(sortedDurations);
+		}
+
+		public int getRuns()
+		{
+			return runs;
+		}
+
+		public int getFailures()
+		{
+			return failures;
+		}
+
+		/**
+		 * returns the failure rate - runs with an exit code other than 0
+		 *
+		 * @return	failure rate in percent
+		 */
+		public double getFailureRate()
+		{
+			return failures * 100.0 / runs;
+		}
+
+		/**
+		 * returns the duration below or at which the given percentage of the runs finished
+		 * (nearest rank)
+		 *
+		 * @param percentile	the percentile between 1 and 100
+		 * @return				the duration in milliseconds
+		 */
+		public long getPercentile(int percentile)
+		{
+			int rank = (int) Math.ceil(percentile / 100.0 * runs);
+			return sortedDurations[Math.max(rank, 1) - 1];
+		}
+
+		/**
+		 * compares the average duration of the newer half of the runs with the average
+		 * duration of the older half. a positive value means the job got slower.
+		 *
+		 * @return	the change in percent or NaN if there are less than 4 runs
+		 */
+		public double getTrend()
+		{
+			if(runs<4)
+			{
+				return Double.NaN;
+			}
+			int half = runs / 2;
+			double older = 0;
+			double newer = 0;
+			for(int i=0;i<half;i++)
+			{
+				older += durations[i];
+				newer += durations[runs - half + i];
+			}
+			if(older==0)
+			{
+				return Double.NaN;
+			}
+			return (newer - older) * 100.0 / older;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * keeps the ids of jobs ordered by a point in time, e.g. their scheduled start time.
+ * 
+ * finding the next jobs after a given time and all jobs due at a given time takes
+ * logarithmic time, adding, updating and removing a job as well. jobs with the same
+ * time are kept in the order they were added.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class ScheduleIndex
+{
+	private TreeMap<Long,LinkedHashSet<String>> index		= new TreeMap<Long,LinkedHashSet<String>>();
+	private HashMap<String,Long> times						= new HashMap<String,Long>();
+	
+	/**
+	 * adds the job to the index or moves it to the new time if it is already indexed
+	 * 
+	 * @param jobId		the id of the job
+	 * @param time		the time in milliseconds
+	 */
+	public synchronized void put(String jobId, long time)
+	{
+		remove(jobId);
+		LinkedHashSet<String> jobIds = index.get(time);
+		if(jobIds==null)
+		{
+			jobIds = new LinkedHashSet<String>();
+			index.put(time, jobIds);
+		}
+		jobIds.add(jobId);
+		times.put(jobId, time);
+	}
+	
+	public synchronized void remove(String jobId)
+	{
+		Long time = times.remove(jobId);
+		if(time!=null)
+		{
+			LinkedHashSet<String> jobIds = index.get(time);
+			jobIds.remove(jobId);
+			if(jobIds.isEmpty())
+			{
+				index.remove(time);
+			}
+		}
+	}
+	
+	/**
+	 * returns the time of the job
+	 * 
+	 * @param jobId		the id of the job
+	 * @return			the time in milliseconds or null if the job is not indexed
+	 */
+	public synchronized Long getTime(String jobId)
+	{
+		return times.get(jobId);
+	}
+	
+	/**
+	 * returns the ids of the jobs with the earliest time after the given time. if
+	 * multiple jobs have the same time, all of them are returned.
+	 * 
+	 * @param time		the time in milliseconds
+	 * @return			list of job ids - empty if there is no job after the given time
+	 */
+	public synchronized ArrayList<String> getNext(long time)
+	{
+		Map.Entry<Long,LinkedHashSet<String>> entry = index.higherEntry(time);
+		if(entry!=null)
+		{
+			return new ArrayList<String>(entry.getValue());
+		}
+		else
+		{
+			return new ArrayList<String>();
+		}
+	}
+	
+	/**
+	 * returns the earliest time after the given time together with the ids of the jobs
+	 * having this time
+	 * 
+	 * @param time		the time in milliseconds
+	 * @return			the next time and the list of job ids or null if there is no job after the given time
+	 */
+	public synchronized Map.Entry<Long,ArrayList<String>> getNextEntry(long time)
+	{
+		Map.Entry<Long,LinkedHashSet<String>> entry = index.higherEntry(time);
+		if(entry!=null)
+		{
+			return new AbstractMap.SimpleImmutableEntry<Long,ArrayList<String>>(entry.getKey(), new ArrayList<String>(entry.getValue()));
+		}
+		else
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * returns the earliest time after the given time
+	 * 
+	 * @param time		the time in milliseconds
+	 * @return			the next time or null if there is none
+	 */
+	public synchronized Long getNextTime(long time)
+	{
+		return index.higherKey(time);
+	}
+	
+	/**
+	 * returns the ids of all jobs with a time at or before the given time, ordered by time
+	 * 
+	 * @param time		the time in milliseconds
+	 * @return			list of job ids
+	 */
+	public synchronized ArrayList<String> getDue(long time)
+	{
+		ArrayList<String> jobIds = new ArrayList<String>();
+		for(LinkedHashSet<String> entry : index.headMap(time, true).values())
+		{
+			jobIds.addAll(entry);
+		}
+		return jobIds;
+	}
+	
+	public synchronized int size()
+	{
+		return times.size();
+	}
+	
+	public synchronized void clear()
+	{
+		index.clear();
+		times.clear();
+	}
+}
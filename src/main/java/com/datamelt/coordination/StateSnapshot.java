@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.datamelt.etl.Job;
+import com.datamelt.etl.JobState;
+import com.datamelt.etl.JobStatus;
+import com.datamelt.util.CronExpression;
+import com.datamelt.util.Time;
+
+/**
+ * compact binary snapshot of the complete state of the JobManager: the definitions of all
+ * jobs and their status.
+ * 
+ * when the server starts, the jobs are read from the snapshot instead of the json file,
+ * as long as the json file has not changed since the snapshot was written. reading the
+ * snapshot is a single pass over a memory mapped file - no json parsing and no checks of
+ * the job files.
+ * 
+ * the snapshot is written to a temporary file first, which then replaces the snapshot. so
+ * a snapshot is either complete or not there. the file starts with a magic value and a
+ * format version and ends with a crc32 checksum of all the bytes before. a snapshot with
+ * an unknown version or a wrong checksum is ignored.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class StateSnapshot
+{
+	public static final int MAGIC							= 0x4A525331;
+	public static final int FORMAT_VERSION					= 1;
+	
+	private static final JobState[] STATES					= JobState.values();
+	
+	private ArrayList<Job> jobs;
+	private HashMap<String,JobStatus> statuses;
+	private HashMap<String,String> jsonJobs;
+	private long created;
+	
+	private StateSnapshot(ArrayList<Job> jobs, HashMap<String,JobStatus> statuses, HashMap<String,String> jsonJobs, long created)
+	{
+		this.jobs = jobs;
+		this.statuses = statuses;
+		this.jsonJobs = jsonJobs;
+		this.created = created;
+	}
+	
+	/**
+	 * writes the snapshot of the given jobs
+	 * 
+	 * @param filename		the name of the snapshot file
+	 * @param jobsFile		the json file the jobs were loaded from
+	 * @param jobs			the jobs
+	 * @param jsonJobs		the json definition of the jobs by job id
+	 * @throws IOException	if the snapshot can not be written
+	 */
+	public static void write(String filename, File jobsFile, Collection<Job> jobs, Map<String,String> jsonJobs) throws IOException
+	{
+		File file = new File(filename);
+		File temporaryFile = new File(filename + ".tmp");
+		FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+		CheckedOutputStream checkedStream = new CheckedOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024), new CRC32());
+		DataOutputStream out = new DataOutputStream(checkedStream);
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeLong(jobsFile.length());
+			out.writeLong(jobsFile.lastModified());
+			out.writeInt(jobs.size());
+			for(Job job : jobs)
+			{
+				writeString(out, job.getJobId());
+				writeString(out, job.getJobFilename());
+				writeString(out, job.getPath());
+				writeString(out, job.getJobName());
+				writeString(out, job.getLogLevel());
+				writeString(out, job.getSchedule()!=null ? job.getSchedule().getExpression() : null);
+				writeString(out, job.getMisfirePolicy());
+				writeString(out, jsonJobs.get(job.getJobId()));
+				out.writeInt(getSecondOfDay(job.getScheduledStartTime()));
+				out.writeLong(job.getCheckInterval());
+				out.writeLong(job.getMaxCheckIntervals());
+				out.writeBoolean(job.getRunReports());
+				out.writeBoolean(job.getRequiresDependentJobFinished());
+				out.writeInt(job.getPriority());
+				out.writeInt(job.getDependentJobs().size());
+				for(String dependentJobId : job.getDependentJobs())
+				{
+					writeString(out, dependentJobId);
+				}
+				out.writeInt(job.getParameterDefinitions().size());
+				for(Map.Entry<String,String> parameter : job.getParameterDefinitions().entrySet())
+				{
+					writeString(out, parameter.getKey());
+					writeString(out, parameter.getValue());
+				}
+				out.writeInt(job.getResources().size());
+				for(Map.Entry<String,Integer> resource : job.getResources().entrySet())
+				{
+					writeString(out, resource.getKey());
+					out.writeInt(resource.getValue());
+				}
+				JobStatus status = job.getStatus();
+				out.writeByte(status.getState().ordinal());
+				out.writeInt(status.getExitCode());
+				out.writeLong(status.getActualStartTime()!=null ? status.getActualStartTime().getTimeInMillis() : -1);
+				out.writeLong(status.getFinishedTime()!=null ? status.getFinishedTime().getTimeInMillis() : -1);
+				out.writeLong(status.getVersion());
+			}
+			out.flush();
+			// the checksum itself is not part of the checksum
+			int checksum = (int) checkedStream.getChecksum().getValue();
+			out.writeInt(checksum);
+			out.flush();
+			fileOutputStream.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * reads the snapshot. null is returned if there is no snapshot, if it is not valid or if
+	 * the json file with the job definitions was changed after the snapshot was written.
+	 * 
+	 * @param filename		the name of the snapshot file
+	 * @param jobsFile		the json file the jobs are loaded from
+	 * @return				the snapshot or null
+	 * @throws Exception	if the snapshot can not be read
+	 */
+	public static StateSnapshot read(String filename, File jobsFile) throws Exception
+	{
+		File file = new File(filename);
+		if(!file.exists() || file.length()<32)
+		{
+			return null;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt(0)!=MAGIC || buffer.getInt(4)!=FORMAT_VERSION)
+			{
+				return null;
+			}
+			CRC32 checksum = new CRC32();
+			buffer.limit(buffer.capacity() - 4);
+			checksum.update(buffer);
+			buffer.limit(buffer.capacity());
+			if((int) checksum.getValue()!=buffer.getInt(buffer.capacity() - 4))
+			{
+				return null;
+			}
+			buffer.position(8);
+			long created = buffer.getLong();
+			long jobsFileLength = buffer.getLong();
+			long jobsFileModified = buffer.getLong();
+			if(jobsFileLength!=jobsFile.length() || jobsFileModified!=jobsFile.lastModified())
+			{
+				return null;
+			}
+			int numberOfJobs = buffer.getInt();
+			ArrayList<Job> jobs = new ArrayList<Job>(numberOfJobs);
+			HashMap<String,JobStatus> statuses = new HashMap<String,JobStatus>(numberOfJobs * 2);
+			HashMap<String,String> jsonJobs = new HashMap<String,String>(numberOfJobs * 2);
+			byte[] bytes = new byte[256];
+			HashMap<String,Integer> resolvedValues = new HashMap<String,Integer>();
+			// all scheduled start times are on the current day
+			Calendar today = Calendar.getInstance();
+			for(int i=0;i<numberOfJobs;i++)
+			{
+				String jobId = readString(buffer, bytes);
+				Job job = new Job(jobId, readString(buffer, bytes), readString(buffer, bytes));
+				job.setJobName(readString(buffer, bytes));
+				job.setLogLevel(readString(buffer, bytes));
+				String schedule = readString(buffer, bytes);
+				if(schedule!=null)
+				{
+					job.setSchedule(new CronExpression(schedule));
+				}
+				job.setMisfirePolicy(readString(buffer, bytes));
+				String json = readString(buffer, bytes);
+				if(json!=null)
+				{
+					jsonJobs.put(jobId, json);
+				}
+				int secondOfDay = buffer.getInt();
+				if(secondOfDay>=0)
+				{
+					// like the json file, the scheduled start time is a time on the current day
+					Calendar scheduledStartTime = (Calendar) today.clone();
+					scheduledStartTime.set(Calendar.HOUR_OF_DAY, secondOfDay / 3600);
+					scheduledStartTime.set(Calendar.MINUTE, (secondOfDay / 60) % 60);
+					scheduledStartTime.set(Calendar.SECOND, secondOfDay % 60);
+					job.setScheduledStartTime(new Time(scheduledStartTime));
+				}
+				job.setCheckInterval(buffer.getLong());
+				job.setMaxCheckIntervals(buffer.getLong());
+				job.setRunReports(buffer.get()!=0);
+				job.setRequiresDependentJobFinished(buffer.get()!=0);
+				job.setPriority(buffer.getInt());
+				int numberOfDependentJobs = buffer.getInt();
+				for(int j=0;j<numberOfDependentJobs;j++)
+				{
+					job.addDependentJob(readString(buffer, bytes));
+				}
+				int numberOfParameters = buffer.getInt();
+				if(numberOfParameters>0)
+				{
+					LinkedHashMap<String,String> parameterDefinitions = new LinkedHashMap<String,String>();
+					for(int j=0;j<numberOfParameters;j++)
+					{
+						parameterDefinitions.put(readString(buffer, bytes), readString(buffer, bytes));
+					}
+					job.setParameterDefinitions(parameterDefinitions);
+					// variables are calculated from the current date, like when the json file is read
+					job.setParameters(JobManager.resolveParameters(parameterDefinitions, resolvedValues));
+				}
+				int numberOfResources = buffer.getInt();
+				for(int j=0;j<numberOfResources;j++)
+				{
+					job.addResource(readString(buffer, bytes), buffer.getInt());
+				}
+				JobState state = STATES[buffer.get()];
+				int exitCode = buffer.getInt();
+				long actualStartTime = buffer.getLong();
+				long finishedTime = buffer.getLong();
+				long version = buffer.getLong();
+				statuses.put(jobId, JobStatus.restore(state, exitCode, actualStartTime, finishedTime, version));
+				jobs.add(job);
+			}
+			return new StateSnapshot(jobs, statuses, jsonJobs, created);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	private static int getSecondOfDay(Time time)
+	{
+		if(time==null)
+		{
+			return -1;
+		}
+		Calendar calendar = time.getCalendar();
+		return calendar.get(Calendar.HOUR_OF_DAY) * 3600 + calendar.get(Calendar.MINUTE) * 60 + calendar.get(Calendar.SECOND);
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if(value==null)
+		{
+			out.writeInt(-1);
+		}
+		else
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	private static String readString(MappedByteBuffer buffer, byte[] bytes)
+	{
+		int length = buffer.getInt();
+		if(length<0)
+		{
+			return null;
+		}
+		if(length>bytes.length)
+		{
+			bytes = new byte[length];
+		}
+		buffer.get(bytes, 0, length);
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	public ArrayList<Job> getJobs()
+	{
+		return jobs;
+	}
+	
+	/**
+	 * returns the status of each job at the time the snapshot was written
+	 * 
+	 * @return	map of job id to status
+	 */
+	public HashMap<String,JobStatus> getStatuses()
+	{
+		return statuses;
+	}
+	
+	public HashMap<String,String> getJsonJobs()
+	{
+		return jsonJobs;
+	}
+	
+	public long getCreated()
+	{
+		return created;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * a client connection receiving the events of the jobs selected by a filter.
+ * 
+ * the events are written to the output buffer of the connection, which the IoLoop
+ * sends to the client. the output buffer is the buffer of the subscriber: if it holds
+ * more than the given size, the client does not read the events as fast as they occur.
+ * such a slow consumer is disconnected, so it can not make the server run out of memory.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class Subscription
+{
+	private static final String DEFAULT_DATETIME_FORMAT		= "yyyy-MM-dd HH:mm:ss";
+	
+	private JobFilter filter;
+	private ClientConnection connection;
+	private int requestId;
+	private int bufferSize;
+	private volatile boolean active							= true;
+	
+	Subscription(JobFilter filter, ClientConnection connection, int requestId, int bufferSize)
+	{
+		this.filter = filter;
+		this.connection = connection;
+		this.requestId = requestId;
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * sends the event to the client
+	 * 
+	 * @param event		the event
+	 * @return			false if the subscription has ended
+	 */
+	boolean publish(String event)
+	{
+		if(!isActive())
+		{
+			return false;
+		}
+		if(connection.getPendingOutputSize()>bufferSize)
+		{
+			System.out.println(new SimpleDateFormat(DEFAULT_DATETIME_FORMAT).format(new Date()) + " - subscriber [" + connection.getRemoteAddress() + "] does not read the events fast enough. more than [" + bufferSize + "] bytes pending - closing the connection");
+			cancel();
+			connection.close();
+			return false;
+		}
+		try
+		{
+			connection.send(requestId!=0 ? new ClientResponse(requestId, event, true) : event);
+		}
+		catch(IOException ex)
+		{
+			cancel();
+			connection.close();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * ends the subscription. no more events are sent
+	 */
+	public void cancel()
+	{
+		active = false;
+	}
+	
+	public boolean isActive()
+	{
+		return active && !connection.isClosed();
+	}
+	
+	public JobFilter getFilter()
+	{
+		return filter;
+	}
+}
@@ -21,7 +21,11 @@ package com.datamelt.etl;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.datamelt.util.CronExpression;
 import com.datamelt.util.Time;
 
 public class Job implements Comparable<Job>
@@ -34,20 +38,23 @@ public class Job implements Comparable<Job>
 	private String jobName;
 	private String path;
 	private Time scheduledStartTime;
-	private Time actualStartTime;
-	private Time finishedTime;
 	private boolean requiresDependentJobFinished 	= false;
 	private boolean runReports 						= false;
-	private boolean running							= false;
-	private boolean finished						= false;
-	private boolean startRequested					= false;
 	private long checkInterval 						= DEFAULT_CHECK_INTERVAL;
 	private long checkIntervalCounter				= 0;
 	private long maxCheckIntervals 					= DEFAULT_MAX_CHECK_INTERVALS;
 	private String logLevel							= "Basic";
-	private int exitCode							= 0;
+	// the state, exit code and process times. only ever replaced as a whole
+	private AtomicReference<JobStatus> status		= new AtomicReference<JobStatus>(JobStatus.IDLE);
+	private JobStatusListener statusListener;
 	private ArrayList<String> parameters			= new ArrayList<String>();
+	// the parameters as defined, before variables are replaced
+	private LinkedHashMap<String,String> parameterDefinitions	= new LinkedHashMap<String,String>();
 	private ArrayList<String> dependentJobs			= new ArrayList<String>();
+	private CronExpression schedule;
+	private String misfirePolicy;
+	private int priority							= 0;
+	private HashMap<String,Integer> resources		= new HashMap<String,Integer>();
 	
 	public Job(String id, String filename, String path)
 	{
@@ -116,12 +123,12 @@ public class Job implements Comparable<Job>
 
 	public Time getActualStartTime()
 	{
-		return actualStartTime;
+		return status.get().getActualStartTime();
 	}
 
 	public Time getFinishedTime()
 	{
-		return finishedTime;
+		return status.get().getFinishedTime();
 	}
 
 	public void setScheduledStartTime(int year, int month, int day, int hour, int minute, int second)
@@ -154,34 +161,225 @@ public class Job implements Comparable<Job>
 		this.requiresDependentJobFinished = requiresDependentJobFinished;
 	}
 
+	/**
+	 * returns a consistent snapshot of the state of the job
+	 * 
+	 * @return	the current status
+	 */
+	public JobStatus getStatus()
+	{
+		return status.get();
+	}
+	
+	public JobState getState()
+	{
+		return status.get().getState();
+	}
+	
 	public boolean isFinished()
 	{
-		return finished;
+		return status.get().isFinished();
 	}
 	
 	public boolean isRunning()
 	{
-		return running;
+		return status.get().isRunning();
 	}
 	
 	public boolean isStartRequested()
 	{
-		return startRequested;
+		return status.get().getState()==JobState.WAITING;
 	}
 	
-	public void setFinished(boolean finished)
+	public boolean isQueued()
 	{
-		this.finished = finished;
+		return status.get().getState()==JobState.QUEUED;
 	}
-
-	public void setRunning(boolean running)
+	
+	/**
+	 * sets the listener which is informed about every change of the status
+	 * 
+	 * @param statusListener	the listener or null
+	 */
+	public void setStatusListener(JobStatusListener statusListener)
+	{
+		this.statusListener = statusListener;
+	}
+	
+	/**
+	 * sets the status of the job without any checks - used when the state of the job is
+	 * recovered after a restart of the server. the listener is not informed.
+	 * 
+	 * @param status	the status
+	 */
+	public void restoreStatus(JobStatus status)
 	{
-		this.running = running;
+		this.status.set(status);
+	}
+	
+	private boolean update(JobStatus current, JobStatus next)
+	{
+		if(status.compareAndSet(current, next))
+		{
+			if(statusListener!=null)
+			{
+				statusListener.statusChanged(this, next);
+			}
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * replaces the status if the job is in the expected state. this is the only way the
+	 * state of a job changes, so two threads can never both make the same transition.
+	 * 
+	 * @param expected		the state the job must be in
+	 * @param next			the state to change to
+	 * @return				true if the state was changed
+	 */
+	private boolean transition(JobState expected, JobState next)
+	{
+		while(true)
+		{
+			JobStatus current = status.get();
+			if(current.getState()!=expected)
+			{
+				return false;
+			}
+			if(update(current, current.withState(next)))
+			{
+				return true;
+			}
+		}
 	}
 	
-	public void setStartRequested(boolean startRequested)
+	/**
+	 * IDLE to WAITING: a run of the job was requested
+	 * 
+	 * @return	true if the job was idle
+	 */
+	public boolean requestStart()
 	{
-		this.startRequested = startRequested;
+		return transition(JobState.IDLE, JobState.WAITING);
+	}
+	
+	/**
+	 * WAITING to IDLE: the run request was dropped
+	 * 
+	 * @return	true if the job was waiting
+	 */
+	public boolean cancelStartRequest()
+	{
+		return transition(JobState.WAITING, JobState.IDLE);
+	}
+	
+	/**
+	 * WAITING to QUEUED: the job can start and waits for a free process slot
+	 * 
+	 * @return	true if the job was waiting
+	 */
+	public boolean queue()
+	{
+		return transition(JobState.WAITING, JobState.QUEUED);
+	}
+	
+	/**
+	 * QUEUED to IDLE: the job was taken out of the queue before it was started
+	 * 
+	 * @return	true if the job was queued
+	 */
+	public boolean unqueue()
+	{
+		return transition(JobState.QUEUED, JobState.IDLE);
+	}
+	
+	/**
+	 * QUEUED to RUNNING: the process of the job is started
+	 * 
+	 * @param actualStartTime	the time the process is started
+	 * @return					true if the job was queued
+	 */
+	public boolean markRunning(Time actualStartTime)
+	{
+		while(true)
+		{
+			JobStatus current = status.get();
+			if(current.getState()!=JobState.QUEUED)
+			{
+				return false;
+			}
+			if(update(current, JobStatus.running(actualStartTime)))
+			{
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * RUNNING to IDLE: the process of the job could not be started
+	 * 
+	 * @return	true if the job was running
+	 */
+	public boolean markStartFailed()
+	{
+		while(true)
+		{
+			JobStatus current = status.get();
+			if(current.getState()!=JobState.RUNNING)
+			{
+				return false;
+			}
+			if(update(current, JobStatus.idle()))
+			{
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * RUNNING to SUCCEEDED or FAILED: the process of the job has ended
+	 * 
+	 * @param exitCode			the exit code of the process
+	 * @param finishedTime		the time the process ended
+	 * @return					true if the job was running
+	 */
+	public boolean markFinished(int exitCode, Time finishedTime)
+	{
+		while(true)
+		{
+			JobStatus current = status.get();
+			if(current.getState()!=JobState.RUNNING)
+			{
+				return false;
+			}
+			if(update(current, current.finished(exitCode, finishedTime)))
+			{
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * brings the job back to IDLE and clears the exit code and times. a running job can
+	 * not be reset.
+	 * 
+	 * @return	true if the job was reset
+	 */
+	public boolean reset()
+	{
+		while(true)
+		{
+			JobStatus current = status.get();
+			if(current.getState()==JobState.RUNNING)
+			{
+				return false;
+			}
+			if(update(current, JobStatus.idle()))
+			{
+				return true;
+			}
+		}
 	}
 	
 	@Override
@@ -251,24 +449,24 @@ public class Job implements Comparable<Job>
 		this.scheduledStartTime = scheduledStartTime;
 	}
 
-	public void setActualStartTime(Time actualStartTime)
+	public ArrayList<String> getParameters()
 	{
-		this.actualStartTime = actualStartTime;
+		return parameters;
 	}
 
-	public void setFinishedTime(Time finishedTime)
+	public void setParameters(ArrayList<String> parameters)
 	{
-		this.finishedTime = finishedTime;
+		this.parameters = parameters;
 	}
 
-	public ArrayList<String> getParameters()
+	public LinkedHashMap<String,String> getParameterDefinitions()
 	{
-		return parameters;
+		return parameterDefinitions;
 	}
 
-	public void setParameters(ArrayList<String> parameters)
+	public void setParameterDefinitions(LinkedHashMap<String,String> parameterDefinitions)
 	{
-		this.parameters = parameters;
+		this.parameterDefinitions = parameterDefinitions;
 	}
 
 	public String getLogLevel()
@@ -283,12 +481,52 @@ public class Job implements Comparable<Job>
 
 	public int getExitCode()
 	{
-		return exitCode;
+		return status.get().getExitCode();
+	}
+
+	public CronExpression getSchedule()
+	{
+		return schedule;
+	}
+
+	public void setSchedule(CronExpression schedule)
+	{
+		this.schedule = schedule;
+	}
+
+	public String getMisfirePolicy()
+	{
+		return misfirePolicy;
+	}
+
+	public void setMisfirePolicy(String misfirePolicy)
+	{
+		this.misfirePolicy = misfirePolicy;
+	}
+
+	public int getPriority()
+	{
+		return priority;
+	}
+
+	public void setPriority(int priority)
+	{
+		this.priority = priority;
+	}
+
+	public HashMap<String,Integer> getResources()
+	{
+		return resources;
+	}
+
+	public void setResources(HashMap<String,Integer> resources)
+	{
+		this.resources = resources;
 	}
 
-	public void setExitCode(int exitCode)
+	public void addResource(String resourceClass, int tokens)
 	{
-		this.exitCode = exitCode;
+		resources.put(resourceClass, tokens);
 	}
 	
 }
@@ -20,10 +20,21 @@
 package com.datamelt.etl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 
+/**
+ * collection of jobs, indexed by their id.
+ * 
+ * lookup and removal by id take constant time. iterating the collection returns the
+ * jobs in the order they were added.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
 public class JobCollection
 {
-	private ArrayList<Job> jobs = new ArrayList<Job>();
+	private LinkedHashMap<String,Job> jobs = new LinkedHashMap<String,Job>();
 	
 	public JobCollection()
 	{
@@ -32,27 +43,54 @@ public class JobCollection
 	
 	public JobCollection(ArrayList<Job> jobs)
 	{
-		this.jobs = jobs;
+		for(Job job : jobs)
+		{
+			addJob(job);
+		}
 	}
 
+	/**
+	 * adds the job to the collection. a job with the same id is replaced.
+	 * 
+	 * @param job	the job to add
+	 */
 	public void addJob(Job job)
 	{
-		jobs.add(job);
+		jobs.put(job.getJobId(), job);
+	}
+	
+	public Job getJob(String jobId)
+	{
+		if(jobId!=null)
+		{
+			return jobs.get(jobId);
+		}
+		else
+		{
+			return null;
+		}
 	}
 	
-	public Job getJob(int index)
+	public Job removeJob(String jobId)
 	{
-		return jobs.get(index);
+		if(jobId!=null)
+		{
+			return jobs.remove(jobId);
+		}
+		else
+		{
+			return null;
+		}
 	}
 	
-	public void removeJob(int index)
+	public boolean containsJob(String jobId)
 	{
-		jobs.remove(index);
+		return jobId!=null && jobs.containsKey(jobId);
 	}
 	
-	public ArrayList<Job> getJobs()
+	public Collection<Job> getJobs()
 	{
-		return jobs;
+		return jobs.values();
 	}
 	
 	public int size()
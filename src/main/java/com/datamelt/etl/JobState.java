@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.datamelt.etl;
+
+/**
+ * the states a job goes through.
+ * 
+ * a job is IDLE until a run is requested. it is WAITING while its scheduled start time
+ * is not reached or the jobs it depends on have not finished, QUEUED while it waits for
+ * a free process slot and RUNNING while its process runs. when the process has ended the
+ * job is SUCCEEDED or FAILED, depending on the exit code. a reset brings the job back
+ * to IDLE.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public enum JobState
+{
+	IDLE,
+	WAITING,
+	QUEUED,
+	RUNNING,
+	SUCCEEDED,
+	FAILED;
+	
+	public boolean isFinished()
+	{
+		return this==SUCCEEDED || this==FAILED;
+	}
+}
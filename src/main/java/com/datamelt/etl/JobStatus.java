@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.datamelt.etl;
+
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datamelt.util.Time;
+
+/**
+ * immutable snapshot of the state of a job, together with the values belonging to it:
+ * the exit code and the times the process started and finished.
+ * 
+ * a job holds its current status in a single reference which is replaced as a whole, so
+ * readers always see values which belong together, without any locking.
+ * 
+ * each status gets a version number from a global counter when it is created. a status
+ * created from another status always has the higher version, so the order of the changes
+ * can be restored from the versions - e.g. when the journal is replayed.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public final class JobStatus
+{
+	private static final AtomicLong versions	= new AtomicLong();
+	
+	public static final JobStatus IDLE 			= new JobStatus(JobState.IDLE, 0, null, null, 0);
+	
+	private final JobState state;
+	private final int exitCode;
+	private final Time actualStartTime;
+	private final Time finishedTime;
+	private final long version;
+	
+	private JobStatus(JobState state, int exitCode, Time actualStartTime, Time finishedTime)
+	{
+		this(state, exitCode, actualStartTime, finishedTime, versions.incrementAndGet());
+	}
+	
+	private JobStatus(JobState state, int exitCode, Time actualStartTime, Time finishedTime, long version)
+	{
+		this.state = state;
+		this.exitCode = exitCode;
+		this.actualStartTime = actualStartTime;
+		this.finishedTime = finishedTime;
+		this.version = version;
+	}
+	
+	/**
+	 * recreates a status which was written to disk
+	 * 
+	 * @param state				the state
+	 * @param exitCode			the exit code
+	 * @param actualStartTime	the start time in milliseconds or -1 if undefined
+	 * @param finishedTime		the finish time in milliseconds or -1 if undefined
+	 * @param version			the version of the status
+	 * @return					the status
+	 */
+	public static JobStatus restore(JobState state, int exitCode, long actualStartTime, long finishedTime, long version)
+	{
+		// new versions must be higher than all restored ones
+		long currentVersion;
+		while((currentVersion = versions.get()) < version && !versions.compareAndSet(currentVersion, version));
+		return new JobStatus(state, exitCode, toTime(actualStartTime), toTime(finishedTime), version);
+	}
+	
+	private static Time toTime(long time)
+	{
+		if(time<0)
+		{
+			return null;
+		}
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		return new Time(calendar);
+	}
+	
+	/**
+	 * returns a new IDLE status without exit code and times
+	 * 
+	 * @return	the new status
+	 */
+	public static JobStatus idle()
+	{
+		return new JobStatus(JobState.IDLE, 0, null, null);
+	}
+	
+	/**
+	 * returns a status with the given state, keeping the exit code and times of this status
+	 * 
+	 * @param state		the new state
+	 * @return			the new status
+	 */
+	public JobStatus withState(JobState state)
+	{
+		return new JobStatus(state, exitCode, actualStartTime, finishedTime);
+	}
+	
+	/**
+	 * returns the status of a job whose process was started at the given time
+	 * 
+	 * @param actualStartTime		the time the process was started
+	 * @return						the new status
+	 */
+	public static JobStatus running(Time actualStartTime)
+	{
+		return new JobStatus(JobState.RUNNING, 0, actualStartTime, null);
+	}
+	
+	/**
+	 * returns the status of a job whose process ended with the given exit code
+	 * 
+	 * @param exitCode				the exit code of the process
+	 * @param finishedTime			the time the process ended
+	 * @return						the new status
+	 */
+	public JobStatus finished(int exitCode, Time finishedTime)
+	{
+		return new JobStatus(exitCode==0 ? JobState.SUCCEEDED : JobState.FAILED, exitCode, actualStartTime, finishedTime);
+	}
+	
+	public JobState getState()
+	{
+		return state;
+	}
+	
+	public int getExitCode()
+	{
+		return exitCode;
+	}
+	
+	public Time getActualStartTime()
+	{
+		return actualStartTime;
+	}
+	
+	public Time getFinishedTime()
+	{
+		return finishedTime;
+	}
+	
+	public long getVersion()
+	{
+		return version;
+	}
+	
+	public boolean isFinished()
+	{
+		return state.isFinished();
+	}
+	
+	public boolean isRunning()
+	{
+		return state==JobState.RUNNING;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return state.toString().toLowerCase();
+	}
+}
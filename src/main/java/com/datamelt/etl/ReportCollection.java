@@ -20,10 +20,21 @@
 package com.datamelt.etl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 
+/**
+ * collection of reports, indexed by their id.
+ * 
+ * lookup and removal by id take constant time. iterating the collection returns the
+ * reports in the order they were added.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
 public class ReportCollection
 {
-	private ArrayList<Report> reports = new ArrayList<Report>();
+	private LinkedHashMap<String,Report> reports = new LinkedHashMap<String,Report>();
 	
 	public ReportCollection()
 	{
@@ -32,31 +43,63 @@ public class ReportCollection
 	
 	public ReportCollection(ArrayList<Report> reports)
 	{
-		this.reports = reports;
+		for(Report report : reports)
+		{
+			addReport(report);
+		}
 	}
-	
+
+	/**
+	 * adds the report to the collection. a report with the same id is replaced.
+	 * 
+	 * @param report	the report to add
+	 */
 	public void addReport(Report report)
 	{
-		reports.add(report);
+		reports.put(report.getReportId(), report);
 	}
 	
-	public Report getReport(int index)
+	public Report getReport(String reportId)
 	{
-		return reports.get(index);
+		if(reportId!=null)
+		{
+			return reports.get(reportId);
+		}
+		else
+		{
+			return null;
+		}
 	}
 	
-	public void removeReport(int index)
+	public Report removeReport(String reportId)
 	{
-		reports.remove(index);
+		if(reportId!=null)
+		{
+			return reports.remove(reportId);
+		}
+		else
+		{
+			return null;
+		}
 	}
 	
-	public ArrayList<Report> getReports()
+	public boolean containsReport(String reportId)
 	{
-		return reports;
+		return reportId!=null && reports.containsKey(reportId);
 	}
-
+	
+	public Collection<Report> getReports()
+	{
+		return reports.values();
+	}
+	
 	public int size()
 	{
 		return reports.size();
 	}
+	
+	public void clear()
+	{
+		reports.clear();
+	}
 }
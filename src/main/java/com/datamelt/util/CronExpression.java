@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.datamelt.util;
+
+import java.util.BitSet;
+import java.util.Calendar;
+
+/**
+ * cron style schedule definition.
+ * 
+ * the expression consists of five fields: minute, hour, day of month, month and day of
+ * week, separated by blanks. an optional sixth field in front defines the second. each
+ * field may be "*", a single value, a range "a-b", a list "a,b,c" or a step "*&#47;n" or
+ * "a-b/n". months and days of the week may also be given by their three letter english
+ * names. day of week 0 and 7 are both sunday.
+ * 
+ * if both day of month and day of week are restricted, a day matches if either of them
+ * matches - like the standard cron does.
+ * 
+ * examples: "0 2 * * *" runs every day at 02:00, "30 1 * * mon-fri" runs on working days
+ * at 01:30, "0 0/15 * * * *" runs every 15 minutes.
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class CronExpression
+{
+	private static final String[] MONTH_NAMES		= {"jan","feb","mar","apr","may","jun","jul","aug","sep","oct","nov","dec"};
+	private static final String[] DAY_NAMES			= {"sun","mon","tue","wed","thu","fri","sat"};
+	
+	// search at most this many years ahead for a matching time
+	private static final int MAX_YEARS_AHEAD		= 5;
+	
+	private String expression;
+	private BitSet seconds							= new BitSet(60);
+	private BitSet minutes							= new BitSet(60);
+	private BitSet hours							= new BitSet(24);
+	private BitSet daysOfMonth						= new BitSet(32);
+	private BitSet months							= new BitSet(12);
+	private BitSet daysOfWeek						= new BitSet(7);
+	private boolean dayOfMonthRestricted;
+	private boolean dayOfWeekRestricted;
+	
+	public CronExpression(String expression) throws Exception
+	{
+		this.expression = expression;
+		if(expression==null)
+		{
+			throw new Exception("invalid schedule definition: expression is undefined");
+		}
+		String[] fields = expression.trim().toLowerCase().split("\\s+");
+		int offset;
+		if(fields.length==5)
+		{
+			seconds.set(0);
+			offset = 0;
+		}
+		else if(fields.length==6)
+		{
+			parseField(fields[0], seconds, 0, 59, null);
+			offset = 1;
+		}
+		else
+		{
+			throw new Exception("invalid schedule definition: [" + expression + "]. correct format is: [minute hour day-of-month month day-of-week]");
+		}
+		parseField(fields[offset], minutes, 0, 59, null);
+		parseField(fields[offset + 1], hours, 0, 23, null);
+		parseField(fields[offset + 2], daysOfMonth, 1, 31, null);
+		
+		// months are 1-12 in the expression but 0-11 in the Calendar
+		BitSet monthValues = new BitSet(13);
+		parseField(fields[offset + 3], monthValues, 1, 12, MONTH_NAMES);
+		for(int i = monthValues.nextSetBit(1); i >= 0; i = monthValues.nextSetBit(i + 1))
+		{
+			months.set(i - 1);
+		}
+		
+		BitSet dayValues = new BitSet(8);
+		parseField(fields[offset + 4], dayValues, 0, 7, DAY_NAMES);
+		if(dayValues.get(7))
+		{
+			dayValues.set(0);
+		}
+		for(int i = dayValues.nextSetBit(0); i >= 0 && i < 7; i = dayValues.nextSetBit(i + 1))
+		{
+			daysOfWeek.set(i);
+		}
+		
+		dayOfMonthRestricted = !fields[offset + 2].equals("*") && !fields[offset + 2].equals("?");
+		dayOfWeekRestricted = !fields[offset + 4].equals("*") && !fields[offset + 4].equals("?");
+	}
+	
+	private void parseField(String field, BitSet values, int minimum, int maximum, String[] names) throws Exception
+	{
+		for(String part : field.split(","))
+		{
+			int step = 1;
+			int slash = part.indexOf('/');
+			if(slash>=0)
+			{
+				step = Integer.parseInt(part.substring(slash + 1));
+				part = part.substring(0, slash);
+				if(step<1)
+				{
+					throw new Exception("invalid step in schedule definition: [" + expression + "]");
+				}
+			}
+			int start;
+			int end;
+			if(part.equals("*") || part.equals("?"))
+			{
+				start = minimum;
+				end = maximum;
+			}
+			else
+			{
+				int dash = part.indexOf('-');
+				if(dash>0)
+				{
+					start = parseValue(part.substring(0, dash), minimum, names);
+					end = parseValue(part.substring(dash + 1), minimum, names);
+				}
+				else
+				{
+					start = parseValue(part, minimum, names);
+					// "a/n" means from a to the maximum value
+					end = slash>=0 ? maximum : start;
+				}
+			}
+			if(start<minimum || end>maximum || start>end)
+			{
+				throw new Exception("value out of range in schedule definition: [" + expression + "]. range is: [" + minimum + "-" + maximum + "]");
+			}
+			for(int i = start; i <= end; i += step)
+			{
+				values.set(i);
+			}
+		}
+	}
+	
+	private int parseValue(String value, int minimum, String[] names) throws Exception
+	{
+		if(names!=null)
+		{
+			for(int i=0;i<names.length;i++)
+			{
+				if(names[i].equals(value))
+				{
+					// month names start at 1, day names at 0
+					return i + minimum;
+				}
+			}
+		}
+		try
+		{
+			return Integer.parseInt(value);
+		}
+		catch(NumberFormatException ex)
+		{
+			throw new Exception("invalid value [" + value + "] in schedule definition: [" + expression + "]");
+		}
+	}
+	
+	/**
+	 * returns the first point in time matching the expression which is after the given time
+	 * 
+	 * @param time		the time in milliseconds
+	 * @return			the next matching time in milliseconds or -1 if there is none
+	 */
+	public long getNextTime(long time)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.SECOND, 1);
+		
+		int maximumYear = calendar.get(Calendar.YEAR) + MAX_YEARS_AHEAD;
+		while(calendar.get(Calendar.YEAR) <= maximumYear)
+		{
+			if(!months.get(calendar.get(Calendar.MONTH)))
+			{
+				calendar.add(Calendar.MONTH, 1);
+				calendar.set(Calendar.DAY_OF_MONTH, 1);
+				setStartOfDay(calendar);
+			}
+			else if(!dayMatches(calendar))
+			{
+				calendar.add(Calendar.DAY_OF_MONTH, 1);
+				setStartOfDay(calendar);
+			}
+			else if(!hours.get(calendar.get(Calendar.HOUR_OF_DAY)))
+			{
+				calendar.add(Calendar.HOUR_OF_DAY, 1);
+				calendar.set(Calendar.MINUTE, 0);
+				calendar.set(Calendar.SECOND, 0);
+			}
+			else if(!minutes.get(calendar.get(Calendar.MINUTE)))
+			{
+				calendar.add(Calendar.MINUTE, 1);
+				calendar.set(Calendar.SECOND, 0);
+			}
+			else if(!seconds.get(calendar.get(Calendar.SECOND)))
+			{
+				calendar.add(Calendar.SECOND, 1);
+			}
+			else
+			{
+				return calendar.getTimeInMillis();
+			}
+		}
+		return -1;
+	}
+	
+	private boolean dayMatches(Calendar calendar)
+	{
+		boolean dayOfMonth = daysOfMonth.get(calendar.get(Calendar.DAY_OF_MONTH));
+		// Calendar.SUNDAY is 1
+		boolean dayOfWeek = daysOfWeek.get(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+		if(dayOfMonthRestricted && dayOfWeekRestricted)
+		{
+			return dayOfMonth || dayOfWeek;
+		}
+		else
+		{
+			return dayOfMonth && dayOfWeek;
+		}
+	}
+	
+	private void setStartOfDay(Calendar calendar)
+	{
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+	}
+	
+	public String getExpression()
+	{
+		return expression;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return expression;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * checks that the server handles thousands of connected clients with a fixed number of
+ * threads.
+ *
+ * the check starts a server in this jvm, opens the given number of connections and keeps
+ * them all open while the sender threads send hello and jobfinished messages over all of
+ * them in turn. the clients use blocking sockets without threads of their own, so every
+ * additional thread of the jvm belongs to the server. the check fails if the server uses
+ * more threads than it had before the first connection plus its worker threads, which
+ * are only started when the first messages arrive.
+ *
+ * usage: ConnectionLoadCheck [number of connections] [number of round trips] [number of sender threads]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ConnectionLoadCheck
+{
+	private static final int WORKER_THREADS					= 8;
+	private static final String JOB_FILENAME				= "load.kjb";
+
+	public static void main(String[] args) throws Exception
+	{
+		int connections = args.length>0 ? Integer.parseInt(args[0]) : 2000;
+		int roundTrips = args.length>1 ? Integer.parseInt(args[1]) : 20000;
+		int senders = args.length>2 ? Integer.parseInt(args[2]) : 4;
+
+		File folder = Files.createTempDirectory("jobrunner-load").toFile();
+		int port = getFreePort();
+		File propertiesFile = writeServerFiles(folder, port);
+
+		// the server logs its start
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		}));
+		try
+		{
+			CoordinationServer.main(new String[] {propertiesFile.getPath()});
+		}
+		finally
+		{
+			System.setOut(out);
+		}
+		int threadsBefore = Thread.getAllStackTraces().size();
+
+		long start = System.nanoTime();
+		List<CoordinationClient> clients = new ArrayList<CoordinationClient>(connections);
+		for(int i=0;i<connections;i++)
+		{
+			clients.add(new CoordinationClient("localhost", port));
+		}
+		long connectTime = System.nanoTime() - start;
+
+		long[] durations = run(clients, roundTrips, senders);
+		int threadsConnected = Thread.getAllStackTraces().size();
+
+		for(CoordinationClient client : clients)
+		{
+			client.getServerMessage(ClientHandler.RESPONSE_EXIT);
+			client.closeSocket();
+		}
+		for(File file : folder.listFiles())
+		{
+			file.delete();
+		}
+		folder.delete();
+
+		long total = durations[roundTrips];
+		long[] sorted = Arrays.copyOf(durations, roundTrips);
+		Arrays.sort(sorted);
+		int maxThreads = threadsBefore + WORKER_THREADS;
+		System.out.println(String.format(Locale.ROOT, "connections: [%d], connect time: [%.0f ms], round trips: [%d], senders: [%d], round trips/s: [%.0f], p50: [%.1f us], p99: [%.1f us]", connections, connectTime / 1e6, roundTrips, senders, roundTrips * 1e9 / total, sorted[roundTrips / 2] / 1e3, sorted[(int) (roundTrips * 0.99)] / 1e3));
+		System.out.println("threads before the first connection: [" + threadsBefore + "], with all connections open: [" + threadsConnected + "], allowed: [" + maxThreads + "]");
+		if(threadsConnected>maxThreads)
+		{
+			System.out.println("the number of threads grows with the number of connections");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * sends the messages over all connections in turn and returns the duration of each
+	 * round trip in nanoseconds, followed by the total duration
+	 */
+	private static long[] run(final List<CoordinationClient> clients, final int roundTrips, final int senders) throws Exception
+	{
+		final long[] durations = new long[roundTrips + 1];
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread[] threads = new Thread[senders];
+		for(int i=0;i<senders;i++)
+		{
+			final int sender = i;
+			threads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						// each sender uses its own share of the connections
+						for(int n=sender;n<roundTrips;n+=senders)
+						{
+							CoordinationClient client = clients.get((n / senders) % (clients.size() / senders) * senders + sender);
+							String message = n % 2==0 ? ClientHandler.RESPONSE_HELLO : ClientHandler.RESPONSE_JOB_FINISHED + ClientHandler.DELIMITER + "load_" + n % 10;
+							long start = System.nanoTime();
+							client.getServerMessage(message);
+							durations[n] = System.nanoTime() - start;
+						}
+					}
+					catch(Exception ex)
+					{
+						failure.compareAndSet(null, ex);
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for(Thread thread : threads)
+		{
+			thread.start();
+		}
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+		durations[roundTrips] = System.nanoTime() - start;
+		if(failure.get()!=null)
+		{
+			throw failure.get();
+		}
+		return durations;
+	}
+
+	private static int getFreePort() throws IOException
+	{
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		return port;
+	}
+
+	/**
+	 * writes a json file with ten jobs, their job file and the properties of the server
+	 */
+	private static File writeServerFiles(File folder, int port) throws IOException
+	{
+		Files.write(new File(folder, JOB_FILENAME).toPath(), new byte[0]);
+		StringBuilder json = new StringBuilder("{\"jobs\": [");
+		for(int i=0;i<10;i++)
+		{
+			json.append(i>0 ? "," : "").append("{\"id\": \"load_" + i + "\", \"filename\": \"" + JOB_FILENAME + "\", \"path\": \"" + folder.getAbsolutePath() + "\", \"scheduled_start_time\": \"00:00:01\"}");
+		}
+		json.append("]}");
+		File jobsFile = new File(folder, "jobs.json");
+		Files.write(jobsFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+		String properties = "server.port=" + port + "\n"
+				+ "server.worker.threads=" + WORKER_THREADS + "\n"
+				+ "folder.logs=" + new File(folder, "logs").getAbsolutePath() + "\n"
+				+ "jobs.filename=" + jobsFile.getAbsolutePath() + "\n"
+				+ "script.name=kitchen.sh\n"
+				+ "script.folder=" + folder.getAbsolutePath() + "\n";
+		File propertiesFile = new File(folder, "server.properties");
+		Files.write(propertiesFile.toPath(), properties.getBytes(StandardCharsets.UTF_8));
+		return propertiesFile;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * compares the time per status query of a running server with and without the
+ * CoordinationClientPool.
+ * 
+ * without the pool every query opens its own connection, sends the jobfinished message
+ * and the exit message and closes the connection again - as the CoordinationClientMessage
+ * tool does. with the pool the queries reuse the open connections. the queries are sent by
+ * the given number of threads; the pool has as many connections as there are threads.
+ * 
+ * usage: CoordinationClientBenchmark [server] [port] [job id] [number of queries] [number of threads]
+ * 
+ * @author uwe geercken 2017
+ *
+ */
+public class CoordinationClientBenchmark
+{
+	private static final int WARMUP_QUERIES					= 500;
+	
+	private String server;
+	private int port;
+	private String message;
+	
+	public static void main(String[] args) throws Exception
+	{
+		String server = args.length>0 ? args[0] : "localhost";
+		int port = args.length>1 ? Integer.parseInt(args[1]) : 9000;
+		String jobId = args.length>2 ? args[2] : "id_0001";
+		int queries = args.length>3 ? Integer.parseInt(args[3]) : 10000;
+		int threads = args.length>4 ? Integer.parseInt(args[4]) : 1;
+		
+		CoordinationClientBenchmark benchmark = new CoordinationClientBenchmark(server, port, ClientHandler.RESPONSE_JOB_FINISHED + ClientHandler.DELIMITER + jobId);
+		System.out.println("server: [" + server + ":" + port + "], queries: [" + queries + "], threads: [" + threads + "], message: [" + benchmark.message + "]");
+		System.out.println("client     total ms  queries/s  mean us  p50 us  p99 us  max us");
+		try(CoordinationClientPool pool = new CoordinationClientPool(server, port, threads))
+		{
+			benchmark.run(null, Math.min(WARMUP_QUERIES, queries), threads);
+			benchmark.run(pool, Math.min(WARMUP_QUERIES, queries), threads);
+			print("unpooled", benchmark.run(null, queries, threads));
+			print("pooled", benchmark.run(pool, queries, threads));
+			System.out.println("connections opened by the pool: [" + pool.getNumberOfConnections() + "], reconnects: [" + pool.getNumberOfReconnects() + "]");
+		}
+	}
+	
+	public CoordinationClientBenchmark(String server, int port, String message)
+	{
+		this.server = server;
+		this.port = port;
+		this.message = message;
+	}
+	
+	/**
+	 * sends the queries and returns the duration of each one in nanoseconds, followed by the total duration
+	 */
+	private long[] run(final CoordinationClientPool pool, int queries, int threads) throws Exception
+	{
+		final long[] durations = new long[queries + 1];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread[] senders = new Thread[threads];
+		for(int i=0;i<threads;i++)
+		{
+			senders[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						int query;
+						while((query = next.getAndIncrement())<durations.length - 1)
+						{
+							long start = System.nanoTime();
+							if(pool!=null)
+							{
+								pool.getServerMessage(message);
+							}
+							else
+							{
+								query();
+							}
+							durations[query] = System.nanoTime() - start;
+						}
+					}
+					catch(Exception ex)
+					{
+						failure.compareAndSet(null, ex);
+						next.set(durations.length);
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for(Thread sender : senders)
+		{
+			sender.start();
+		}
+		for(Thread sender : senders)
+		{
+			sender.join();
+		}
+		durations[queries] = System.nanoTime() - start;
+		if(failure.get()!=null)
+		{
+			throw failure.get();
+		}
+		return durations;
+	}
+	
+	/**
+	 * sends the query on a new connection
+	 */
+	private void query() throws Exception
+	{
+		CoordinationClient client = new CoordinationClient(server, port);
+		try
+		{
+			client.getServerMessage(message);
+			client.getServerMessage(ClientHandler.RESPONSE_EXIT);
+		}
+		finally
+		{
+			client.closeSocket();
+		}
+	}
+	
+	private static void print(String client, long[] durations)
+	{
+		int queries = durations.length - 1;
+		long total = durations[queries];
+		long[] sorted = Arrays.copyOf(durations, queries);
+		Arrays.sort(sorted);
+		long sum = 0;
+		for(long duration : sorted)
+		{
+			sum += duration;
+		}
+		System.out.println(String.format(Locale.ROOT, "%-8s  %9.1f  %9.0f  %7.1f  %6.1f  %6.1f  %6.0f", client, total / 1e6, queries * 1e9 / total, sum / 1e3 / queries, sorted[queries / 2] / 1e3, sorted[(int) (queries * 0.99)] / 1e3, sorted[queries - 1] / 1e3));
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * shows that the cost of dispatching a request through the CommandRegistry does not
+ * depend on the number of registered commands.
+ *
+ * registries with a growing number of commands are filled with handlers counting their
+ * calls. the requests name randomly chosen commands of the registry and are dispatched:
+ * - as text message: the message is parsed into a ClientRequest, its opcode looked up by
+ *   the command and the handler called
+ * - as binary request: the request already carries the opcode, as decoded from a frame
+ *   of the binary protocol, and the handler is called
+ * - through a chain of startsWith checks over all commands, the way the commands were
+ *   resolved before the registry, for comparison
+ *
+ * usage: DispatchBenchmark [number of dispatches per run]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class DispatchBenchmark
+{
+	private static final int[] NUMBERS_OF_COMMANDS			= {20, 200, 2000, 20000};
+	private static final int NUMBER_OF_MESSAGES				= 1024;
+
+	private long calls;
+
+	public static void main(String[] args)
+	{
+		int dispatches = args.length>0 ? Integer.parseInt(args[0]) : 5000000;
+
+		System.out.println("dispatches per run: [" + dispatches + "], ns per dispatch");
+		System.out.println("commands   text message   binary request   startsWith chain");
+		DispatchBenchmark benchmark = new DispatchBenchmark();
+		for(int pass=0;pass<2;pass++)
+		{
+			for(int numberOfCommands : NUMBERS_OF_COMMANDS)
+			{
+				double[] results = benchmark.run(numberOfCommands, dispatches);
+				// the first pass warms up the jvm
+				if(pass==1)
+				{
+					System.out.println(String.format(Locale.ROOT, "%8d   %12.1f   %14.1f   %16.1f", numberOfCommands, results[0], results[1], results[2]));
+				}
+			}
+		}
+		if(benchmark.calls==0)
+		{
+			System.out.println("no handler was called");
+		}
+	}
+
+	/**
+	 * returns the nanoseconds per dispatch of the text message, the binary request and the chain
+	 */
+	private double[] run(int numberOfCommands, int dispatches)
+	{
+		CommandHandler handler = new CommandHandler()
+		{
+			@Override
+			public void handle(ClientHandler clientHandler, ClientRequest request)
+			{
+				calls++;
+			}
+		};
+		CommandRegistry registry = new CommandRegistry();
+		String[] commands = new String[numberOfCommands];
+		String[] prefixes = new String[numberOfCommands];
+		for(int i=0;i<numberOfCommands;i++)
+		{
+			commands[i] = "command" + i;
+			prefixes[i] = commands[i] + ClientHandler.DELIMITER;
+			registry.register(commands[i], handler);
+		}
+		Random random = new Random(numberOfCommands);
+		String[] messages = new String[NUMBER_OF_MESSAGES];
+		ClientRequest[] binaryRequests = new ClientRequest[NUMBER_OF_MESSAGES];
+		for(int i=0;i<NUMBER_OF_MESSAGES;i++)
+		{
+			String command = commands[random.nextInt(numberOfCommands)];
+			messages[i] = command + ClientHandler.DELIMITER + "id_0001";
+			ClientRequest request = ClientRequest.parse(messages[i]);
+			registry.getHandler(request);
+			binaryRequests[i] = new ClientRequest(request.getOpcode(), command, request.getJobId(), null);
+		}
+
+		double[] results = new double[3];
+		try
+		{
+			long start = System.nanoTime();
+			for(int i=0;i<dispatches;i++)
+			{
+				ClientRequest request = ClientRequest.parse(messages[i & (NUMBER_OF_MESSAGES - 1)]);
+				registry.getHandler(request).handle(null, request);
+			}
+			results[0] = (double) (System.nanoTime() - start) / dispatches;
+
+			start = System.nanoTime();
+			for(int i=0;i<dispatches;i++)
+			{
+				ClientRequest request = binaryRequests[i & (NUMBER_OF_MESSAGES - 1)];
+				registry.getHandler(request).handle(null, request);
+			}
+			results[1] = (double) (System.nanoTime() - start) / dispatches;
+
+			// the chain is linear in the number of commands, so fewer dispatches are enough
+			int chainDispatches = Math.max(NUMBER_OF_MESSAGES, dispatches / numberOfCommands);
+			start = System.nanoTime();
+			for(int i=0;i<chainDispatches;i++)
+			{
+				String message = messages[i & (NUMBER_OF_MESSAGES - 1)];
+				for(String prefix : prefixes)
+				{
+					if(message.startsWith(prefix))
+					{
+						handler.handle(null, null);
+						break;
+					}
+				}
+			}
+			results[2] = (double) (System.nanoTime() - start) / chainDispatches;
+		}
+		catch(Exception ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+		return results;
+	}
+}
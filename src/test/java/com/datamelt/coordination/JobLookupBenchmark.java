@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+import com.datamelt.etl.Job;
+import com.datamelt.etl.JobCollection;
+
+/**
+ * measures the lookups of jobs by id with 10000 and 100000 jobs.
+ *
+ * - getJob and removeJob of the JobCollection, which are hash lookups, compared with
+ *   walking the list of jobs, the way the collection looked up a job before it was
+ *   indexed
+ * - getJobStatus of the JobManager for jobs depending on three other jobs, loaded from a
+ *   generated json file
+ *
+ * usage: JobLookupBenchmark [number of lookups]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class JobLookupBenchmark
+{
+	private static final int[] NUMBERS_OF_JOBS				= {10000, 100000};
+	private static final int NUMBER_OF_DEPENDENCIES			= 3;
+	private static final String JOB_FILENAME				= "lookup.kjb";
+
+	// keeps the results of the lookups, so the jit can not drop them
+	private static long checksum;
+
+	public static void main(String[] args) throws Exception
+	{
+		int lookups = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+
+		System.out.println("lookups: [" + lookups + "], ns per call");
+		System.out.println("    jobs   getJob   list walk   removeJob+addJob   getJobStatus");
+		for(int pass=0;pass<2;pass++)
+		{
+			for(int numberOfJobs : NUMBERS_OF_JOBS)
+			{
+				double[] results = run(numberOfJobs, lookups);
+				// the first pass warms up the jvm
+				if(pass==1)
+				{
+					System.out.println(String.format(Locale.ROOT, "%8d  %7.1f  %10.1f  %17.1f  %13.1f", numberOfJobs, results[0], results[1], results[2], results[3]));
+				}
+			}
+		}
+		System.out.println("checksum: [" + checksum + "]");
+		System.exit(0);
+	}
+
+	/**
+	 * returns the nanoseconds per getJob, list walk, removeJob plus addJob and getJobStatus
+	 */
+	private static double[] run(int numberOfJobs, int lookups) throws Exception
+	{
+		JobCollection jobs = new JobCollection();
+		for(int i=0;i<numberOfJobs;i++)
+		{
+			jobs.addJob(new Job(getJobId(i), JOB_FILENAME, "/tmp"));
+		}
+		Random random = new Random(numberOfJobs);
+		String[] jobIds = new String[1024];
+		for(int i=0;i<jobIds.length;i++)
+		{
+			jobIds[i] = getJobId(random.nextInt(numberOfJobs));
+		}
+
+		double[] results = new double[4];
+		long start = System.nanoTime();
+		for(int i=0;i<lookups;i++)
+		{
+			checksum += jobs.getJob(jobIds[i & 1023]).getJobId().length();
+		}
+		results[0] = (double) (System.nanoTime() - start) / lookups;
+
+		// walking the list is linear in the number of jobs, so fewer lookups are enough
+		int walks = Math.max(1024, lookups / (numberOfJobs / 100));
+		start = System.nanoTime();
+		for(int i=0;i<walks;i++)
+		{
+			String jobId = jobIds[i & 1023];
+			for(Job job : jobs.getJobs())
+			{
+				if(job.getJobId().equals(jobId))
+				{
+					checksum++;
+					break;
+				}
+			}
+		}
+		results[1] = (double) (System.nanoTime() - start) / walks;
+
+		start = System.nanoTime();
+		for(int i=0;i<lookups;i++)
+		{
+			jobs.addJob(jobs.removeJob(jobIds[i & 1023]));
+		}
+		results[2] = (double) (System.nanoTime() - start) / lookups;
+
+		results[3] = runJobStatus(numberOfJobs, jobIds, lookups);
+		return results;
+	}
+
+	/**
+	 * returns the nanoseconds per getJobStatus of a JobManager with the given number of jobs
+	 */
+	private static double runJobStatus(int numberOfJobs, String[] jobIds, int lookups) throws Exception
+	{
+		File folder = Files.createTempDirectory("jobrunner-lookup").toFile();
+		Files.write(new File(folder, JOB_FILENAME).toPath(), new byte[0]);
+		File jobsFile = writeJobs(folder, numberOfJobs);
+		// the JobManager logs the loaded jobs
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		}));
+		JobManager jobManager;
+		try
+		{
+			jobManager = new JobManager(jobsFile.getPath());
+		}
+		finally
+		{
+			System.setOut(out);
+			for(File file : folder.listFiles())
+			{
+				file.delete();
+			}
+			folder.delete();
+		}
+		long start = System.nanoTime();
+		for(int i=0;i<lookups;i++)
+		{
+			checksum += jobManager.getJobStatus(jobIds[i & 1023]);
+		}
+		return (double) (System.nanoTime() - start) / lookups;
+	}
+
+	private static File writeJobs(File folder, int numberOfJobs) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"jobs\": [");
+		for(int i=0;i<numberOfJobs;i++)
+		{
+			json.append(i>0 ? "," : "").append("{\"id\": \"" + getJobId(i) + "\", \"filename\": \"" + JOB_FILENAME + "\", \"path\": \"" + folder.getAbsolutePath() + "\", \"scheduled_start_time\": \"00:00:01\"");
+			// every job depends on the jobs before it
+			if(i>=NUMBER_OF_DEPENDENCIES)
+			{
+				json.append(", \"depends_on_job\": [");
+				for(int j=1;j<=NUMBER_OF_DEPENDENCIES;j++)
+				{
+					json.append(j>1 ? "," : "").append("{\"jobid\": \"" + getJobId(i - j) + "\"}");
+				}
+				json.append("]");
+			}
+			json.append("}");
+		}
+		json.append("]}");
+		File jobsFile = new File(folder, "jobs.json");
+		Files.write(jobsFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+		return jobsFile;
+	}
+
+	private static String getJobId(int number)
+	{
+		return String.format(Locale.ROOT, "id_%06d", number);
+	}
+}
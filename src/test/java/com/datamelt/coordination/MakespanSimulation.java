@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.datamelt.etl.Job;
+
+/**
+ * simulates a nightly batch to compare the total runtime (makespan) of the queue orders
+ * of the ExecutionPool.
+ *
+ * the batch is a generated dependency graph looking like a typical data warehouse load:
+ * many short extract jobs, several layers of staging and transformation jobs depending on
+ * jobs of the earlier layers, a few long running fact loads and the data marts at the
+ * end. the expected duration of each job is known from its history, the actual duration
+ * deviates from it by some random amount.
+ *
+ * the batch is run with a limited number of process slots, once in fifo order and once in
+ * critical path order, and the makespan of both runs is compared with the lower bound:
+ * the longer one of the critical path of the batch and the total runtime divided by the
+ * number of slots.
+ *
+ * usage: MakespanSimulation [number of jobs] [number of slots] [number of batches]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class MakespanSimulation
+{
+	private static final long MINUTE						= 60000;
+
+	private ArrayList<Job> jobs								= new ArrayList<Job>();
+	private JobGraph jobGraph;
+	private HashMap<String,Long> expectedDurations			= new HashMap<String,Long>();
+	private HashMap<String,Long> actualDurations			= new HashMap<String,Long>();
+
+	public static void main(String[] args)
+	{
+		int numberOfJobs = args.length>0 ? Integer.parseInt(args[0]) : 400;
+		int slots = args.length>1 ? Integer.parseInt(args[1]) : 8;
+		int batches = args.length>2 ? Integer.parseInt(args[2]) : 20;
+
+		System.out.println("jobs: [" + numberOfJobs + "], slots: [" + slots + "], batches: [" + batches + "]");
+		System.out.println("batch  lower bound     fifo  critical path  fifo/bound  critical path/bound");
+		double totalFifo = 0;
+		double totalCriticalPath = 0;
+		int batchesImproved = 0;
+		for(int batch=1;batch<=batches;batch++)
+		{
+			MakespanSimulation simulation = new MakespanSimulation(numberOfJobs, new Random(batch));
+			long lowerBound = simulation.getLowerBound(slots);
+			long fifo = simulation.run(slots, false);
+			long criticalPath = simulation.run(slots, true);
+			totalFifo += fifo;
+			totalCriticalPath += criticalPath;
+			if(criticalPath<fifo)
+			{
+				batchesImproved++;
+			}
+			System.out.println(String.format(Locale.ROOT, "%5d  %7d min  %5d min  %9d min  %10.3f  %19.3f", batch, lowerBound / MINUTE, fifo / MINUTE, criticalPath / MINUTE, (double) fifo / lowerBound, (double) criticalPath / lowerBound));
+		}
+		System.out.println(String.format(Locale.ROOT, "average makespan fifo: [%.0f min], critical path: [%.0f min], reduction: [%.1f%%], batches improved: [%d/%d]", totalFifo / batches / MINUTE, totalCriticalPath / batches / MINUTE, (totalFifo - totalCriticalPath) * 100 / totalFifo, batchesImproved, batches));
+	}
+
+	public MakespanSimulation(int numberOfJobs, Random random)
+	{
+		// share of the jobs per layer: extracts, staging, transformations, facts, marts
+		double[] layerShare = {0.35, 0.25, 0.2, 0.05, 0.15};
+		double[] medianMinutes = {2, 4, 8, 45, 6};
+		ArrayList<ArrayList<Job>> layers = new ArrayList<ArrayList<Job>>();
+		int id = 0;
+		for(int layer=0;layer<layerShare.length;layer++)
+		{
+			ArrayList<Job> layerJobs = new ArrayList<Job>();
+			int layerSize = Math.max(1, (int) Math.round(numberOfJobs * layerShare[layer]));
+			for(int i=0;i<layerSize;i++)
+			{
+				Job job = new Job("job_" + (id++), "job.kjb", "/tmp");
+				if(layer>0)
+				{
+					// mostly jobs of the previous layer, sometimes of an earlier one
+					int numberOfDependencies = 1 + random.nextInt(3);
+					for(int j=0;j<numberOfDependencies;j++)
+					{
+						int dependencyLayer = random.nextInt(4)==0 ? random.nextInt(layer) : layer - 1;
+						List<Job> candidates = layers.get(dependencyLayer);
+						String dependentJobId = candidates.get(random.nextInt(candidates.size())).getJobId();
+						if(!job.getDependentJobs().contains(dependentJobId))
+						{
+							job.addDependentJob(dependentJobId);
+						}
+					}
+				}
+				// log-normal durations: most jobs are short, some take much longer
+				long expected = Math.max(MINUTE / 6, (long) (medianMinutes[layer] * MINUTE * Math.exp(random.nextGaussian() * 0.8)));
+				long actual = (long) (expected * Math.exp(random.nextGaussian() * 0.2));
+				expectedDurations.put(job.getJobId(), expected);
+				actualDurations.put(job.getJobId(), actual);
+				layerJobs.add(job);
+				jobs.add(job);
+			}
+			layers.add(layerJobs);
+		}
+		try
+		{
+			jobGraph = JobGraph.build(jobs);
+		}
+		catch(Exception ex)
+		{
+			// the jobs only depend on jobs of earlier layers
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * returns the minimum possible makespan: the longer one of the critical path and the
+	 * total runtime spread evenly over all slots
+	 *
+	 * @param slots		the number of process slots
+	 * @return			the lower bound in milliseconds
+	 */
+	public long getLowerBound(int slots)
+	{
+		long longestPath = 0;
+		for(long pathLength : CriticalPath.calculate(jobGraph, actualDurations, 0).values())
+		{
+			longestPath = Math.max(longestPath, pathLength);
+		}
+		long totalDuration = 0;
+		for(long duration : actualDurations.values())
+		{
+			totalDuration += duration;
+		}
+		return Math.max(longestPath, totalDuration / slots);
+	}
+
+	/**
+	 * runs the batch and returns its makespan. the jobs are ordered by the critical path
+	 * lengths calculated from the expected durations, but run with the actual durations.
+	 *
+	 * @param slots				the number of process slots
+	 * @param criticalPath		true for the critical path order, false for fifo
+	 * @return					the makespan in milliseconds
+	 */
+	public long run(int slots, boolean criticalPath)
+	{
+		final HashMap<String,Long> criticalPathLengths = CriticalPath.calculate(jobGraph, expectedDurations, 0);
+		final HashMap<String,Long> readySequence = new HashMap<String,Long>();
+		Comparator<Job> order = new Comparator<Job>()
+		{
+			@Override
+			public int compare(Job job1, Job job2)
+			{
+				return Long.compare(readySequence.get(job1.getJobId()), readySequence.get(job2.getJobId()));
+			}
+		};
+		if(criticalPath)
+		{
+			final Comparator<Job> fifoOrder = order;
+			order = new Comparator<Job>()
+			{
+				@Override
+				public int compare(Job job1, Job job2)
+				{
+					int result = Long.compare(criticalPathLengths.get(job2.getJobId()), criticalPathLengths.get(job1.getJobId()));
+					return result!=0 ? result : fifoOrder.compare(job1, job2);
+				}
+			};
+		}
+		// jobs waiting for the given job
+		HashMap<String,ArrayList<Job>> dependents = new HashMap<String,ArrayList<Job>>();
+		HashMap<String,Integer> openDependencies = new HashMap<String,Integer>();
+		PriorityQueue<Job> readyJobs = new PriorityQueue<Job>(16, order);
+		long sequence = 0;
+		for(Job job : jobs)
+		{
+			openDependencies.put(job.getJobId(), job.getDependentJobs().size());
+			for(String dependentJobId : job.getDependentJobs())
+			{
+				ArrayList<Job> jobsWaiting = dependents.get(dependentJobId);
+				if(jobsWaiting==null)
+				{
+					jobsWaiting = new ArrayList<Job>();
+					dependents.put(dependentJobId, jobsWaiting);
+				}
+				jobsWaiting.add(job);
+			}
+			if(job.getDependentJobs().isEmpty())
+			{
+				readySequence.put(job.getJobId(), sequence++);
+				readyJobs.add(job);
+			}
+		}
+		// running jobs ordered by their end time
+		PriorityQueue<long[]> running = new PriorityQueue<long[]>(16, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] running1, long[] running2)
+			{
+				return Long.compare(running1[0], running2[0]);
+			}
+		});
+		HashMap<Long,Job> runningJobs = new HashMap<Long,Job>();
+		long now = 0;
+		long runId = 0;
+		while(!readyJobs.isEmpty() || !running.isEmpty())
+		{
+			while(running.size()<slots && !readyJobs.isEmpty())
+			{
+				Job job = readyJobs.poll();
+				running.add(new long[] {now + actualDurations.get(job.getJobId()), runId});
+				runningJobs.put(runId++, job);
+			}
+			long[] finished = running.poll();
+			now = finished[0];
+			Job job = runningJobs.remove(finished[1]);
+			ArrayList<Job> jobsWaiting = dependents.get(job.getJobId());
+			if(jobsWaiting!=null)
+			{
+				for(Job waitingJob : jobsWaiting)
+				{
+					int open = openDependencies.get(waitingJob.getJobId()) - 1;
+					openDependencies.put(waitingJob.getJobId(), open);
+					if(open==0)
+					{
+						readySequence.put(waitingJob.getJobId(), sequence++);
+						readyJobs.add(waitingJob);
+					}
+				}
+			}
+		}
+		return now;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * checks that the server does not need a thread per running job process.
+ *
+ * the check launches the given number of processes through the wrapper of the
+ * ProcessRecord, like EtlJob does, with a sleep as the stand-in for the etl script, and
+ * registers them with one ProcessReaper. the jdk keeps a thread waiting for each child
+ * process, but only until the launcher has ended; idle threads of the jdk are dropped
+ * after 60 seconds. so the number of threads is sampled once more after 65 seconds, while
+ * all processes are still running, and may only be one higher than before the launch:
+ * the thread of the reaper.
+ *
+ * at the end the check waits until the reaper has reported all processes with exit code 0.
+ *
+ * usage: ProcessReaperCheck [number of processes] [seconds the processes run]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ProcessReaperCheck
+{
+	private static final long SAMPLE_DELAY					= 65000;
+
+	public static void main(String[] args) throws Exception
+	{
+		int numberOfProcesses = args.length>0 ? Integer.parseInt(args[0]) : 500;
+		int seconds = args.length>1 ? Integer.parseInt(args[1]) : 80;
+		if(seconds * 1000L <= SAMPLE_DELAY + 5000)
+		{
+			System.out.println("the processes have to run longer than " + (SAMPLE_DELAY / 1000 + 5) + " seconds");
+			System.exit(1);
+		}
+
+		File folder = Files.createTempDirectory("jobrunner-reaper").toFile();
+		ProcessReaper reaper = new ProcessReaper();
+		final AtomicInteger failed = new AtomicInteger();
+		final CountDownLatch exited = new CountDownLatch(numberOfProcesses);
+
+		int threadsBefore = Thread.getAllStackTraces().size();
+		long start = System.currentTimeMillis();
+		for(int i=0;i<numberOfProcesses;i++)
+		{
+			final ProcessRecord record = new ProcessRecord(folder.getAbsolutePath(), "check_" + i);
+			ArrayList<String> command = new ArrayList<String>();
+			command.add("sleep");
+			command.add(String.valueOf(seconds));
+			ProcessBuilder processBuilder = new ProcessBuilder(record.wrap(command));
+			File output = new File(folder, "check_" + i + ".log");
+			processBuilder.redirectOutput(output);
+			record.create(System.currentTimeMillis(), output);
+			Process launcher = processBuilder.start();
+			reaper.register(launcher, record, new ProcessReaper.ProcessListener()
+			{
+				@Override
+				public void processExited(int exitCode)
+				{
+					if(exitCode!=0)
+					{
+						failed.incrementAndGet();
+					}
+					record.delete();
+					exited.countDown();
+				}
+			});
+		}
+		long launchTime = System.currentTimeMillis() - start;
+		int threadsLaunched = Thread.getAllStackTraces().size();
+
+		Thread.sleep(SAMPLE_DELAY - (System.currentTimeMillis() - start));
+		int threadsLater = Thread.getAllStackTraces().size();
+		int jdkReaperThreads = countThreads("process reaper");
+		int running = reaper.getNumberOfProcesses();
+
+		exited.await();
+		long totalTime = System.currentTimeMillis() - start;
+		reaper.shutdown();
+
+		System.out.println(String.format(Locale.ROOT, "processes: %d, launched in %d ms, all ended after %d ms", numberOfProcesses, launchTime, totalTime));
+		System.out.println(String.format(Locale.ROOT, "threads before: %d, after the launch: %d, after %d s: %d (jdk process reaper threads: %d, processes running: %d)", threadsBefore, threadsLaunched, SAMPLE_DELAY / 1000, threadsLater, jdkReaperThreads, running));
+		System.out.println(String.format(Locale.ROOT, "failed exit codes: %d", failed.get()));
+
+		boolean violated = false;
+		if(running!=numberOfProcesses)
+		{
+			System.out.println("not all processes were running when the threads were counted");
+			violated = true;
+		}
+		if(threadsLater > threadsBefore + 1)
+		{
+			System.out.println("the number of threads grew with the number of running processes");
+			violated = true;
+		}
+		if(failed.get()>0 || reaper.getNumberOfProcesses()!=0)
+		{
+			System.out.println("not all processes ended with exit code 0");
+			violated = true;
+		}
+		if(violated)
+		{
+			System.exit(1);
+		}
+	}
+
+	private static int countThreads(String prefix)
+	{
+		int count = 0;
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if(thread.getName().startsWith(prefix))
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * compares the binary protocol with java object serialization: the number of bytes per
+ * message and the time per round trip.
+ *
+ * the bytes are counted with the codecs of the server and the client, for a request and
+ * for a text and an integer response. java serialization writes the class description
+ * of an object only the first time, so the first and a later message are counted. the
+ * round trips alternate between the jobstartstatus and the jobfinished message - one
+ * answered with an integer, one with a text - and are sent to a running server, once
+ * with each protocol.
+ *
+ * usage: ProtocolBenchmark [server] [port] [job id] [number of round trips]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class ProtocolBenchmark
+{
+	private static final int WARMUP_ROUND_TRIPS				= 5000;
+
+	public static void main(String[] args) throws Exception
+	{
+		String server = args.length>0 ? args[0] : "localhost";
+		int port = args.length>1 ? Integer.parseInt(args[1]) : 9000;
+		String jobId = args.length>2 ? args[2] : "id_0001";
+		int roundTrips = args.length>3 ? Integer.parseInt(args[3]) : 20000;
+
+		String[] messages = {ClientHandler.RESPONSE_JOB_START_STATUS + ClientHandler.DELIMITER + jobId, ClientHandler.RESPONSE_JOB_FINISHED + ClientHandler.DELIMITER + jobId};
+		String textResponse = "job [" + jobId + "] not finished";
+
+		System.out.println("bytes per message            object stream first/later   binary");
+		System.out.println(String.format(Locale.ROOT, "request %-22s %11d / %-9d %6d", messages[0], getObjectStreamRequestSize(messages[0], false), getObjectStreamRequestSize(messages[0], true), getSize(new BinaryCodec().encodeRequest(messages[0], ByteBuffer.allocate(256)))));
+		System.out.println(String.format(Locale.ROOT, "text response (%2d chars)       %11d / %-9d %6d", textResponse.length(), getResponseSize(new ObjectStreamCodec(), textResponse, false), getResponseSize(new ObjectStreamCodec(), textResponse, true), getResponseSize(new BinaryCodec(), textResponse, false)));
+		System.out.println(String.format(Locale.ROOT, "integer response              %11d / %-9d %6d", getResponseSize(new ObjectStreamCodec(), 0, false), getResponseSize(new ObjectStreamCodec(), 0, true), getResponseSize(new BinaryCodec(), 0, false)));
+
+		System.out.println();
+		System.out.println("server: [" + server + ":" + port + "], round trips: [" + roundTrips + "], messages: " + Arrays.toString(messages));
+		System.out.println("protocol        total ms  mean us  p50 us  p99 us");
+		for(boolean useObjectStream : new boolean[] {true, false})
+		{
+			CoordinationClient client = new CoordinationClient(server, port, useObjectStream);
+			run(client, messages, WARMUP_ROUND_TRIPS);
+			long[] durations = run(client, messages, roundTrips);
+			client.getServerMessage(ClientHandler.RESPONSE_EXIT);
+			client.closeSocket();
+			print(client.isUsingObjectStream() ? "object stream" : "binary", durations);
+		}
+	}
+
+	/**
+	 * returns the duration of each round trip in nanoseconds, followed by the total duration
+	 */
+	private static long[] run(CoordinationClient client, String[] messages, int roundTrips) throws Exception
+	{
+		long[] durations = new long[roundTrips + 1];
+		long start = System.nanoTime();
+		for(int i=0;i<roundTrips;i++)
+		{
+			long roundTripStart = System.nanoTime();
+			client.getServerMessage(messages[i % messages.length]);
+			durations[i] = System.nanoTime() - roundTripStart;
+		}
+		durations[roundTrips] = System.nanoTime() - start;
+		return durations;
+	}
+
+	/**
+	 * returns the bytes the client writes to send the message, without the stream header
+	 */
+	private static int getObjectStreamRequestSize(String message, boolean later) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+		if(later)
+		{
+			outputStream.writeObject("a different message");
+		}
+		outputStream.flush();
+		int before = bytes.size();
+		outputStream.writeObject(message);
+		outputStream.flush();
+		return bytes.size() - before;
+	}
+
+	/**
+	 * returns the bytes the server writes to send the response
+	 */
+	private static int getResponseSize(MessageCodec codec, Object response, boolean later) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		if(later)
+		{
+			codec.encode(response instanceof Integer ? (Object) 1 : "a different response", buffer);
+			buffer.clear();
+		}
+		return getSize(codec.encode(response, buffer));
+	}
+
+	private static int getSize(ByteBuffer buffer)
+	{
+		return buffer.position();
+	}
+
+	private static void print(String protocol, long[] durations)
+	{
+		int roundTrips = durations.length - 1;
+		long[] sorted = Arrays.copyOf(durations, roundTrips);
+		Arrays.sort(sorted);
+		long sum = 0;
+		for(long duration : sorted)
+		{
+			sum += duration;
+		}
+		System.out.println(String.format(Locale.ROOT, "%-13s  %9.1f  %7.1f  %6.1f  %6.1f", protocol, durations[roundTrips] / 1e6, sum / 1e3 / roundTrips, sorted[roundTrips / 2] / 1e3, sorted[(int) (roundTrips * 0.99)] / 1e3));
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * checks that the status requests of the clients see consistent jobs while the jobs are
+ * reloaded and removed all the time.
+ *
+ * a writer thread switches the json file between two versions of the jobs and reloads
+ * it, and removes a job in between. version a has the jobs a_0, a_1, ..., version b the
+ * jobs b_0, b_1, ... and both have the jobs common_0 to common_9, which all other jobs
+ * depend on. the reader threads meanwhile send what the listjobs, jobstartstatus and
+ * jobjson messages ask the JobManager for, and check:
+ *
+ * - a job list contains the jobs of one version only and all common jobs
+ * - the common jobs always exist, with their json definition
+ * - no request fails with an exception
+ *
+ * usage: RegistryStressCheck [number of jobs] [number of readers] [seconds]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class RegistryStressCheck
+{
+	private static final int NUMBER_OF_COMMON_JOBS			= 10;
+	private static final String JOB_FILENAME				= "stress.kjb";
+
+	private JobManager jobManager;
+	private File jobsFile;
+	private volatile boolean running						= true;
+	private AtomicLong requests								= new AtomicLong();
+	private AtomicLong violations							= new AtomicLong();
+	private AtomicReference<String> firstViolation			= new AtomicReference<String>();
+	private long reloads;
+	private long removes;
+
+	public static void main(String[] args) throws Exception
+	{
+		int numberOfJobs = args.length>0 ? Integer.parseInt(args[0]) : 1000;
+		int readers = args.length>1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length>2 ? Integer.parseInt(args[2]) : 10;
+
+		File folder = Files.createTempDirectory("jobrunner-stress").toFile();
+		Files.write(new File(folder, JOB_FILENAME).toPath(), new byte[0]);
+		RegistryStressCheck check = new RegistryStressCheck();
+		check.jobsFile = new File(folder, "jobs.json");
+		check.writeJobs(folder, "a", numberOfJobs);
+
+		// the JobManager logs every reload
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		}));
+		try
+		{
+			check.jobManager = new JobManager(check.jobsFile.getPath());
+			check.run(folder, numberOfJobs, readers, seconds);
+		}
+		finally
+		{
+			System.setOut(out);
+			for(File file : folder.listFiles())
+			{
+				file.delete();
+			}
+			folder.delete();
+		}
+		System.out.println(String.format(Locale.ROOT, "jobs: [%d], readers: [%d], seconds: [%d], reloads: [%d], removes: [%d], requests: [%d], violations: [%d]", numberOfJobs, readers, seconds, check.reloads, check.removes, check.requests.get(), check.violations.get()));
+		if(check.firstViolation.get()!=null)
+		{
+			System.out.println("first violation: " + check.firstViolation.get());
+			System.exit(1);
+		}
+	}
+
+	private void run(File folder, int numberOfJobs, int readers, int seconds) throws Exception
+	{
+		Thread[] threads = new Thread[readers];
+		for(int i=0;i<readers;i++)
+		{
+			final Random random = new Random(i);
+			threads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					while(running)
+					{
+						request(random);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		long end = System.currentTimeMillis() + seconds * 1000L;
+		String version = "a";
+		while(System.currentTimeMillis()<end)
+		{
+			version = version.equals("a") ? "b" : "a";
+			writeJobs(folder, version, numberOfJobs);
+			jobManager.reloadJobs();
+			reloads++;
+			// the last job of the version, no other job depends on it
+			if(jobManager.removeJob(version + "_" + (numberOfJobs - 1))==null)
+			{
+				removes++;
+			}
+		}
+		running = false;
+		for(Thread thread : threads)
+		{
+			thread.join();
+		}
+	}
+
+	private void request(Random random)
+	{
+		try
+		{
+			int type = random.nextInt(3);
+			if(type==0)
+			{
+				checkJobList(jobManager.getJobList());
+			}
+			else if(type==1)
+			{
+				String jobId = "common_" + random.nextInt(NUMBER_OF_COMMON_JOBS);
+				if(jobManager.getJobStatus(jobId)==JobManager.STATUS_UNDEFINED)
+				{
+					violation("job [" + jobId + "] has status undefined");
+				}
+			}
+			else
+			{
+				String jobId = "common_" + random.nextInt(NUMBER_OF_COMMON_JOBS);
+				if(jobManager.getJobAsJson(jobId)==null)
+				{
+					violation("job [" + jobId + "] has no json definition");
+				}
+			}
+			requests.incrementAndGet();
+		}
+		catch(Throwable ex)
+		{
+			violation(ex.toString());
+		}
+	}
+
+	private void checkJobList(String[] jobIds)
+	{
+		String version = null;
+		int commonJobs = 0;
+		for(String jobId : jobIds)
+		{
+			if(jobId.startsWith("common_"))
+			{
+				commonJobs++;
+			}
+			else if(version==null)
+			{
+				version = jobId.substring(0, 1);
+			}
+			else if(!jobId.startsWith(version))
+			{
+				violation("the job list contains jobs of both versions: [" + version + "] and [" + jobId + "]");
+				return;
+			}
+		}
+		if(commonJobs!=NUMBER_OF_COMMON_JOBS)
+		{
+			violation("the job list contains [" + commonJobs + "] common jobs");
+		}
+	}
+
+	private void violation(String message)
+	{
+		violations.incrementAndGet();
+		firstViolation.compareAndSet(null, message);
+	}
+
+	private void writeJobs(File folder, String version, int numberOfJobs) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"jobs\": [");
+		for(int i=0;i<NUMBER_OF_COMMON_JOBS;i++)
+		{
+			json.append(job("common_" + i, folder, null)).append(",");
+		}
+		for(int i=0;i<numberOfJobs;i++)
+		{
+			// chains of ten jobs, the first one depends on a common job
+			String dependentJobId = i % 10==0 ? "common_" + (i / 10) % NUMBER_OF_COMMON_JOBS : version + "_" + (i - 1);
+			json.append(i>0 ? "," : "").append(job(version + "_" + i, folder, dependentJobId));
+		}
+		json.append("]}");
+		File temporaryFile = new File(jobsFile.getPath() + ".tmp");
+		Files.write(temporaryFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile.toPath(), jobsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String job(String jobId, File folder, String dependentJobId)
+	{
+		String json = "{\"id\": \"" + jobId + "\", \"filename\": \"" + JOB_FILENAME + "\", \"path\": \"" + folder.getAbsolutePath() + "\", \"scheduled_start_time\": \"00:00:01\"";
+		if(dependentJobId!=null)
+		{
+			json = json + ", \"depends_on_job\": [{\"jobid\": \"" + dependentJobId + "\"}]";
+		}
+		return json + "}";
+	}
+}
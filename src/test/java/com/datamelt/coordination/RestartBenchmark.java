@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.datamelt.coordination;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+
+import com.datamelt.etl.Job;
+import com.datamelt.util.Time;
+
+/**
+ * measures the restart time of the server with a large number of jobs: the time until the
+ * JobManager has loaded the jobs and recovered their state from the journal.
+ *
+ * - cold: the jobs are parsed from the json file and every job file is checked
+ * - warm: the jobs are read from the snapshot written by the previous run
+ *
+ * the jobs depend on the three jobs before them and half of them have finished before the
+ * restart, so the snapshot and the journal carry a status for them.
+ *
+ * usage: RestartBenchmark [number of jobs] [number of runs]
+ *
+ * @author uwe geercken 2017
+ *
+ */
+public class RestartBenchmark
+{
+	private static final int NUMBER_OF_DEPENDENCIES			= 3;
+	private static final String JOB_FILENAME				= "restart.kjb";
+
+	public static void main(String[] args) throws Exception
+	{
+		int numberOfJobs = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+		int runs = args.length>1 ? Integer.parseInt(args[1]) : 5;
+
+		File folder = Files.createTempDirectory("jobrunner-restart").toFile();
+		Files.write(new File(folder, JOB_FILENAME).toPath(), new byte[0]);
+		File jobsFile = writeJobs(folder, numberOfJobs);
+		String journalFilename = new File(folder, "restart.journal").getPath();
+		String snapshotFilename = new File(folder, "restart.snapshot").getPath();
+
+		// the JobManager logs the loaded jobs and the recovered state
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		}));
+		long[] coldTimes = new long[runs];
+		long[] warmTimes = new long[runs];
+		try
+		{
+			// the first server run finishes half of the jobs and writes the snapshot when it stops
+			JobManager jobManager = new JobManager(jobsFile.getPath());
+			jobManager.recoverState(journalFilename);
+			for(int i=0;i<numberOfJobs;i+=2)
+			{
+				Job job = jobManager.getRegistry().getJob(getJobId(i));
+				job.requestStart();
+				job.queue();
+				job.markRunning(new Time(Calendar.getInstance()));
+				job.markFinished(0, new Time(Calendar.getInstance()));
+			}
+			jobManager.closeJournal();
+			jobManager.writeSnapshot(snapshotFilename);
+
+			// one run of each to warm up the jvm, the runs of both kinds alternate
+			for(int run=-1;run<runs;run++)
+			{
+				long cold = restart(jobsFile, null, journalFilename, numberOfJobs);
+				long warm = restart(jobsFile, snapshotFilename, journalFilename, numberOfJobs);
+				if(run>=0)
+				{
+					coldTimes[run] = cold;
+					warmTimes[run] = warm;
+				}
+			}
+		}
+		finally
+		{
+			System.setOut(out);
+			for(File file : folder.listFiles())
+			{
+				file.delete();
+			}
+			folder.delete();
+		}
+		System.out.println(String.format(Locale.ROOT, "jobs: %d, runs: %d, restart time in ms", numberOfJobs, runs));
+		System.out.println("          median      min      max");
+		print("cold", coldTimes);
+		print("warm", warmTimes);
+		System.exit(0);
+	}
+
+	/**
+	 * returns the milliseconds until the jobs are loaded and their state is recovered
+	 */
+	private static long restart(File jobsFile, String snapshotFilename, String journalFilename, int numberOfJobs) throws Exception
+	{
+		System.gc();
+		long start = System.nanoTime();
+		JobManager jobManager = new JobManager(jobsFile.getPath(), snapshotFilename);
+		jobManager.recoverState(journalFilename);
+		long time = (System.nanoTime() - start) / 1000000;
+		jobManager.closeJournal();
+		if(jobManager.getNumberOfJobs()!=numberOfJobs || !jobManager.getRegistry().getJob(getJobId(0)).isFinished())
+		{
+			throw new IllegalStateException("the jobs or their state were not recovered");
+		}
+		return time;
+	}
+
+	private static void print(String name, long[] times)
+	{
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format(Locale.ROOT, "%-6s %9d %8d %8d", name, sorted[sorted.length / 2], sorted[0], sorted[sorted.length - 1]));
+	}
+
+	private static File writeJobs(File folder, int numberOfJobs) throws IOException
+	{
+		StringBuilder json = new StringBuilder("{\"jobs\": [");
+		for(int i=0;i<numberOfJobs;i++)
+		{
+			json.append(i>0 ? "," : "").append("{\"id\": \"" + getJobId(i) + "\", \"filename\": \"" + JOB_FILENAME + "\", \"path\": \"" + folder.getAbsolutePath() + "\", \"scheduled_start_time\": \"00:00:01\"");
+			if(i>=NUMBER_OF_DEPENDENCIES)
+			{
+				json.append(", \"depends_on_job\": [");
+				for(int j=1;j<=NUMBER_OF_DEPENDENCIES;j++)
+				{
+					json.append(j>1 ? "," : "").append("{\"jobid\": \"" + getJobId(i - j) + "\"}");
+				}
+				json.append("]");
+			}
+			json.append("}");
+		}
+		json.append("]}");
+		File jobsFile = new File(folder, "jobs.json");
+		Files.write(jobsFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+		return jobsFile;
+	}
+
+	private static String getJobId(int number)
+	{
+		return String.format(Locale.ROOT, "id_%06d", number);
+	}
+}